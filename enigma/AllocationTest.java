@@ -0,0 +1,198 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/** Tests that the per-character paths of the machine (converting,
+ *  advancing, permuting, and the message loop of Main) do not allocate
+ *  objects, run on the inputs in testing/correct with each message
+ *  repeated many times.  The allocation of the testing thread is
+ *  measured with com.sun.management.ThreadMXBean; if it is not
+ *  available, the tests pass without checking anything.
+ *  @author Alessandro Buy
+ */
+public class AllocationTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(120);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Directory holding the inputs, relative to the directory from
+     *  which the unit tests are run. */
+    static final String CORRECT = "../testing/correct/";
+
+    /** Number of times each message line is repeated. */
+    static final int SCALE = 5000;
+
+    /** Greatest number of bytes that the per-character paths of Machine
+     *  and Permutation may allocate per character. */
+    static final double MACHINE_LIMIT = 0.01;
+
+    /** Greatest number of bytes that the message loop of Main may
+     *  allocate per character. */
+    static final double MAIN_LIMIT = 0.1;
+
+    /** Number of bytes the message loop of Main may allocate in addition,
+     *  once for the whole input, for its EngineSelector and the engines
+     *  that it makes and then reuses. */
+    static final long SELECTOR_ALLOWANCE = 8192;
+
+    /** Return the number of bytes allocated so far by the current thread,
+     *  or -1 if that cannot be measured. */
+    static long allocated() {
+        java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sun =
+            (com.sun.management.ThreadMXBean) bean;
+        if (!sun.isThreadAllocatedMemorySupported()
+            || !sun.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** Check that BODY, which handles CHARS characters, allocates at most
+     *  LIMIT bytes per character plus EXTRA bytes, reporting failure with
+     *  MSG. */
+    static void checkAllocation(String msg, long chars, double limit,
+                                long extra, Runnable body) {
+        allocated();
+        long before = allocated();
+        if (before < 0) {
+            return;
+        }
+        body.run();
+        long bytes = allocated() - before;
+        assertTrue(String.format("%s: %d bytes for %d characters",
+                                 msg, bytes, chars),
+                   bytes <= limit * chars + extra);
+    }
+
+    /** Return the contents of the file NAME in CORRECT. */
+    static String read(String name) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(CORRECT + name)));
+        } catch (IOException excp) {
+            throw new AssertionError("could not read " + CORRECT + name);
+        }
+    }
+
+    /** Return the input file NAME in CORRECT with each message line
+     *  repeated SCALE times. */
+    static String scaled(String name) {
+        StringBuilder result = new StringBuilder();
+        for (String line : read(name).split("\n")) {
+            int copies = line.startsWith("*") ? 1 : SCALE;
+            for (int i = 0; i < copies; i += 1) {
+                result.append(line).append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the number of characters to be converted in INPUT. */
+    static long letters(String input) {
+        long count = 0;
+        for (String line : input.split("\n")) {
+            if (!line.startsWith("*")) {
+                count += line.replaceAll("\\s", "").length();
+            }
+        }
+        return count;
+    }
+
+    /** Return the machine configured by the file CONF in CORRECT, set up
+     *  with SETTINGS. */
+    static Machine machine(String conf, String settings) {
+        Machine M = Main.parseConfig(read(conf));
+        Main.setUp(M, settings);
+        return M;
+    }
+
+    /** Number of characters converted by the Machine tests. */
+    static final int CHARS = 1_000_000;
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testMachineConvert() {
+        Machine M = machine("default.conf",
+                            "B BETA III IV I AXLE (BZ) (AR) (PD) (TQ)");
+        checkAllocation("convert", CHARS, MACHINE_LIMIT, 0, () -> {
+            int sum = 0;
+            for (int i = 0; i < CHARS; i += 1) {
+                sum += M.convert(i % 26);
+            }
+            assertTrue(sum > 0);
+        });
+    }
+
+    @Test
+    public void testAdvanceMachine() {
+        Machine M = machine("carroll3.conf", "B BETA GAMMA III IV I II UNSEEN");
+        checkAllocation("advanceMachine", CHARS, MACHINE_LIMIT, 0, () -> {
+            for (int i = 0; i < CHARS; i += 1) {
+                M.advanceMachine();
+            }
+        });
+    }
+
+    @Test
+    public void testPermutation() {
+        Permutation perm =
+            new Permutation("(AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+                            new CharacterRange('A', 'Z'));
+        checkAllocation("permute/invert", CHARS, MACHINE_LIMIT, 0, () -> {
+            int sum = 0;
+            for (int i = 0; i < CHARS; i += 1) {
+                int p = i % 60 - 30;
+                sum += perm.permute(p) + perm.invert(p);
+                sum += perm.permute((char) ('A' + i % 26))
+                    + perm.invert((char) ('A' + i % 26));
+            }
+            assertTrue(sum > 0);
+        });
+    }
+
+    @Test
+    public void testMessageLoop() {
+        String[][] files = {
+            { "default.conf", "carroll1.inp" },
+            { "default.conf", "carroll2.inp" },
+            { "carroll3.conf", "carroll3.inp" },
+            { "default.conf", "trivial1.inp" }
+        };
+        for (String[] file : files) {
+            String conf = read(file[0]), name = file[1];
+            String input = scaled(name);
+            byte[] bytes = input.getBytes();
+            PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+            for (int k = 0; k < 2; k += 1) {
+                Main main =
+                    new Main(new LineReader(new ByteArrayInputStream(bytes)),
+                             out);
+                Machine M = Main.parseConfig(conf);
+                checkAllocation(name, letters(input),
+                                k == 0 ? Double.MAX_VALUE : MAIN_LIMIT,
+                                SELECTOR_ALLOWANCE,
+                                () -> main.processMessages(M));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** The processing of many input files with a single machine
+ *  configuration.  Files are processed in parallel by a fixed number of
+ *  threads, each with its own copy of the machine.  An error in one file
+ *  is reported but does not stop the others; when all are done, a summary
+ *  is printed on the standard error.  With a quarantine directory, an
+ *  error in a message does not stop its file either: the message is
+ *  written to the file of the same name in that directory instead (see
+ *  Main.processQuarantined).
+ *  @author Alessandro Buy
+ */
+class Batch {
+
+    /** A batch that applies M to each of INPUTS, writing the results to
+     *  files of the same names in directory OUTPUT, using JOBS threads.
+     *  Rejected messages go to files in directory QUARANTINE, unless it is
+     *  null, and all files share KEYSTREAMS, unless it is null. */
+    Batch(Machine M, List<File> inputs, File output, int jobs,
+          File quarantine, KeystreamCache keystreams) {
+        _machine = M;
+        _inputs = inputs;
+        _output = output;
+        _jobs = jobs;
+        _quarantine = quarantine;
+        _keystreams = keystreams;
+    }
+
+    /** Return the input files denoted by SPEC: all the files in the
+     *  directory SPEC, or else the files whose names match the last
+     *  component of SPEC, a pattern as for the shell, in the directory
+     *  given by the rest of SPEC.  The files are in order of name. */
+    static List<File> inputs(String spec) {
+        File dir = new File(spec);
+        PathMatcher matcher = null;
+        if (!dir.isDirectory()) {
+            matcher = FileSystems.getDefault()
+                .getPathMatcher("glob:" + dir.getName());
+            dir = dir.getAbsoluteFile().getParentFile();
+        }
+        File[] files = dir == null ? null : dir.listFiles();
+        if (files == null) {
+            throw error("could not list %s", spec);
+        }
+        Arrays.sort(files);
+        List<File> result = new ArrayList<>();
+        for (File file : files) {
+            if (file.isFile()
+                && (matcher == null
+                    || matcher.matches(Paths.get(file.getName())))) {
+                result.add(file);
+            }
+        }
+        if (result.isEmpty()) {
+            throw error("no input files match %s", spec);
+        }
+        return result;
+    }
+
+    /** Process all my input files, print a summary, and throw an
+     *  exception if any of them failed. */
+    void run() {
+        checkSeparate(_output);
+        if (_quarantine != null) {
+            checkSeparate(_quarantine);
+            if (canonical(_quarantine).equals(canonical(_output))) {
+                throw error("quarantine directory %s is the output "
+                            + "directory", _quarantine);
+            }
+        }
+        if (!_output.isDirectory() && !_output.mkdirs()) {
+            throw error("could not create directory %s", _output);
+        }
+        if (_quarantine != null && !_quarantine.isDirectory()
+            && !_quarantine.mkdirs()) {
+            throw error("could not create directory %s", _quarantine);
+        }
+        ThreadLocal<Machine> machines =
+            ThreadLocal.withInitial(_machine::copy);
+        ExecutorService pool = Executors.newFixedThreadPool(_jobs);
+        List<Future<String>> results = new ArrayList<>();
+        for (File input : _inputs) {
+            results.add(pool.submit(() -> process(machines.get(), input)));
+        }
+        pool.shutdown();
+
+        int failures = 0;
+        for (int i = 0; i < _inputs.size(); i += 1) {
+            String failure;
+            try {
+                failure = results.get(i).get();
+            } catch (ExecutionException | InterruptedException excp) {
+                failure = excp.getCause() == null ? excp.toString()
+                    : excp.getCause().toString();
+            }
+            if (failure != null) {
+                System.err.printf("%s: %s%n", _inputs.get(i), failure);
+                failures += 1;
+            }
+        }
+        System.err.printf("%d files processed, %d succeeded, %d failed%n",
+                          _inputs.size(), _inputs.size() - failures,
+                          failures);
+        if (_quarantine != null) {
+            System.err.printf("%d messages converted, %d rejected%n",
+                              _converted.get(), _rejected.get());
+        }
+        if (failures > 0) {
+            throw error("%d of %d files failed", failures, _inputs.size());
+        }
+    }
+
+    /** Check that none of my input files is in directory DIR, where
+     *  writing the file of the same name would truncate it before it is
+     *  read. */
+    private void checkSeparate(File dir) {
+        File canonical = canonical(dir);
+        for (File input : _inputs) {
+            if (canonical.equals(canonical(input).getParentFile())) {
+                throw error("%s would overwrite input %s", dir, input);
+            }
+        }
+    }
+
+    /** Return the canonical form of FILE. */
+    private static File canonical(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException excp) {
+            throw error("could not resolve %s", file);
+        }
+    }
+
+    /** Apply M to the messages in INPUT, writing to the file of the same
+     *  name in the output directory.  Returns null if successful, and
+     *  otherwise an error message. */
+    private String process(Machine M, File input) {
+        File outFile = new File(_output, input.getName());
+        LineReader in = null;
+        PrintStream rejects = null;
+        try (FileOutputStream out = new FileOutputStream(outFile)) {
+            in = LineReader.open(input.getPath(), 0);
+            Main main = new Main(in, new PrintStream(
+                                     new BufferedOutputStream(out)));
+            main.keystreams(_keystreams);
+            if (_quarantine != null) {
+                outFile = new File(_quarantine, input.getName());
+                rejects = new PrintStream(new BufferedOutputStream(
+                    new FileOutputStream(outFile)));
+                main.quarantine(rejects, input.getPath(), out);
+            }
+            main.processMessages(M);
+            _converted.addAndGet(main.converted());
+            _rejected.addAndGet(main.rejected());
+            return null;
+        } catch (EnigmaException excp) {
+            return excp.getMessage();
+        } catch (IOException excp) {
+            return String.format("could not open %s", outFile);
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+            if (rejects != null) {
+                rejects.close();
+            }
+        }
+    }
+
+    /** The configured machine, of which each thread uses a copy. */
+    private final Machine _machine;
+
+    /** Files to process. */
+    private final List<File> _inputs;
+
+    /** Directory for results. */
+    private final File _output;
+
+    /** Number of files to process at once. */
+    private final int _jobs;
+
+    /** Directory for rejected messages, or null. */
+    private final File _quarantine;
+
+    /** Keystreams shared by all files, or null. */
+    private final KeystreamCache _keystreams;
+
+    /** Numbers of messages converted and rejected, with a quarantine. */
+    private final AtomicLong _converted = new AtomicLong(),
+        _rejected = new AtomicLong();
+
+}
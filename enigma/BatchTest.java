@@ -0,0 +1,160 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/** The suite of all JUnit tests for the Batch class.
+ *  @author Alessandro Buy
+ */
+public class BatchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** The configuration file used. */
+    static final String CONFIG = "../testing/correct/default.conf";
+
+    /** A message and its conversion. */
+    static final String INPUT = "* B Beta III IV I AXLE\nHELLO WORLD\n",
+        OUTPUT = "FHVGJ ZUKSG\n";
+
+    /** Remove FILE and, if it is a directory, its contents. */
+    static void remove(File file) {
+        File[] files = file.listFiles();
+        for (File sub : files == null ? new File[0] : files) {
+            remove(sub);
+        }
+        file.delete();
+    }
+
+    /** Write INPUT to the file NAME in DIR, returning it. */
+    static File write(File dir, String name) throws IOException {
+        File file = new File(dir, name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), INPUT.getBytes());
+        return file;
+    }
+
+    /** Return the contents of FILE. */
+    static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()));
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testInputs() throws IOException {
+        File dir = Files.createTempDirectory("enigma").toFile();
+        try {
+            write(dir, "in/b.inp");
+            write(dir, "in/a.inp");
+            write(dir, "in/c.txt");
+            List<File> all = Batch.inputs(new File(dir, "in").getPath()),
+                pattern = Batch.inputs(new File(dir, "in/*.inp").getPath());
+            assertEquals(3, all.size());
+            assertEquals(2, pattern.size());
+            assertEquals("a.inp", pattern.get(0).getName());
+            assertEquals("b.inp", pattern.get(1).getName());
+            try {
+                Batch.inputs(new File(dir, "in/*.out").getPath());
+                fail("no files match");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            remove(dir);
+        }
+    }
+
+    @Test
+    public void testRun() throws IOException {
+        File dir = Files.createTempDirectory("enigma").toFile();
+        try {
+            write(dir, "in/a.inp");
+            write(dir, "in/b.inp");
+            File out = new File(dir, "out");
+            new Batch(Main.readConfig(CONFIG),
+                      Batch.inputs(new File(dir, "in").getPath()), out, 2,
+                      null, null).run();
+            assertEquals(OUTPUT, read(new File(out, "a.inp")));
+            assertEquals(OUTPUT, read(new File(out, "b.inp")));
+        } finally {
+            remove(dir);
+        }
+    }
+
+    @Test
+    public void testSameDirectory() throws IOException {
+        File dir = Files.createTempDirectory("enigma").toFile();
+        try {
+            File input = write(dir, "in/a.inp");
+            List<File> inputs = Batch.inputs(input.getParent());
+            File[] dirs = {
+                new File(dir, "in"), new File(dir, "in/../in/."),
+            };
+            for (File target : dirs) {
+                try {
+                    new Batch(Main.readConfig(CONFIG), inputs, target, 1,
+                              null, null).run();
+                    fail("output directory " + target + " holds the input");
+                } catch (EnigmaException excp) {
+                    /* Expected. */
+                }
+                try {
+                    new Batch(Main.readConfig(CONFIG), inputs,
+                              new File(dir, "out"), 1, target,
+                              null).run();
+                    fail("quarantine directory " + target
+                         + " holds the input");
+                } catch (EnigmaException excp) {
+                    /* Expected. */
+                }
+                assertEquals(INPUT, read(input));
+            }
+            assertFalse(new File(dir, "out").exists());
+        } finally {
+            remove(dir);
+        }
+    }
+
+    @Test
+    public void testQuarantineIsOutput() throws IOException {
+        File dir = Files.createTempDirectory("enigma").toFile();
+        try {
+            File input = write(dir, "in/a.inp");
+            List<File> inputs = Batch.inputs(input.getParent());
+            File out = new File(dir, "out");
+            try {
+                new Batch(Main.readConfig(CONFIG), inputs, out, 1,
+                          new File(dir, "in/../out"), null).run();
+                fail("quarantine directory is the output directory");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+            assertFalse(out.exists());
+        } finally {
+            remove(dir);
+        }
+    }
+
+    @Test
+    public void testJobsNeedBatch() {
+        try {
+            new Main(new String[] { "--jobs=2", CONFIG });
+            fail("--jobs without --batch");
+        } catch (EnigmaException excp) {
+            assertEquals("--jobs needs --batch", excp.getMessage());
+        }
+    }
+
+}
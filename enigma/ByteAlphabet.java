@@ -0,0 +1,40 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The Alphabet of all 256 byte values, in which byte b is represented
+ *  by the character (char) b and has index b.
+ *  @author Alessandro Buy
+ */
+class ByteAlphabet extends Alphabet {
+
+    @Override
+    int size() {
+        return SIZE;
+    }
+
+    @Override
+    boolean contains(char ch) {
+        return ch < SIZE;
+    }
+
+    @Override
+    char toChar(int index) {
+        if (index < 0 || index >= SIZE) {
+            throw error("character index out of range");
+        }
+        return (char) index;
+    }
+
+    @Override
+    int toInt(char ch) {
+        if (ch >= SIZE) {
+            throw error("character out of range");
+        }
+        return ch;
+    }
+
+    /** Number of byte values. */
+    static final int SIZE = 256;
+
+}
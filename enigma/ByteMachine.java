@@ -0,0 +1,282 @@
+package enigma;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.NoSuchElementException;
+
+import static enigma.EnigmaException.*;
+
+/** A fast engine for a Machine whose alphabet is a ByteAlphabet, which
+ *  converts arrays of bytes in place using byte lookup tables for its
+ *  rotors and plugboard.  It starts with the rotors, settings and
+ *  plugboard its machine has when it is created, and thereafter steps
+ *  its own copy of the settings exactly as Machine.advanceMachine does.
+ *
+ *  In a byte configuration file, the alphabet specification is the
+ *  word "bytes" and each rotor is described by its name, its type (R, N,
+ *  or M followed by the notch positions as pairs of hexadecimal digits)
+ *  and its permutation table as 512 hexadecimal digits (entry i of the
+ *  table is the image of byte i).  In a byte settings line, the rotor
+ *  names are followed by the starting positions as pairs of hexadecimal
+ *  digits, and then by any plugboard swaps, each as four hexadecimal
+ *  digits.
+ *  @author Alessandro Buy
+ */
+final class ByteMachine {
+
+    /** Write a randomly generated byte configuration to the file ARGS[0],
+     *  using the seed ARGS[1], if present.  The machine has 5 slots and 3
+     *  pawls, with reflectors B and C, fixed rotors Beta and Gamma, and
+     *  moving rotors I to VIII.  Exits normally if there are no errors;
+     *  otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 1 || args.length > 2) {
+                throw error("usage: FILE [SEED]");
+            }
+            Random random;
+            try {
+                random = args.length > 1 ? new Random(Long.parseLong(args[1]))
+                    : new Random();
+            } catch (NumberFormatException excp) {
+                throw error("bad seed: %s", args[1]);
+            }
+            try (PrintStream out = new PrintStream(args[0])) {
+                generate(random, out);
+            } catch (FileNotFoundException excp) {
+                throw error("could not write %s", args[0]);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** An engine for M, which must have a byte alphabet and all its
+     *  rotors in place. */
+    ByteMachine(Machine M) {
+        if (M.alphabet().size() != ByteAlphabet.SIZE) {
+            throw error("machine does not have a byte alphabet");
+        }
+        int n = M.numRotors();
+        _first = n - M.numPawls();
+        _forward = new byte[n][];
+        _backward = new byte[n][];
+        _notches = new boolean[n][];
+        _rotates = new boolean[n];
+        _settings = new int[n];
+        _moves = new boolean[n];
+        for (int k = 0; k < n; k += 1) {
+            Rotor rotor = M.rotor(k);
+            if (rotor == null) {
+                throw error("machine has an empty slot");
+            }
+            _forward[k] = new byte[ByteAlphabet.SIZE];
+            _backward[k] = new byte[ByteAlphabet.SIZE];
+            tables(rotor.permutation(), _forward[k], _backward[k]);
+            _settings[k] = rotor.setting();
+            _rotates[k] = rotor.rotates();
+            _notches[k] = new boolean[ByteAlphabet.SIZE];
+            if (_rotates[k]) {
+                for (int p = 0; p < ByteAlphabet.SIZE; p += 1) {
+                    rotor.set(p);
+                    _notches[k][p] = rotor.atNotch();
+                }
+                rotor.set(_settings[k]);
+            }
+        }
+        _plug = new byte[ByteAlphabet.SIZE];
+        _unplug = new byte[ByteAlphabet.SIZE];
+        Permutation plugboard = M.plugboard();
+        if (plugboard == null) {
+            plugboard = new Permutation(M.alphabet());
+        }
+        tables(plugboard, _plug, _unplug);
+    }
+
+    /** Fill FORWARD and BACKWARD with PERM and its inverse. */
+    private static void tables(Permutation perm, byte[] forward,
+                               byte[] backward) {
+        int[] table = perm.toArray();
+        for (int i = 0; i < table.length; i += 1) {
+            forward[i] = (byte) table[i];
+            backward[table[i]] = (byte) i;
+        }
+    }
+
+    /** Convert the LENGTH bytes of BUF starting at START in place,
+     *  advancing the machine before each one. */
+    void convert(byte[] buf, int start, int length) {
+        int n = _settings.length;
+        for (int i = start; i < start + length; i += 1) {
+            advance();
+            int c = _plug[buf[i] & MASK] & MASK;
+            for (int j = n - 1; j >= 0; j -= 1) {
+                int s = _settings[j];
+                c = (_forward[j][(c + s) & MASK] - s) & MASK;
+            }
+            for (int j = 1; j < n; j += 1) {
+                int s = _settings[j];
+                c = (_backward[j][(c + s) & MASK] - s) & MASK;
+            }
+            buf[i] = _unplug[c];
+        }
+    }
+
+    /** Advance my rotors as Machine.advanceMachine does. */
+    private void advance() {
+        int n = _settings.length;
+        _moves[n - 1] = true;
+        for (int i = _first; i < n - 1; i += 1) {
+            if (_rotates[i] && _notches[i + 1][_settings[i + 1]]) {
+                _moves[i] = _moves[i + 1] = true;
+            }
+        }
+        for (int i = 0; i < n; i += 1) {
+            if (_moves[i]) {
+                if (_rotates[i]) {
+                    _settings[i] = (_settings[i] + 1) & MASK;
+                }
+                _moves[i] = false;
+            }
+        }
+    }
+
+    /** Set M according to the byte settings line SETTINGS (see the
+     *  class comment). */
+    static void setUp(Machine M, String settings) {
+        StringTokenizer st = new StringTokenizer(settings);
+        String[] names = new String[M.numRotors()];
+        try {
+            for (int i = 0; i < M.numRotors(); i++) {
+                names[i] = st.nextToken();
+            }
+        } catch (NoSuchElementException e) {
+            throw error("not enough rotor names in settings");
+        }
+        M.clearRotors();
+        M.insertRotors(names);
+        if (!st.hasMoreTokens()) {
+            throw error("missing initial rotor setting");
+        }
+        int[] positions = parseHex(st.nextToken());
+        if (positions.length != M.numRotors() - 1) {
+            throw error("wrong number of rotor settings");
+        }
+        char[] setting = new char[positions.length];
+        for (int i = 0; i < positions.length; i += 1) {
+            setting[i] = (char) positions[i];
+        }
+        M.setRotors(new String(setting));
+        int[] plug = new Permutation(M.alphabet()).toArray();
+        while (st.hasMoreTokens()) {
+            int[] pair = parseHex(st.nextToken());
+            if (pair.length != 2 || pair[0] == pair[1]
+                || plug[pair[0]] != pair[0] || plug[pair[1]] != pair[1]) {
+                throw error("bad plugboard");
+            }
+            plug[pair[0]] = pair[1];
+            plug[pair[1]] = pair[0];
+        }
+        M.setPlugboard(new Permutation(plug, M.alphabet()));
+    }
+
+    /** Write to OUT a byte configuration (see the class comment) with
+     *  rotors generated using RANDOM. */
+    static void generate(Random random, PrintStream out) {
+        out.println("bytes 5 3");
+        for (String name : new String[] { "B", "C" }) {
+            int[] table = shuffle(random);
+            int[] reflection = new int[table.length];
+            for (int i = 0; i < table.length; i += 2) {
+                reflection[table[i]] = table[i + 1];
+                reflection[table[i + 1]] = table[i];
+            }
+            out.printf("%s R %s%n", name, hex(reflection));
+        }
+        for (String name : new String[] { "Beta", "Gamma" }) {
+            out.printf("%s N %s%n", name, hex(shuffle(random)));
+        }
+        String[] moving = { "I", "II", "III", "IV", "V", "VI", "VII", "VIII" };
+        for (String name : moving) {
+            int[] notch = { random.nextInt(ByteAlphabet.SIZE) };
+            out.printf("%s M%s %s%n", name, hex(notch), hex(shuffle(random)));
+        }
+    }
+
+    /** Return a random permutation of the byte values, chosen using
+     *  RANDOM, as a table. */
+    private static int[] shuffle(Random random) {
+        int[] table = new Permutation(new ByteAlphabet()).toArray();
+        for (int i = table.length - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1);
+            int t = table[i];
+            table[i] = table[j];
+            table[j] = t;
+        }
+        return table;
+    }
+
+    /** Return the values in VALUES (each a byte) as pairs of hexadecimal
+     *  digits. */
+    static String hex(int[] values) {
+        StringBuilder result = new StringBuilder();
+        for (int v : values) {
+            result.append(Character.forDigit(v >> 4, 16))
+                .append(Character.forDigit(v & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /** Return the bytes denoted by the pairs of hexadecimal digits in
+     *  DIGITS. */
+    static int[] parseHex(String digits) {
+        if (digits.length() % 2 != 0) {
+            throw error("odd number of hexadecimal digits in %s", digits);
+        }
+        int[] result = new int[digits.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            int hi = Character.digit(digits.charAt(2 * i), 16);
+            int lo = Character.digit(digits.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw error("bad hexadecimal number: %s", digits);
+            }
+            result[i] = 16 * hi + lo;
+        }
+        return result;
+    }
+
+    /** Mask giving the value of a byte or reducing modulo 256. */
+    private static final int MASK = 0xff;
+
+    /** First slot that has a pawl. */
+    private final int _first;
+
+    /** Permutation table of the rotor in each slot at setting 0. */
+    private final byte[][] _forward;
+
+    /** Inverse of each table in _forward. */
+    private final byte[][] _backward;
+
+    /** For each slot and setting, whether the rotor is at a notch. */
+    private final boolean[][] _notches;
+
+    /** Whether the rotor in each slot can move. */
+    private final boolean[] _rotates;
+
+    /** Current setting of the rotor in each slot. */
+    private final int[] _settings;
+
+    /** Slots to be advanced (all false between steps). */
+    private final boolean[] _moves;
+
+    /** Plugboard table. */
+    private final byte[] _plug;
+
+    /** Inverse of _plug. */
+    private final byte[] _unplug;
+
+}
@@ -0,0 +1,91 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the ByteMachine class.
+ *  @author Alessandro Buy
+ */
+public class ByteMachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a machine read from a byte configuration generated with
+     *  SEED. */
+    private Machine generated(long seed) throws IOException {
+        File config = File.createTempFile("enigma", ".conf");
+        try {
+            try (PrintStream out = new PrintStream(config)) {
+                ByteMachine.generate(new Random(seed), out);
+            }
+            return Main.readConfig(config.getPath());
+        } finally {
+            config.delete();
+        }
+    }
+
+    /** Return LENGTH random bytes chosen using RANDOM. */
+    private byte[] randomBytes(Random random, int length) {
+        byte[] result = new byte[length];
+        random.nextBytes(result);
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testHex() {
+        int[] values = { 0, 1, 0x7f, 0x80, 0xff };
+        assertEquals("00017f80ff", ByteMachine.hex(values));
+        assertArrayEquals(values, ByteMachine.parseHex("00017F80ff"));
+    }
+
+    @Test
+    public void testMatchesMachine() throws IOException {
+        Machine M = generated(1);
+        ByteMachine.setUp(M, "B Beta III IV I 00ff10fe 0a0b 4142");
+        ByteMachine engine = new ByteMachine(M);
+        byte[] data = randomBytes(new Random(2), 100000);
+        byte[] converted = data.clone();
+        engine.convert(converted, 0, 60000);
+        engine.convert(converted, 60000, 40000);
+        for (int i = 0; i < data.length; i += 1) {
+            assertEquals(M.convert(data[i] & 0xff), converted[i] & 0xff);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Machine M = generated(3);
+        String settings = "C Gamma VIII VI II 112233fe 0001";
+        byte[] data = randomBytes(new Random(4), 10000);
+        byte[] converted = data.clone();
+        ByteMachine.setUp(M, settings);
+        new ByteMachine(M).convert(converted, 0, converted.length);
+        ByteMachine.setUp(M, settings);
+        new ByteMachine(M).convert(converted, 0, converted.length);
+        assertArrayEquals(data, converted);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadPlugboard() throws IOException {
+        ByteMachine.setUp(generated(1), "B Beta III IV I 00000000 0a0b 0b0c");
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testNotBytes() {
+        new ByteMachine(TestUtils.navalMachine());
+    }
+
+}
@@ -0,0 +1,118 @@
+package enigma;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** A record of how far a run of Main has progressed, from which it can
+ *  be resumed: the offsets of the next input line and of the end of the
+ *  output written so far, the settings line in effect, and the positions
+ *  the rotors had reached.
+ *  @author Alessandro Buy
+ */
+class Checkpoint {
+
+    /** A checkpoint at input offset INPUT and output offset OUTPUT, at
+     *  which the machine had been set up from SETTINGS and its rotors had
+     *  then advanced to POSITIONS. */
+    Checkpoint(long input, long output, String settings, String positions) {
+        _input = input;
+        _output = output;
+        _settings = settings;
+        _positions = positions;
+    }
+
+    /** Return the byte offset of the first unprocessed input line. */
+    long input() {
+        return _input;
+    }
+
+    /** Return the number of bytes of output written before this
+     *  checkpoint. */
+    long output() {
+        return _output;
+    }
+
+    /** Return the active settings line, without its leading '*'. */
+    String settings() {
+        return _settings;
+    }
+
+    /** Return the rotor positions, in the form accepted by
+     *  Machine.setRotors. */
+    String positions() {
+        return _positions;
+    }
+
+    /** Store this checkpoint in FILE, replacing its previous contents in
+     *  a single step, so that a crash leaves either the old or the new
+     *  checkpoint intact. */
+    void write(File file) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            PrintStream print = new PrintStream(out);
+            print.println(HEADER);
+            print.println("input " + _input);
+            print.println("output " + _output);
+            print.println("positions " + _positions);
+            print.println("settings " + _settings);
+            print.flush();
+            out.getFD().sync();
+        } catch (IOException excp) {
+            throw error("could not write checkpoint %s", tmp);
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("could not write checkpoint %s", file);
+        }
+    }
+
+    /** Return the checkpoint stored in FILE, or null if there is none. */
+    static Checkpoint read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            List<String> lines = Files.readAllLines(file.toPath());
+            if (lines.size() != 5 || !lines.get(0).equals(HEADER)) {
+                throw error("bad checkpoint file %s", file);
+            }
+            return new Checkpoint(Long.parseLong(field(lines.get(1), "input")),
+                                  Long.parseLong(field(lines.get(2), "output")),
+                                  field(lines.get(4), "settings"),
+                                  field(lines.get(3), "positions"));
+        } catch (IOException | NumberFormatException excp) {
+            throw error("bad checkpoint file %s", file);
+        }
+    }
+
+    /** Return the value in LINE, which must have the form "NAME value". */
+    private static String field(String line, String name) {
+        if (!line.startsWith(name + " ")) {
+            throw error("bad checkpoint field: %s", line);
+        }
+        return line.substring(name.length() + 1);
+    }
+
+    /** First line of every checkpoint file. */
+    private static final String HEADER = "enigma-checkpoint 1";
+
+    /** Input and output offsets. */
+    private final long _input, _output;
+
+    /** Active settings line. */
+    private final String _settings;
+
+    /** Rotor positions. */
+    private final String _positions;
+
+}
@@ -0,0 +1,176 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+/** The suite of JUnit tests for checkpointing runs of Main and resuming
+ *  them.
+ *  @author Alessandro Buy
+ */
+public class CheckpointTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** The configuration file used. */
+    static final String CONFIG = "../testing/correct/default.conf";
+
+    /** Write TEXT to FILE. */
+    static void write(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes());
+    }
+
+    /** Return the contents of FILE. */
+    static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()));
+    }
+
+    /** Return LENGTH random upper-case letters chosen with RANDOM. */
+    static String letters(int length, Random random) {
+        char[] result = new char[length];
+        for (int i = 0; i < length; i += 1) {
+            result[i] = (char) ('A' + random.nextInt(26));
+        }
+        return new String(result);
+    }
+
+    /** Return messages with random settings and text, chosen with
+     *  RANDOM, totalling about LENGTH bytes. */
+    static String messages(int length, Random random) {
+        StringBuilder result = new StringBuilder();
+        while (result.length() < length) {
+            result.append(String.format("* B Beta III IV I %s (AQ)\n",
+                                        letters(4, random)));
+            for (int i = random.nextInt(4); i > 0; i -= 1) {
+                result.append(letters(random.nextInt(120), random))
+                    .append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Convert INPUT into the file OUT, with checkpoints in OUT.ckpt,
+     *  but crash (with an error) on the last line, after the last
+     *  checkpoint, leaving the checkpoint and at least some output
+     *  written after it.  IN is the input file used.  Returns the last
+     *  checkpoint. */
+    static Checkpoint crash(String input, File in, File out)
+        throws IOException {
+        write(in, input + "HEL1O\n");
+        try {
+            new Main(new String[] {
+                "--checkpoint=1000", CONFIG, in.getPath(), out.getPath()
+            }).process();
+            fail("crash did not happen");
+        } catch (EnigmaException excp) {
+            assertEquals("character out of range", excp.getMessage());
+        }
+        Checkpoint checkpoint =
+            Checkpoint.read(new File(out.getPath() + ".ckpt"));
+        assertNotNull(checkpoint);
+        assertTrue(out.length() > checkpoint.output());
+        write(in, input + "HELLO\n");
+        return checkpoint;
+    }
+
+    /** Truncate FILE to LENGTH bytes. */
+    static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.setLength(length);
+        }
+    }
+
+    /** Remove the files in DIR, and DIR. */
+    static void remove(File dir) {
+        File[] files = dir.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testWriteRead() throws IOException {
+        File dir = Files.createTempDirectory("enigma").toFile(),
+            file = new File(dir, "out.ckpt");
+        try {
+            assertNull(Checkpoint.read(file));
+            new Checkpoint(12, 34, " B Beta III IV I AXLE (AQ)", "AXLF")
+                .write(file);
+            Checkpoint checkpoint = Checkpoint.read(file);
+            assertEquals(12, checkpoint.input());
+            assertEquals(34, checkpoint.output());
+            assertEquals(" B Beta III IV I AXLE (AQ)", checkpoint.settings());
+            assertEquals("AXLF", checkpoint.positions());
+            write(file, "input 12\n");
+            try {
+                Checkpoint.read(file);
+                fail("read a damaged checkpoint");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            remove(dir);
+        }
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        File dir = Files.createTempDirectory("enigma").toFile(),
+            in = new File(dir, "in"), out = new File(dir, "out"),
+            expected = new File(dir, "expected");
+        try {
+            String input = messages(20000, new Random(1));
+            write(in, input + "HELLO\n");
+            new Main(new String[] {
+                CONFIG, in.getPath(), expected.getPath()
+            }).process();
+            Checkpoint checkpoint = crash(input, in, out);
+            truncate(out, (checkpoint.output() + out.length()) / 2);
+            new Main(new String[] {
+                "--resume", CONFIG, in.getPath(), out.getPath()
+            }).process();
+            assertEquals(read(expected), read(out));
+            assertFalse(new File(dir, "out.ckpt").exists());
+        } finally {
+            remove(dir);
+        }
+    }
+
+    @Test
+    public void testOutputShorterThanCheckpoint() throws IOException {
+        File dir = Files.createTempDirectory("enigma").toFile(),
+            in = new File(dir, "in"), out = new File(dir, "out");
+        try {
+            Checkpoint checkpoint =
+                crash(messages(20000, new Random(2)), in, out);
+            truncate(out, checkpoint.output() - 1);
+            try {
+                new Main(new String[] {
+                    "--resume", CONFIG, in.getPath(), out.getPath()
+                }).process();
+                fail("resumed with output lost before the checkpoint");
+            } catch (EnigmaException excp) {
+                assertEquals(out.getPath() + " is shorter than its "
+                             + "checkpoint", excp.getMessage());
+            }
+            assertTrue(new File(dir, "out.ckpt").exists());
+        } finally {
+            remove(dir);
+        }
+    }
+
+}
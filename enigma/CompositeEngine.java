@@ -0,0 +1,288 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** An Engine whose cost per character does not grow with the number of
+ *  rotors.  Machine.convert passes each character through every slot
+ *  twice and advanceMachine examines every pair of pawls, although in a
+ *  machine with many rotors only the rightmost one moves at most steps.
+ *  A CompositeEngine instead keeps, for each slot K but the last, the
+ *  composite table of the reflector and the rotors in slots 1 to K at
+ *  their current settings (the permutation a character entering slot K
+ *  from the right undergoes before it leaves slot K again), so that a
+ *  character needs only the plugboard, the rightmost rotor (both ways)
+ *  and one composite lookup.  When a rotor to the left of the rightmost
+ *  one moves, the composites from its slot rightward are recomputed;
+ *  since the rotor in slot K moves about once every size^(N-1-K)
+ *  characters, this costs O(1) per character on average.
+ *
+ *  Likewise, the engine keeps the list of pawls that are engaged (those
+ *  whose rotor is followed by one at a notch), and updates it only for
+ *  the rotors that move, so that a step examines just the rotors that
+ *  are about to move.
+ *  @author Alessandro Buy
+ */
+final class CompositeEngine implements Engine {
+
+    /** An engine for M, which must have all its rotors in place,
+     *  starting at M's current settings. */
+    CompositeEngine(Machine M) {
+        int n = M.numRotors();
+        _size = M.alphabet().size();
+        _pawlCount = M.numPawls();
+        _forward = new int[n][_size];
+        _backward = new int[n][_size];
+        _settings = new int[n];
+        _moves = new boolean[n];
+        _triggers = new boolean[n];
+        _notches = new boolean[n][];
+        _plug = new int[_size];
+        _unplug = new int[_size];
+        _engaged = new boolean[n];
+        _pawls = new int[n];
+        _moving = new boolean[n];
+        _stepped = new int[n];
+        _composites = new int[n - 1][_size];
+        load(M);
+    }
+
+    /** Make me an engine for M, as if I had just been made from M,
+     *  reusing my tables, and return true; or return false, leaving me
+     *  unchanged, if M does not have the same numbers of slots, pawls and
+     *  characters as the machine I was made from.  This spares the
+     *  allocation of new tables for every message (see EngineSelector). */
+    boolean reset(Machine M) {
+        if (M.numRotors() != _settings.length
+            || M.numPawls() != _pawlCount
+            || M.alphabet().size() != _size) {
+            return false;
+        }
+        load(M);
+        return true;
+    }
+
+    /** Fill my tables for M, which has as many slots, pawls and
+     *  characters as I have room for. */
+    private void load(Machine M) {
+        int n = _settings.length;
+        int first = n - _pawlCount;
+        for (int k = 0; k < n; k += 1) {
+            Rotor rotor = M.rotor(k);
+            if (rotor == null) {
+                throw error("machine has an empty slot");
+            }
+            Permutation perm = k == 0 ? rotor.currentPermutation()
+                : rotor.permutation();
+            for (int c = 0; c < _size; c += 1) {
+                _forward[k][c] = perm.permute(c);
+                _backward[k][c] = perm.invert(c);
+            }
+            _settings[k] = k == 0 ? 0 : rotor.setting();
+            _moves[k] = k > 0 && k >= first && rotor.rotates();
+        }
+        for (int i = 0; i < n - 1; i += 1) {
+            _triggers[i] = _moves[i] && _moves[i + 1];
+            if (_triggers[i]) {
+                Rotor rotor = M.rotor(i + 1);
+                if (_notches[i + 1] == null) {
+                    _notches[i + 1] = new boolean[_size];
+                }
+                for (int s = 0; s < _size; s += 1) {
+                    rotor.set(s);
+                    _notches[i + 1][s] = rotor.atNotch();
+                }
+                rotor.set(_settings[i + 1]);
+            }
+        }
+        Permutation plug = M.plugboard();
+        for (int c = 0; c < _size; c += 1) {
+            _plug[c] = plug == null ? c : plug.permute(c);
+            _unplug[c] = plug == null ? c : plug.invert(c);
+        }
+
+        _numEngaged = 0;
+        for (int i = 0; i < n - 1; i += 1) {
+            _engaged[i] = _triggers[i] && _notches[i + 1][_settings[i + 1]];
+            if (_engaged[i]) {
+                _pawls[_numEngaged] = i;
+                _numEngaged += 1;
+            }
+        }
+        System.arraycopy(_forward[0], 0, _composites[0], 0, _size);
+        _dirty = 1;
+    }
+
+    @Override
+    public int convert(int c) {
+        step();
+        int last = _settings.length - 1;
+        if (_dirty < last) {
+            recompose();
+        }
+        c = through(_forward[last], _settings[last], _plug[c]);
+        c = _composites[last - 1][c];
+        return _unplug[through(_backward[last], _settings[last], c)];
+    }
+
+    /** Advance the rotors, as convert does, and then store the conversion
+     *  of each character C at the new settings in TABLE[START + C], for
+     *  an alphabet of at most 256 characters (see KeystreamCache). */
+    void substitution(byte[] table, int start) {
+        step();
+        int last = _settings.length - 1;
+        if (_dirty < last) {
+            recompose();
+        }
+        int[] forward = _forward[last], backward = _backward[last];
+        int[] composite = _composites[last - 1];
+        int s = _settings[last];
+        for (int c = 0; c < _size; c += 1) {
+            int x = composite[through(forward, s, _plug[c])];
+            table[start + c] = (byte) _unplug[through(backward, s, x)];
+        }
+    }
+
+    @Override
+    public void store(Machine M) {
+        for (int k = 1; k < _settings.length; k += 1) {
+            if (_moves[k]) {
+                M.rotor(k).set(_settings[k]);
+            }
+        }
+    }
+
+    /** Return the result of passing C through TABLE, the table of a
+     *  rotor at setting 0, when the rotor is at setting S. */
+    private int through(int[] table, int s, int c) {
+        int x = c + s;
+        if (x >= _size) {
+            x -= _size;
+        }
+        int y = table[x] - s;
+        return y < 0 ? y + _size : y;
+    }
+
+    /** Advance the rotors as Machine.advanceMachine does. */
+    private void step() {
+        int last = _settings.length - 1;
+        int count = 0;
+        if (_moves[last]) {
+            _moving[last] = true;
+            _stepped[count] = last;
+            count += 1;
+        }
+        for (int j = 0; j < _numEngaged; j += 1) {
+            int i = _pawls[j];
+            for (int k = i; k <= i + 1; k += 1) {
+                if (!_moving[k]) {
+                    _moving[k] = true;
+                    _stepped[count] = k;
+                    count += 1;
+                }
+            }
+        }
+        boolean released = false;
+        for (int j = 0; j < count; j += 1) {
+            int k = _stepped[j];
+            _moving[k] = false;
+            int s = _settings[k] + 1;
+            _settings[k] = s == _size ? 0 : s;
+            if (k < _dirty) {
+                _dirty = k;
+            }
+            int i = k - 1;
+            if (_triggers[i]) {
+                boolean engaged = _notches[k][_settings[k]];
+                if (engaged && !_engaged[i]) {
+                    _pawls[_numEngaged] = i;
+                    _numEngaged += 1;
+                } else if (!engaged && _engaged[i]) {
+                    released = true;
+                }
+                _engaged[i] = engaged;
+            }
+        }
+        if (released) {
+            int kept = 0;
+            for (int j = 0; j < _numEngaged; j += 1) {
+                if (_engaged[_pawls[j]]) {
+                    _pawls[kept] = _pawls[j];
+                    kept += 1;
+                }
+            }
+            _numEngaged = kept;
+        }
+    }
+
+    /** Recompute the composite tables from slot _dirty to the next to
+     *  last slot. */
+    private void recompose() {
+        int last = _settings.length - 1;
+        for (int k = _dirty; k < last; k += 1) {
+            int[] inner = _composites[k - 1], outer = _composites[k];
+            int[] forward = _forward[k], backward = _backward[k];
+            int s = _settings[k];
+            for (int c = 0; c < _size; c += 1) {
+                outer[c] =
+                    through(backward, s, inner[through(forward, s, c)]);
+            }
+        }
+        _dirty = last;
+    }
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** Number of pawls. */
+    private final int _pawlCount;
+
+    /** Permutation table of the rotor in each slot at setting 0 (for the
+     *  reflector, at its actual setting). */
+    private final int[][] _forward;
+
+    /** Inverse of each table in _forward. */
+    private final int[][] _backward;
+
+    /** Current setting of the rotor in each slot. */
+    private final int[] _settings;
+
+    /** For each slot, whether its rotor can move. */
+    private final boolean[] _moves;
+
+    /** For each slot I, whether its pawl can advance it together with
+     *  the rotor in slot I + 1. */
+    private final boolean[] _triggers;
+
+    /** For each slot following a trigger, which settings are at a
+     *  notch. */
+    private final boolean[][] _notches;
+
+    /** The plugboard and its inverse. */
+    private final int[] _plug, _unplug;
+
+    /** For each slot I, whether its pawl is engaged, so that it will move
+     *  with slot I + 1 at the next step. */
+    private final boolean[] _engaged;
+
+    /** The slots whose pawls are engaged, in the first _numEngaged
+     *  elements. */
+    private final int[] _pawls;
+
+    /** Number of engaged pawls. */
+    private int _numEngaged;
+
+    /** Slots that move in the current step (all false between
+     *  steps). */
+    private final boolean[] _moving;
+
+    /** The slots that move in the current step. */
+    private final int[] _stepped;
+
+    /** Element K is the composite table of slots 0 to K. */
+    private final int[][] _composites;
+
+    /** The first composite table that is out of date, or the last slot
+     *  if none is. */
+    private int _dirty;
+
+}
@@ -0,0 +1,167 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the CompositeEngine class.
+ *  @author Alessandro Buy
+ */
+public class CompositeEngineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a random permutation of ALPHA, chosen using RANDOM, that is
+     *  a derangement made of 2-cycles if REFLECTION. */
+    private static Permutation randomPermutation(Alphabet alpha,
+                                                 boolean reflection,
+                                                 Random random) {
+        int[] table = new Permutation(alpha).toArray();
+        for (int i = table.length - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1);
+            int t = table[i];
+            table[i] = table[j];
+            table[j] = t;
+        }
+        if (!reflection) {
+            return new Permutation(table, alpha);
+        }
+        int[] pairs = new int[table.length];
+        for (int i = 0; i < table.length; i += 2) {
+            pairs[table[i]] = table[i + 1];
+            pairs[table[i + 1]] = table[i];
+        }
+        return new Permutation(pairs, alpha);
+    }
+
+    /** Return a machine with alphabet ALPHA and SLOTS slots, of which
+     *  all but the first FIXED have pawls, with random rotors, notches,
+     *  settings and plugboard chosen using RANDOM. */
+    static Machine wideMachine(Alphabet alpha, int slots, int fixed,
+                               Random random) {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        String[] names = new String[slots];
+        names[0] = "R";
+        rotors.add(new Reflector("R", randomPermutation(alpha, true,
+                                                        random)));
+        char[] setting = new char[slots - 1];
+        for (int k = 1; k < slots; k += 1) {
+            names[k] = "S" + k;
+            Permutation perm = randomPermutation(alpha, false, random);
+            if (k <= fixed) {
+                rotors.add(new FixedRotor(names[k], perm));
+            } else {
+                String notches = "";
+                for (int c = 0; c < alpha.size(); c += 1) {
+                    if (random.nextInt(3) == 0) {
+                        notches += alpha.toChar(c);
+                    }
+                }
+                rotors.add(new MovingRotor(names[k], perm, notches));
+            }
+            setting[k - 1] = alpha.toChar(random.nextInt(alpha.size()));
+        }
+        Machine M = new Machine(alpha, slots, slots - 1 - fixed, rotors);
+        M.insertRotors(names);
+        M.setRotors(new String(setting));
+        M.setPlugboard(randomPermutation(alpha, true, random));
+        return M;
+    }
+
+    /** Check that a CompositeEngine for M converts like M itself for
+     *  COUNT random characters, and stores M's final settings. */
+    private void checkEngine(Machine M, int count, Random random) {
+        Machine copy = M.copy();
+        checkEngine(M, copy, new CompositeEngine(copy), count, random);
+    }
+
+    /** Check that ENGINE, made or reset for COPY, a copy of M, converts
+     *  like M itself for COUNT random characters, and stores M's final
+     *  settings in COPY. */
+    private void checkEngine(Machine M, Machine copy, Engine engine,
+                             int count, Random random) {
+        int size = M.alphabet().size();
+        for (int i = 0; i < count; i += 1) {
+            int c = random.nextInt(size);
+            assertEquals("character " + i, M.convert(c), engine.convert(c));
+        }
+        engine.store(copy);
+        assertEquals(M.rotorSettings(), copy.rotorSettings());
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testNaval() {
+        Random random = new Random(1);
+        for (String settings
+                 : new String[] { "B Beta III IV I AXLE (HQ) (EX) (IP)",
+                                  "B Beta I II III QDVZ",
+                                  "B V Beta IV I APPL (AZ)",
+                                  "B III IV Beta II ZZZZ" }) {
+            Machine M = TestUtils.navalMachine();
+            Main.setUp(M, settings);
+            checkEngine(M, 20000, random);
+        }
+    }
+
+    @Test
+    public void testWide() {
+        Random random = new Random(2);
+        Alphabet small = new CharacterRange('A', 'F');
+        checkEngine(wideMachine(small, 20, 3, random), 200000, random);
+        checkEngine(wideMachine(small, 12, 0, random), 200000, random);
+        checkEngine(wideMachine(new CharacterRange('A', 'Z'), 50, 10,
+                                random), 50000, random);
+    }
+
+    @Test
+    public void testReset() {
+        Random random = new Random(4);
+        CompositeEngine engine = null;
+        for (String settings
+                 : new String[] { "B Beta III IV I AXLE (HQ) (EX) (IP)",
+                                  "B Beta I II III QDVZ",
+                                  "B V Beta IV I APPL (AZ)",
+                                  "B Beta V II III ZZAA (TD)" }) {
+            Machine M = TestUtils.navalMachine(), copy = M.copy();
+            Main.setUp(copy, settings);
+            Main.setUp(M, settings);
+            if (engine == null) {
+                engine = new CompositeEngine(copy);
+            } else {
+                assertTrue(engine.reset(copy));
+            }
+            checkEngine(M, copy, engine, 5000, random);
+        }
+        Alphabet small = new CharacterRange('A', 'F');
+        for (int n = 0; n < 3; n += 1) {
+            Machine M = wideMachine(small, 12, 2 * n, random),
+                copy = M.copy();
+            assertFalse(engine.reset(copy));
+            engine = new CompositeEngine(copy);
+            checkEngine(M, copy, engine, 20000, random);
+            M = wideMachine(small, 12, 2 * n, random);
+            copy = M.copy();
+            assertTrue(engine.reset(copy));
+            checkEngine(M, copy, engine, 20000, random);
+        }
+    }
+
+    @Test
+    public void testTwoSlots() {
+        Random random = new Random(3);
+        Alphabet alpha = new CharacterRange('A', 'D');
+        checkEngine(wideMachine(alpha, 2, 0, random), 1000, random);
+        checkEngine(wideMachine(alpha, 2, 1, random), 1000, random);
+    }
+
+}
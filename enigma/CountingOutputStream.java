@@ -0,0 +1,45 @@
+package enigma;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** An output stream that passes its bytes on to another, counting them,
+ *  so that the offset in the final destination of the next byte written
+ *  is known even while earlier bytes are still held in a buffer.
+ *  @author Alessandro Buy
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+    /** A stream that writes to OUT, whose next byte is at offset 0. */
+    CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        _count += 1;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        _count += len;
+    }
+
+    /** Return the offset of the next byte written. */
+    long count() {
+        return _count;
+    }
+
+    /** Make COUNT the offset of the next byte written, as after the
+     *  destination has been truncated to COUNT bytes. */
+    void setCount(long count) {
+        _count = count;
+    }
+
+    /** Offset of the next byte written. */
+    private long _count;
+
+}
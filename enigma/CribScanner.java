@@ -0,0 +1,342 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+import static enigma.EnigmaException.*;
+
+/** A finder of the places in ciphertext where a crib (a guessed piece of
+ *  plaintext) might lie.  Since every reflector is a derangement, no
+ *  letter is ever converted to itself, so the crib cannot be at any
+ *  offset where one of its letters coincides with the ciphertext.
+ *
+ *  The ciphertext is handled in blocks.  For each letter of the crib,
+ *  the scanner makes a bit set of the positions in the block holding
+ *  that letter; the set of offsets at which the crib clashes is then the
+ *  union, over the positions j of the crib, of the set for its letter j
+ *  shifted down by j, which is computed 64 offsets at a time with shifts
+ *  and ORs of whole words.  The remaining offsets are the candidates.
+ *
+ *  In the input files, lines starting with '*' (settings lines) are
+ *  skipped and separate messages, which the crib may not straddle; in
+ *  other lines, letters are taken in upper case, and characters that
+ *  are not in the alphabet are ignored.  Offsets count the letters of a
+ *  file from 0.
+ *  @author Alessandro Buy
+ */
+public final class CribScanner {
+
+    /** Scan files for a crib, as specified by ARGS, which are (after any
+     *  --jobs=N option, giving the number of files scanned at once) the
+     *  name of a configuration file, the crib, the input files (a
+     *  directory or pattern, as for Main --batch), and an output file.
+     *  Each candidate is written to the output as a line containing the
+     *  name of the file and the offset; the lines for a file are in
+     *  increasing order of offset, but those for different files may be
+     *  interleaved.  Exits normally if there are no errors; otherwise
+     *  with code 1. */
+    public static void main(String... args) {
+        try {
+            int jobs = Runtime.getRuntime().availableProcessors();
+            int k = 0;
+            if (args.length > 0 && args[0].startsWith("--jobs=")) {
+                try {
+                    jobs = Integer.parseInt(args[0].substring(7));
+                } catch (NumberFormatException excp) {
+                    jobs = 0;
+                }
+                if (jobs < 1) {
+                    throw error("bad value for option %s", args[0]);
+                }
+                k = 1;
+            }
+            if (args.length - k != 4) {
+                throw error("usage: [--jobs=N] CONFIG CRIB INPUTS OUTPUT");
+            }
+            Machine M = Main.readConfig(args[k]);
+            for (Rotor rotor : M.rotors()) {
+                if (rotor.reflecting()
+                    && !rotor.permutation().derangement()) {
+                    throw error("reflector %s maps a letter to itself",
+                                rotor.name());
+                }
+            }
+            CribScanner scanner =
+                new CribScanner(M.alphabet(), args[k + 1]);
+            scanner.run(Batch.inputs(args[k + 2]), new File(args[k + 3]),
+                        jobs);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A scanner for CRIB, a text in ALPHABET (ignoring white space and
+     *  case). */
+    CribScanner(Alphabet alphabet, String crib) {
+        crib = crib.replaceAll("\\s", "").toUpperCase();
+        if (crib.isEmpty() || crib.length() > MAX_CRIB) {
+            throw error("crib must have 1 to %d letters", MAX_CRIB);
+        }
+        _alphabet = alphabet;
+        _crib = new int[crib.length()];
+        boolean[] seen = new boolean[alphabet.size()];
+        int distinct = 0;
+        for (int j = 0; j < _crib.length; j += 1) {
+            if (!alphabet.contains(crib.charAt(j))) {
+                throw error("crib letter %c not in alphabet", crib.charAt(j));
+            }
+            _crib[j] = alphabet.toInt(crib.charAt(j));
+            if (!seen[_crib[j]]) {
+                seen[_crib[j]] = true;
+                distinct += 1;
+            }
+        }
+        _letters = new int[distinct];
+        for (int c = 0, i = 0; c < seen.length; c += 1) {
+            if (seen[c]) {
+                _letters[i] = c;
+                i += 1;
+            }
+        }
+    }
+
+    /** Scan each of INPUTS, using JOBS threads, writing the candidates
+     *  to the file OUTPUT as described for main, and printing a summary
+     *  on the standard error. */
+    void run(List<File> inputs, File output, int jobs) {
+        PrintStream out;
+        try {
+            out = new PrintStream(new BufferedOutputStream(
+                      new FileOutputStream(output), OUTPUT_BUFFER));
+        } catch (IOException excp) {
+            throw error("could not open %s", output);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        List<Future<Long>> results = new ArrayList<>();
+        for (File input : inputs) {
+            results.add(pool.submit(() -> scan(input, out)));
+        }
+        pool.shutdown();
+        long total = 0;
+        String failure = null;
+        try {
+            for (Future<Long> result : results) {
+                try {
+                    total += result.get();
+                } catch (ExecutionException excp) {
+                    if (failure == null) {
+                        failure = excp.getCause().getMessage();
+                    }
+                } catch (InterruptedException excp) {
+                    throw error("interrupted");
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (failure != null) {
+            throw error("%s", failure);
+        }
+        if (out.checkError()) {
+            throw error("could not write %s", output);
+        }
+        System.err.printf("%d candidates in %d files%n", total,
+                          inputs.size());
+    }
+
+    /** Scan INPUT, writing its candidates to OUT as described for main,
+     *  and return their number. */
+    private long scan(File input, PrintStream out) {
+        String name = input.getPath();
+        StringBuilder lines = new StringBuilder();
+        LineReader in = LineReader.open(name, 0);
+        try {
+            long count = scan(in, offset -> {
+                lines.append(name).append(' ').append(offset).append('\n');
+                if (lines.length() >= OUTPUT_BUFFER) {
+                    write(out, lines);
+                }
+            });
+            write(out, lines);
+            return count;
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Write LINES to OUT (as a whole) and clear LINES. */
+    private static void write(PrintStream out, StringBuilder lines) {
+        synchronized (out) {
+            out.append(lines);
+        }
+        lines.setLength(0);
+    }
+
+    /** Pass the offset of each candidate in INPUT to FOUND, in increasing
+     *  order, and return their number. */
+    long scan(LineReader input, LongConsumer found) {
+        Block block = new Block(found);
+        while (input.nextLine()) {
+            byte[] buf = input.buffer();
+            int start = input.start(), end = start + input.length();
+            if (start < end && buf[start] == '*') {
+                block.breakText();
+                continue;
+            }
+            boolean ascii = true;
+            for (int i = start; i < end && ascii; i += 1) {
+                ascii = buf[i] >= 0;
+            }
+            if (ascii) {
+                for (int i = start; i < end; i += 1) {
+                    block.add(Character.toUpperCase((char) buf[i]));
+                }
+            } else {
+                String line = input.line().toUpperCase();
+                for (int i = 0; i < line.length(); i += 1) {
+                    block.add(line.charAt(i));
+                }
+            }
+        }
+        block.breakText();
+        return block.count;
+    }
+
+    /** The ciphertext being scanned, with the bit sets used to find
+     *  candidates in it. */
+    private class Block {
+
+        /** A block passing candidates to FOUND. */
+        Block(LongConsumer found) {
+            _found = found;
+            _text = new int[BLOCK];
+            int words = BLOCK / Long.SIZE + 1;
+            _masks = new long[_alphabet.size()][];
+            for (int c : _letters) {
+                _masks[c] = new long[words];
+            }
+            _clash = new long[words];
+        }
+
+        /** Add CH to the text, if it is a letter of the alphabet. */
+        void add(char ch) {
+            if (!_alphabet.contains(ch)) {
+                return;
+            }
+            _text[_length] = _alphabet.toInt(ch);
+            _length += 1;
+            if (_length == _text.length) {
+                scanText();
+                int keep = _crib.length - 1;
+                System.arraycopy(_text, _length - keep, _text, 0, keep);
+                _base += _length - keep;
+                _length = keep;
+            }
+        }
+
+        /** Scan the text, and start a new one after it. */
+        void breakText() {
+            scanText();
+            _base += _length;
+            _length = 0;
+        }
+
+        /** Report the candidates in the current text. */
+        private void scanText() {
+            int n = _length, m = _crib.length;
+            if (n < m) {
+                return;
+            }
+            int words = (n + Long.SIZE - 1) / Long.SIZE;
+            for (int c : _letters) {
+                Arrays.fill(_masks[c], 0, words + 1, 0);
+            }
+            for (int i = 0; i < n; i += 1) {
+                long[] mask = _masks[_text[i]];
+                if (mask != null) {
+                    mask[i >>> 6] |= 1L << i;
+                }
+            }
+            Arrays.fill(_clash, 0, words, 0);
+            for (int j = 0; j < m; j += 1) {
+                long[] mask = _masks[_crib[j]];
+                int q = j >>> 6, r = j & 63;
+                for (int w = 0; w + q < words; w += 1) {
+                    long bits = mask[w + q] >>> r;
+                    if (r != 0) {
+                        bits |= mask[w + q + 1] << (Long.SIZE - r);
+                    }
+                    _clash[w] |= bits;
+                }
+            }
+            int last = n - m;
+            for (int w = 0; w <= last >>> 6; w += 1) {
+                long free = ~_clash[w];
+                if (w == last >>> 6) {
+                    free &= -1L >>> (63 - (last & 63));
+                }
+                while (free != 0) {
+                    _found.accept(_base + ((long) w << 6)
+                                  + Long.numberOfTrailingZeros(free));
+                    count += 1;
+                    free &= free - 1;
+                }
+            }
+        }
+
+        /** Number of candidates found. */
+        long count;
+
+        /** Receives the candidates. */
+        private final LongConsumer _found;
+
+        /** The letters of the text, in the first _length elements. */
+        private final int[] _text;
+
+        /** Number of letters in the text. */
+        private int _length;
+
+        /** Offset of the first letter of the text in the input. */
+        private long _base;
+
+        /** For each letter of the crib, the positions of that letter in
+         *  the text, as a bit set. */
+        private final long[][] _masks;
+
+        /** Offsets at which the crib clashes with the text, as a bit
+         *  set. */
+        private final long[] _clash;
+    }
+
+    /** Number of letters scanned at once. */
+    static final int BLOCK = 1 << 18;
+
+    /** Longest crib. */
+    static final int MAX_CRIB = 4096;
+
+    /** Size of the buffers for output. */
+    private static final int OUTPUT_BUFFER = 1 << 16;
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** The crib, as indices into the alphabet. */
+    private final int[] _crib;
+
+    /** The distinct letters of the crib. */
+    private final int[] _letters;
+
+}
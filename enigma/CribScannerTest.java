@@ -0,0 +1,126 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.TestUtils.UPPER;
+
+/** The suite of all JUnit tests for the CribScanner class.
+ *  @author Alessandro Buy
+ */
+public class CribScannerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the candidates for CRIB in INPUT found by a scanner. */
+    private static List<Long> scan(String crib, String input) {
+        List<Long> result = new ArrayList<>();
+        new CribScanner(UPPER, crib).scan(
+            new LineReader(new ByteArrayInputStream(input.getBytes())),
+            result::add);
+        return result;
+    }
+
+    /** Return the candidates for CRIB in the messages MESSAGES, found
+     *  letter by letter. */
+    private static List<Long> slowScan(String crib, String... messages) {
+        List<Long> result = new ArrayList<>();
+        long base = 0;
+        for (String text : messages) {
+            for (int p = 0; p + crib.length() <= text.length(); p += 1) {
+                boolean clash = false;
+                for (int j = 0; j < crib.length() && !clash; j += 1) {
+                    clash = text.charAt(p + j) == crib.charAt(j);
+                }
+                if (!clash) {
+                    result.add(base + p);
+                }
+            }
+            base += text.length();
+        }
+        return result;
+    }
+
+    /** Return a random string of N letters from the first K letters of
+     *  the alphabet, chosen using RANDOM. */
+    private static String letters(int n, int k, Random random) {
+        char[] result = new char[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = (char) ('A' + random.nextInt(k));
+        }
+        return new String(result);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSmall() {
+        assertEquals(Arrays.asList(2L), scan("ab", "ABBAB\n"));
+        assertEquals(Arrays.asList(0L, 4L),
+                     scan("XY", "ab\n* B Beta I II III AAAA\nxx yA\n"));
+        assertEquals(Arrays.asList(), scan("ABC", "AB"));
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 20; trial += 1) {
+            int k = 2 + random.nextInt(4);
+            String crib = letters(1 + random.nextInt(100), k, random);
+            String one = letters(random.nextInt(2000), k, random);
+            String two = letters(CribScanner.BLOCK + random.nextInt(1000),
+                                 k + 2, random);
+            String input = "* X\n" + one + "\n* Y\n"
+                + two.substring(0, 1000) + " \n" + two.substring(1000);
+            assertEquals(slowScan(crib, one, two), scan(crib, input));
+        }
+    }
+
+    @Test
+    public void testEncrypted() {
+        Machine M = TestUtils.navalMachine();
+        Main.setUp(M, "B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)");
+        String plain = letters(5000, 26, new Random(8));
+        String cipher = M.convert(plain);
+        String crib = plain.substring(1234, 1264);
+        assertTrue(scan(crib, cipher).contains(1234L));
+    }
+
+    @Test
+    public void testRun() throws IOException {
+        File dir = Files.createTempDirectory("cribs").toFile();
+        File output = new File(dir, "out");
+        try {
+            Files.write(new File(dir, "a.inp").toPath(), "ABBAB\n".getBytes());
+            Files.write(new File(dir, "b.inp").toPath(), "BAAAB\n".getBytes());
+            new CribScanner(UPPER, "AB").run(
+                Batch.inputs(dir.getPath() + "/*.inp"), output, 2);
+            List<String> lines = Files.readAllLines(output.toPath());
+            lines.sort(null);
+            assertEquals(Arrays.asList(new File(dir, "a.inp") + " 2",
+                                       new File(dir, "b.inp") + " 0"),
+                         lines);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+}
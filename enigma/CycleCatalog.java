@@ -0,0 +1,292 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.*;
+
+/** A catalog of the "characteristics" of machine keys, after Rejewski:
+ *  if A1, ..., A6 are the permutations performed by a machine at the
+ *  first six positions of a message, the cycle types of the products
+ *  A1A4, A2A5 and A3A6 depend only on the rotor order and starting
+ *  positions, and not on the plugboard.  The catalog records the
+ *  characteristic of every key in a KeySpace (or of every key with
+ *  chosen rotor orders) in a file sorted by a hash of the
+ *  characteristic, so that the keys with a given characteristic can be
+ *  found by binary search in the memory-mapped file.  Only the high-order
+ *  bits of each hash are stored, so keys whose characteristics differ
+ *  may share an entry's hash; a query recomputes the characteristic of
+ *  each key found, and returns only the keys that really have it.
+ *
+ *  The file holds a header (magic number, number of bits of each hash
+ *  that are stored, size of the key space and number of entries)
+ *  followed by the sorted hashes and then the corresponding keys, all as
+ *  longs.
+ *  @author Alessandro Buy
+ */
+public final class CycleCatalog {
+
+    /** Build or consult a catalog, as specified by ARGS:
+     *      build CONFIG INDEX [ORDER ...]
+     *  catalogs the keys of the machine described by configuration file
+     *  CONFIG in the file INDEX.  Each ORDER is a list of rotor names
+     *  such as "B Beta I II III"; if there are none, all rotor orders
+     *  are cataloged.  A catalog holds fewer than 2^28 keys (MAX_ENTRIES),
+     *  so the key space of a large machine, such as the naval machine's
+     *  5376 rotor orders of 26^4 positions each, must be cataloged in
+     *  separate files of at most 587 rotor orders.
+     *      query CONFIG INDEX CHARACTERISTIC
+     *  prints the settings of the keys in INDEX whose characteristic is
+     *  CHARACTERISTIC, which gives the cycle lengths of A1A4, A2A5 and
+     *  A3A6 separated by '/', as in "13 13/10 10 3 3/12 12 1 1".  Exits
+     *  normally if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 3) {
+                throw error("usage: build CONFIG INDEX [ORDER ...] "
+                            + "or query CONFIG INDEX CHARACTERISTIC");
+            }
+            Machine M = Main.readConfig(args[1]);
+            KeySpace keys = new KeySpace(M);
+            if (args[0].equals("build")) {
+                int[] orders = new int[args.length - 3];
+                for (int i = 3; i < args.length; i += 1) {
+                    orders[i - 3] = keys.order(args[i]);
+                }
+                if (orders.length == 0) {
+                    orders = IntStream.range(0, keys.orders()).toArray();
+                }
+                build(M, keys, orders, new File(args[2]));
+            } else if (args[0].equals("query") && args.length == 4) {
+                CycleCatalog catalog = new CycleCatalog(new File(args[2]));
+                if (catalog.keySpaceSize() != keys.size()) {
+                    throw error("%s was not built from %s", args[2], args[1]);
+                }
+                for (long key : catalog.query(M, keys, parse(args[3]))) {
+                    System.out.println(keys.settings(key));
+                }
+            } else {
+                throw error("unknown command: %s", args[0]);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Open the catalog in FILE. */
+    CycleCatalog(File file) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.readLong() != MAGIC) {
+                throw error("%s is not a cycle catalog", file);
+            }
+            _hashBits = in.readInt();
+            _keySpaceSize = in.readLong();
+            _count = in.readLong();
+            if (_hashBits < 1 || _hashBits > 64 || _count < 0
+                || _count > MAX_ENTRIES
+                || in.length() != HEADER_SIZE + 16 * _count) {
+                throw error("%s is damaged", file);
+            }
+            FileChannel channel = in.getChannel();
+            _hashes = channel.map(FileChannel.MapMode.READ_ONLY,
+                                  HEADER_SIZE, 8 * _count).asLongBuffer();
+            _keys = channel.map(FileChannel.MapMode.READ_ONLY,
+                                HEADER_SIZE + 8 * _count, 8 * _count)
+                .asLongBuffer();
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /** Return the number of keys in the key space the catalog was built
+     *  from. */
+    long keySpaceSize() {
+        return _keySpaceSize;
+    }
+
+    /** Return the number of keys cataloged. */
+    long count() {
+        return _count;
+    }
+
+    /** Return the keys in KEYS, the key space of M from which I was
+     *  built, whose characteristic is CHARACTERISTIC, the cycle types of
+     *  A1A4, A2A5 and A3A6 (as from Permutation.cycleType), in increasing
+     *  order.  The rotors of M are changed. */
+    long[] query(Machine M, KeySpace keys, int[][] characteristic) {
+        long hash = hash(characteristic) >>> (64 - _hashBits);
+        long lo = 0, hi = _count;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (Long.compareUnsigned(_hashes.get((int) mid), hash) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int end = (int) lo;
+        while (end < _count && _hashes.get(end) == hash) {
+            end += 1;
+        }
+        long[] result = new long[end - (int) lo];
+        int found = 0;
+        for (int i = (int) lo; i < end; i += 1) {
+            long key = _keys.get(i);
+            keys.apply(M, key);
+            if (Arrays.deepEquals(characteristic(M), characteristic)) {
+                result[found] = key;
+                found += 1;
+            }
+        }
+        result = Arrays.copyOf(result, found);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** Write to FILE a catalog of the keys in KEYS, a key space for M,
+     *  that have the rotor orders numbered ORDERS. */
+    static void build(Machine M, KeySpace keys, int[] orders, File file) {
+        long positions = keys.positions();
+        long total = positions * orders.length;
+        if (total > MAX_ENTRIES) {
+            throw error("too many keys to catalog at once (%d, at most "
+                        + "%d); catalog fewer rotor orders per file",
+                        total, MAX_ENTRIES);
+        }
+        int indexBits = 64 - Long.numberOfLeadingZeros(Math.max(1, total - 1));
+        int hashBits = 64 - indexBits;
+        if (hashBits < MIN_HASH_BITS) {
+            throw error("too many keys to catalog at once");
+        }
+        long[] entries = new long[(int) total];
+        ThreadLocal<Machine> machines = ThreadLocal.withInitial(M::copy);
+        IntStream.range(0, (int) total).parallel().forEach(i -> {
+            Machine mach = machines.get();
+            long key = keys.key(orders[(int) (i / positions)], i % positions);
+            keys.apply(mach, key);
+            long hash = hash(characteristic(mach)) >>> indexBits;
+            entries[i] = ((hash << indexBits) | i) ^ Long.MIN_VALUE;
+        });
+        Arrays.parallelSort(entries);
+        for (int i = 0; i < entries.length; i += 1) {
+            entries[i] ^= Long.MIN_VALUE;
+        }
+
+        long mask = (1L << indexBits) - 1;
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeLong(MAGIC);
+            out.writeInt(hashBits);
+            out.writeLong(keys.size());
+            out.writeLong(total);
+            for (long entry : entries) {
+                out.writeLong(entry >>> indexBits);
+            }
+            for (long entry : entries) {
+                int i = (int) (entry & mask);
+                out.writeLong(keys.key(orders[(int) (i / positions)],
+                                       i % positions));
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** Return the characteristic of M from its current position: the
+     *  cycle types of A1A4, A2A5 and A3A6, where Ai is the permutation
+     *  M performs after advancing i times.  M is left advanced. */
+    static int[][] characteristic(Machine M) {
+        Permutation[] steps = new Permutation[6];
+        for (int i = 0; i < steps.length; i += 1) {
+            M.advanceMachine();
+            steps[i] = M.currentPermutation();
+        }
+        return new int[][] {
+            steps[0].compose(steps[3]).cycleType(),
+            steps[1].compose(steps[4]).cycleType(),
+            steps[2].compose(steps[5]).cycleType(),
+        };
+    }
+
+    /** Return a 64-bit hash of CHARACTERISTIC. */
+    static long hash(int[][] characteristic) {
+        long h = FNV_OFFSET;
+        for (int[] cycleType : characteristic) {
+            for (int length : cycleType) {
+                h = (h ^ length) * FNV_PRIME;
+            }
+            h = (h ^ -1) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    /** Return the characteristic denoted by SPEC (see main). */
+    static int[][] parse(String spec) {
+        String[] parts = spec.split("/");
+        if (parts.length != 3) {
+            throw error("characteristic needs three cycle types");
+        }
+        int[][] result = new int[3][];
+        try {
+            for (int i = 0; i < 3; i += 1) {
+                String[] lengths = parts[i].trim().split("[\\s,]+");
+                result[i] = new int[lengths.length];
+                for (int k = 0; k < lengths.length; k += 1) {
+                    result[i][k] = Integer.parseInt(lengths[k]);
+                }
+                Arrays.sort(result[i]);
+                for (int a = 0, b = lengths.length - 1; a < b; a++, b--) {
+                    int t = result[i][a];
+                    result[i][a] = result[i][b];
+                    result[i][b] = t;
+                }
+            }
+        } catch (NumberFormatException excp) {
+            throw error("bad characteristic: %s", spec);
+        }
+        return result;
+    }
+
+    /** Identifies catalog files. */
+    private static final long MAGIC = 0x454e49474d414343L;
+
+    /** Size of the file header in bytes. */
+    private static final int HEADER_SIZE = 28;
+
+    /** Most entries in one catalog (so that each half of the file, of
+     *  8 bytes per entry, can be mapped at once). */
+    static final long MAX_ENTRIES = Integer.MAX_VALUE / 8;
+
+    /** Fewest hash bits worth storing. */
+    private static final int MIN_HASH_BITS = 24;
+
+    /** Parameters of the FNV-1a hash. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L,
+        FNV_PRIME = 0x100000001b3L;
+
+    /** Number of high-order bits of each hash that are stored. */
+    private final int _hashBits;
+
+    /** Size of the key space the catalog was built from. */
+    private final long _keySpaceSize;
+
+    /** Number of entries. */
+    private final long _count;
+
+    /** Stored hashes, in increasing order. */
+    private final LongBuffer _hashes;
+
+    /** The key for each hash. */
+    private final LongBuffer _keys;
+
+}
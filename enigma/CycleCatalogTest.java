@@ -0,0 +1,233 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/** The suite of all JUnit tests for the CycleCatalog class.
+ *  @author Alessandro Buy
+ */
+public class CycleCatalogTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration whose key space is too large for one catalog. */
+    static final String CONFIG = "../testing/correct/default.conf";
+
+    private Alphabet abc = new CharacterRange('A', 'F');
+
+    /** Return a 4-slot, 2-pawl machine with two reflectors, a fixed
+     *  rotor and two moving rotors. */
+    private Machine smallMachine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation("(AB) (CD) (EF)",
+                                                      abc)));
+        rotors.add(new Reflector("C", new Permutation("(AC) (BE) (DF)",
+                                                      abc)));
+        rotors.add(new MovingRotor("I", new Permutation("(ABCDEF)", abc),
+                                   "A"));
+        rotors.add(new MovingRotor("II", new Permutation("(AC) (BDF)", abc),
+                                   "BE"));
+        rotors.add(new FixedRotor("F", new Permutation("(CB) (DE)", abc)));
+        return new Machine(abc, 4, 2, rotors);
+    }
+
+    /** Return a machine whose rotor orders each have exactly 2^28 keys:
+     *  seven rotors, with 16 positions each, after the reflector. */
+    private Machine wideMachine() {
+        Alphabet alpha = new CharacterRange('A', 'P');
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(
+            "(AB) (CD) (EF) (GH) (IJ) (KL) (MN) (OP)", alpha)));
+        for (int i = 1; i < 7; i += 1) {
+            rotors.add(new FixedRotor("F" + i, new Permutation("", alpha)));
+        }
+        rotors.add(new MovingRotor("I", new Permutation("(ABCDEFGHIJKLMNOP)",
+                                                        alpha), "A"));
+        return new Machine(alpha, 8, 1, rotors);
+    }
+
+    /** Return the keys of KEYS grouped by their characteristics with M,
+     *  each group in increasing order. */
+    static Map<String, List<Long>> characteristics(Machine M,
+                                                   KeySpace keys) {
+        Map<String, List<Long>> result = new HashMap<>();
+        for (long key = 0; key < keys.size(); key += 1) {
+            keys.apply(M, key);
+            result.computeIfAbsent(
+                Arrays.deepToString(CycleCatalog.characteristic(M)),
+                c -> new ArrayList<>()).add(key);
+        }
+        return result;
+    }
+
+    /** Check that querying CATALOG, built from KEYS, the key space of M,
+     *  finds exactly the keys with each characteristic. */
+    static void checkQueries(CycleCatalog catalog, Machine M,
+                             KeySpace keys) {
+        for (List<Long> group : characteristics(M, keys).values()) {
+            keys.apply(M, group.get(0));
+            int[][] characteristic = CycleCatalog.characteristic(M);
+            long[] expected = new long[group.size()];
+            for (int i = 0; i < expected.length; i += 1) {
+                expected[i] = group.get(i);
+            }
+            assertArrayEquals(expected,
+                              catalog.query(M, keys, characteristic));
+        }
+    }
+
+    /** Return a new, empty temporary file. */
+    static File tempFile() throws IOException {
+        File file = File.createTempFile("catalog", ".idx");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testQuery() throws IOException {
+        Machine M = smallMachine();
+        KeySpace keys = new KeySpace(M);
+        File file = tempFile();
+        CycleCatalog.build(M, keys,
+                           IntStream.range(0, keys.orders()).toArray(),
+                           file);
+        CycleCatalog catalog = new CycleCatalog(file);
+        assertEquals(keys.size(), catalog.keySpaceSize());
+        assertEquals(keys.size(), catalog.count());
+        assertTrue(characteristics(M, keys).size() > 2);
+        checkQueries(catalog, M, keys);
+        file.delete();
+    }
+
+    @Test
+    public void testTruncatedHashes() throws IOException {
+        Machine M = smallMachine();
+        KeySpace keys = new KeySpace(M);
+        File file = tempFile();
+        CycleCatalog.build(M, keys,
+                           IntStream.range(0, keys.orders()).toArray(),
+                           file);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(8);
+            int bits = out.readInt();
+            out.seek(8);
+            out.writeInt(1);
+            for (long i = 0; i < keys.size(); i += 1) {
+                out.seek(28 + 8 * i);
+                long hash = out.readLong();
+                out.seek(28 + 8 * i);
+                out.writeLong(hash >>> (bits - 1));
+            }
+        }
+        checkQueries(new CycleCatalog(file), M, keys);
+        file.delete();
+    }
+
+    @Test
+    public void testOrders() throws IOException {
+        Machine M = smallMachine();
+        KeySpace keys = new KeySpace(M);
+        File file = tempFile();
+        int order = keys.order("C F II I");
+        CycleCatalog.build(M, keys, new int[] { order }, file);
+        CycleCatalog catalog = new CycleCatalog(file);
+        assertEquals(keys.positions(), catalog.count());
+        for (long p = 0; p < keys.positions(); p += 1) {
+            long key = keys.key(order, p);
+            keys.apply(M, key);
+            long[] found = catalog.query(M, keys,
+                                         CycleCatalog.characteristic(M));
+            assertTrue(Arrays.binarySearch(found, key) >= 0);
+            for (long other : found) {
+                assertTrue(keys.settings(other).startsWith("C F II I "));
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testTooManyKeys() throws IOException {
+        Machine M = Main.readConfig(CONFIG);
+        KeySpace keys = new KeySpace(M);
+        File file = tempFile();
+        try {
+            CycleCatalog.build(M, keys,
+                               IntStream.range(0, keys.orders()).toArray(),
+                               file);
+            fail("catalog of " + keys.size() + " keys");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage(),
+                       excp.getMessage().startsWith("too many keys"));
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testLargest() throws IOException {
+        Machine M = wideMachine();
+        KeySpace keys = new KeySpace(M);
+        assertEquals(1L << 28, keys.positions());
+        assertTrue(keys.positions() > CycleCatalog.MAX_ENTRIES);
+        File file = tempFile();
+        try {
+            CycleCatalog.build(M, keys, new int[] { 0 }, file);
+            fail("catalog of 2^28 keys");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage(),
+                       excp.getMessage().startsWith("too many keys"));
+        }
+        M = smallMachine();
+        keys = new KeySpace(M);
+        CycleCatalog.build(M, keys, new int[] { 0 }, file);
+        for (long count : new long[] { CycleCatalog.MAX_ENTRIES,
+                                       CycleCatalog.MAX_ENTRIES + 1 }) {
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.seek(20);
+                out.writeLong(count);
+                out.setLength(28 + 16 * count);
+            }
+            try {
+                assertEquals(count, new CycleCatalog(file).count());
+                assertEquals(CycleCatalog.MAX_ENTRIES, count);
+            } catch (EnigmaException excp) {
+                assertEquals(file + " is damaged", excp.getMessage());
+                assertEquals(CycleCatalog.MAX_ENTRIES + 1, count);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testParse() {
+        int[][] characteristic =
+            CycleCatalog.parse("13 13/3 10 3 10/1 12, 12 1");
+        assertArrayEquals(new int[] { 13, 13 }, characteristic[0]);
+        assertArrayEquals(new int[] { 10, 10, 3, 3 }, characteristic[1]);
+        assertArrayEquals(new int[] { 12, 12, 1, 1 }, characteristic[2]);
+        try {
+            CycleCatalog.parse("13 13/10 10 3 3");
+            fail("two cycle types accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+}
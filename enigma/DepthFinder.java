@@ -0,0 +1,599 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import static enigma.EnigmaException.*;
+
+/** A finder of pairs of messages "in depth": encrypted with the same
+ *  key from the same starting position.  Two such messages are converted
+ *  by the same sequence of permutations, so that wherever their
+ *  plaintexts have the same letter, so do their ciphertexts; they
+ *  therefore coincide at aligned positions about as often as plaintext
+ *  letters do (about 1 in 15 for German or English), rather than about 1
+ *  in 26.  The score of a pair is the number of standard deviations by
+ *  which its coincidences exceed those expected of unrelated messages,
+ *  given the letter frequencies of the corpus.
+ *
+ *  Comparing every pair is quadratic, so the pairs compared are first
+ *  found by hashing: each message contributes a hash of each aligned
+ *  GRAM-letter block (with its position) in its first WINDOW letters,
+ *  and two messages become a candidate pair if they share one.  Unrelated
+ *  messages share one with probability about WINDOW / 26^GRAM, while
+ *  messages in depth share one wherever their plaintexts repeat, as they
+ *  do in stereotyped openings.  A candidate pair is scored on its whole
+ *  overlap except the blocks it shares, whose coincidences are what made
+ *  it a candidate.  Since few unrelated pairs become candidates, a lower
+ *  score suffices to report one than with --all, which compares every
+ *  pair instead.  That finds depths without repeated text but takes time
+ *  quadratic in the number of messages.  Either way, letters are packed
+ *  eight to a long, and a comparison counts equal bytes a word at a time.
+ *
+ *  The input files hold messages separated by lines starting with '*';
+ *  other characters not in the alphabet are ignored.  Message N (from
+ *  1) of file F is named F:N in the output, which lists the pairs with
+ *  scores of at least the threshold in decreasing order of score, one
+ *  per line: score, names, coincidences and overlap.
+ *  @author Alessandro Buy
+ */
+public final class DepthFinder {
+
+    /** Find pairs in depth, as specified by ARGS, which are (after any
+     *  options) the name of a configuration file, the input files (a
+     *  directory or pattern, as for Main --batch), and an output file.
+     *  The options are --all, to compare all pairs, --threshold=Z, the
+     *  lowest score reported (default 2, or 4 with --all), and --jobs=N,
+     *  the number of threads.  Exits normally if there are no errors;
+     *  otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            boolean all = false;
+            double threshold = Double.NaN;
+            int jobs = Runtime.getRuntime().availableProcessors();
+            int k;
+            for (k = 0; k < args.length && args[k].startsWith("--"); k += 1) {
+                String value = args[k].substring(args[k].indexOf('=') + 1);
+                try {
+                    if (args[k].equals("--all")) {
+                        all = true;
+                    } else if (args[k].startsWith("--threshold=")) {
+                        threshold = Double.parseDouble(value);
+                    } else if (args[k].startsWith("--jobs=")) {
+                        jobs = Integer.parseInt(value);
+                        if (jobs < 1) {
+                            throw error("bad value for option %s", args[k]);
+                        }
+                    } else {
+                        throw error("unknown option: %s", args[k]);
+                    }
+                } catch (NumberFormatException excp) {
+                    throw error("bad value for option %s", args[k]);
+                }
+            }
+            if (args.length - k != 3) {
+                throw error("usage: [--all] [--threshold=Z] [--jobs=N] "
+                            + "CONFIG INPUTS OUTPUT");
+            }
+            if (Double.isNaN(threshold)) {
+                threshold = all ? DEFAULT_THRESHOLD : CANDIDATE_THRESHOLD;
+            }
+            DepthFinder finder =
+                new DepthFinder(Main.readConfig(args[k]).alphabet());
+            for (File input : Batch.inputs(args[k + 1])) {
+                finder.read(input);
+            }
+            List<Pair> pairs = all ? finder.allPairs(threshold, jobs)
+                : finder.candidatePairs(threshold, jobs);
+            try (PrintStream out = new PrintStream(new BufferedOutputStream(
+                     new FileOutputStream(args[k + 2])))) {
+                for (Pair pair : pairs) {
+                    out.printf("%.2f %s %s %d %d%n", pair.score,
+                               finder.name(pair.first),
+                               finder.name(pair.second),
+                               pair.coincidences, pair.overlap);
+                }
+            } catch (IOException excp) {
+                throw error("could not write %s", args[k + 2]);
+            }
+            System.err.printf("%d messages, %d pairs compared, "
+                              + "%d reported%n", finder.size(),
+                              finder.compared(), pairs.size());
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A pair of messages and how they coincide. */
+    static class Pair {
+        /** The pair of messages FIRST < SECOND, which coincide at
+         *  COINCIDENCES of the OVERLAP positions compared, with score
+         *  SCORE. */
+        Pair(int first, int second, int coincidences, int overlap,
+             double score) {
+            this.first = first;
+            this.second = second;
+            this.coincidences = coincidences;
+            this.overlap = overlap;
+            this.score = score;
+        }
+
+        /** The messages. */
+        final int first, second;
+        /** Number of aligned positions with the same letter. */
+        final int coincidences;
+        /** Number of aligned positions compared. */
+        final int overlap;
+        /** The score. */
+        final double score;
+    }
+
+    /** Orders pairs by decreasing score, and then by messages. */
+    static final Comparator<Pair> BEST_FIRST =
+        Comparator.comparingDouble((Pair p) -> -p.score)
+        .thenComparingInt(p -> p.first).thenComparingInt(p -> p.second);
+
+    /** A finder for messages in ALPHABET, which may have at most
+     *  MAX_ALPHABET letters (each letter is stored in a byte). */
+    DepthFinder(Alphabet alphabet) {
+        if (alphabet.size() > MAX_ALPHABET) {
+            throw error("alphabet has more than %d letters", MAX_ALPHABET);
+        }
+        _alphabet = alphabet;
+        _frequencies = new long[alphabet.size()];
+    }
+
+    /** Add the messages in the file INPUT. */
+    void read(File input) {
+        LineReader in = LineReader.open(input.getPath(), 0);
+        try {
+            read(in, input.getPath());
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Add the messages in IN, naming them after SOURCE. */
+    void read(LineReader in, String source) {
+        byte[] letters = new byte[INITIAL_LENGTH];
+        int length = 0;
+        int number = 0;
+        boolean started = false;
+        while (in.nextLine()) {
+            byte[] buf = in.buffer();
+            int start = in.start(), end = start + in.length();
+            if (start < end && buf[start] == '*') {
+                if (started) {
+                    add(source + ":" + number, letters, length);
+                }
+                started = true;
+                number += 1;
+                length = 0;
+                continue;
+            }
+            String line = in.line().toUpperCase();
+            for (int i = 0; i < line.length(); i += 1) {
+                char ch = line.charAt(i);
+                if (!_alphabet.contains(ch)) {
+                    continue;
+                }
+                if (length == letters.length) {
+                    letters = Arrays.copyOf(letters, 2 * length);
+                }
+                letters[length] = (byte) _alphabet.toInt(ch);
+                length += 1;
+                if (!started) {
+                    started = true;
+                    number = 1;
+                }
+            }
+        }
+        if (started) {
+            add(source + ":" + number, letters, length);
+        }
+    }
+
+    /** Add the message named NAME whose letters (as indices into the
+     *  alphabet, read as unsigned bytes) are the first LENGTH of
+     *  LETTERS. */
+    void add(String name, byte[] letters, int length) {
+        int words = (length + LETTERS_PER_WORD - 1) / LETTERS_PER_WORD;
+        if (_size == _names.length) {
+            _names = Arrays.copyOf(_names, 2 * _size);
+            _lengths = Arrays.copyOf(_lengths, 2 * _size);
+            _starts = Arrays.copyOf(_starts, 2 * _size + 1);
+        }
+        while (_starts[_size] + words > _words.length) {
+            _words = Arrays.copyOf(_words, 2 * _words.length);
+        }
+        int start = _starts[_size];
+        for (int i = 0; i < length; i += 1) {
+            int letter = letters[i] & 0xff;
+            _words[start + i / LETTERS_PER_WORD] |=
+                (long) letter << (Byte.SIZE * (i % LETTERS_PER_WORD));
+            _frequencies[letter] += 1;
+        }
+        _names[_size] = name;
+        _lengths[_size] = length;
+        _starts[_size + 1] = start + words;
+        _size += 1;
+        _rate = -1;
+    }
+
+    /** Return the number of messages. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the name of message I. */
+    String name(int i) {
+        return _names[i];
+    }
+
+    /** Return the number of pairs compared by the last search. */
+    long compared() {
+        return _compared;
+    }
+
+    /** Return the number of aligned positions at which messages I and J
+     *  have the same letter. */
+    int coincidences(int i, int j) {
+        int n = Math.min(_lengths[i], _lengths[j]);
+        int a = _starts[i], b = _starts[j];
+        int full = n / LETTERS_PER_WORD;
+        int count = 0;
+        for (int w = 0; w < full; w += 1) {
+            count += Long.bitCount(zeroBytes(_words[a + w] ^ _words[b + w]));
+        }
+        int rest = n % LETTERS_PER_WORD;
+        if (rest > 0) {
+            long diff = _words[a + full] ^ _words[b + full];
+            count += Long.bitCount(
+                zeroBytes(diff | (-1L << (Byte.SIZE * rest))));
+        }
+        return count;
+    }
+
+    /** Return X with the top bit of each of its zero bytes set, and all
+     *  other bits clear. */
+    private static long zeroBytes(long x) {
+        long y = (x & LOW_SEVEN) + LOW_SEVEN;
+        return ~(y | x | LOW_SEVEN);
+    }
+
+    /** Return the positions among the first WINDOW that messages I and J
+     *  share as parts of aligned GRAM-letter blocks, as a mask with bit
+     *  K set for position K. */
+    long shared(int i, int j) {
+        int n = Math.min(WINDOW, Math.min(_lengths[i], _lengths[j]));
+        int a = _starts[i], b = _starts[j];
+        long equal = 0;
+        for (int w = 0; w * LETTERS_PER_WORD < n; w += 1) {
+            long zero = zeroBytes(_words[a + w] ^ _words[b + w]);
+            for (int k = 0; k < LETTERS_PER_WORD; k += 1) {
+                equal |= (zero >>> (Byte.SIZE * k + Byte.SIZE - 1) & 1)
+                    << (w * LETTERS_PER_WORD + k);
+            }
+        }
+        if (n < WINDOW) {
+            equal &= (1L << n) - 1;
+        }
+        long starts = equal;
+        for (int k = 1; k < GRAM; k += 1) {
+            starts &= equal >>> k;
+        }
+        long result = 0;
+        for (int k = 0; k < GRAM; k += 1) {
+            result |= starts << k;
+        }
+        return result;
+    }
+
+    /** Return the pair of messages I and J, with its score. */
+    Pair compare(int i, int j) {
+        return compare(i, j, 0);
+    }
+
+    /** Return the pair of messages I and J, with its score counting only
+     *  the positions that are not in the mask SHARED (see shared), at
+     *  all of which they coincide. */
+    private Pair compare(int i, int j, long shared) {
+        if (_rate < 0) {
+            computeRate();
+        }
+        int skipped = Long.bitCount(shared);
+        int n = Math.min(_lengths[i], _lengths[j]) - skipped;
+        int c = coincidences(i, j) - skipped;
+        double mean = n * _rate;
+        double score = n == 0 ? 0
+            : (c - mean) / Math.sqrt(mean * (1 - _rate));
+        return new Pair(Math.min(i, j), Math.max(i, j), c, n, score);
+    }
+
+    /** Compute the probability that letters of unrelated messages
+     *  coincide, from the frequencies of the letters. */
+    private void computeRate() {
+        long total = 0, squares = 0;
+        for (long f : _frequencies) {
+            total += f;
+            squares += f * f;
+        }
+        _rate = total == 0 ? 1.0 / _alphabet.size()
+            : (double) squares / ((double) total * total);
+    }
+
+    /** Return the pairs of messages that share an aligned block of
+     *  letters (see the class comment) and have scores of at least
+     *  THRESHOLD, best first, using JOBS threads.  The scores leave out
+     *  the blocks shared, since sharing them is what makes the pair a
+     *  candidate, even for unrelated messages.  The messages in a bucket
+     *  of more than MAX_BUCKET with the same block are compared with each
+     *  other as they are found, rather than listed as pairs. */
+    List<Pair> candidatePairs(double threshold, int jobs) {
+        if (_size >= 1 << MESSAGE_BITS) {
+            throw error("too many messages");
+        }
+        computeRate();
+        int blocks = WINDOW - GRAM + 1;
+        long[] keys = new long[_size * blocks];
+        parallel(jobs, job -> {
+            for (int i = job; i < _size; i += jobs) {
+                int n = Math.min(_lengths[i], WINDOW);
+                for (int p = 0; p < blocks; p += 1) {
+                    keys[i * blocks + p] = p + GRAM > n ? NO_KEY
+                        : (blockHash(i, p) << MESSAGE_BITS) | i;
+                }
+            }
+            return null;
+        });
+        Arrays.parallelSort(keys);
+        long[] pairs = new long[INITIAL_LENGTH];
+        int numPairs = 0;
+        List<int[]> large = new ArrayList<>();
+        long largePairs = 0;
+        for (int r = 0; r < keys.length && keys[r] != NO_KEY;) {
+            int s = r + 1;
+            long hash = keys[r] >>> MESSAGE_BITS;
+            while (s < keys.length && keys[s] != NO_KEY
+                   && keys[s] >>> MESSAGE_BITS == hash) {
+                s += 1;
+            }
+            if (s - r > MAX_BUCKET) {
+                large.add(new int[] { r, s });
+                largePairs += (long) (s - r) * (s - r - 1) / 2;
+                r = s;
+                continue;
+            }
+            for (int x = r; x < s; x += 1) {
+                for (int y = x + 1; y < s; y += 1) {
+                    int i = (int) (keys[x] & MESSAGE_MASK);
+                    int j = (int) (keys[y] & MESSAGE_MASK);
+                    if (i == j) {
+                        continue;
+                    }
+                    if (numPairs == pairs.length) {
+                        pairs = Arrays.copyOf(pairs, 2 * numPairs);
+                    }
+                    pairs[numPairs] = ((long) Math.min(i, j) << Integer.SIZE)
+                        | Math.max(i, j);
+                    numPairs += 1;
+                }
+            }
+            r = s;
+        }
+        Arrays.parallelSort(pairs, 0, numPairs);
+        int unique = 0;
+        for (int x = 0; x < numPairs; x += 1) {
+            if (unique == 0 || pairs[x] != pairs[unique - 1]) {
+                pairs[unique] = pairs[x];
+                unique += 1;
+            }
+        }
+        long[] found = pairs;
+        int total = unique;
+        _compared = total + largePairs;
+        List<Pair> result = collect(jobs, job -> {
+            List<Pair> part = new ArrayList<>();
+            for (int x = job; x < total; x += jobs) {
+                int i = (int) (found[x] >>> Integer.SIZE), j = (int) found[x];
+                Pair pair = compare(i, j, shared(i, j));
+                if (pair.score >= threshold) {
+                    part.add(pair);
+                }
+            }
+            for (int[] bucket : large) {
+                for (int x = bucket[0] + job; x < bucket[1]; x += jobs) {
+                    int i = (int) (keys[x] & MESSAGE_MASK);
+                    for (int y = x + 1; y < bucket[1]; y += 1) {
+                        int j = (int) (keys[y] & MESSAGE_MASK);
+                        Pair pair = i == j ? null : compare(i, j, shared(i, j));
+                        if (pair != null && pair.score >= threshold) {
+                            part.add(pair);
+                        }
+                    }
+                }
+            }
+            return part;
+        });
+        int kept = 0;
+        for (Pair pair : result) {
+            Pair last = kept == 0 ? null : result.get(kept - 1);
+            if (last == null || last.first != pair.first
+                || last.second != pair.second) {
+                result.set(kept, pair);
+                kept += 1;
+            }
+        }
+        return result.subList(0, kept);
+    }
+
+    /** Return all pairs of messages with scores of at least THRESHOLD,
+     *  best first, using JOBS threads. */
+    List<Pair> allPairs(double threshold, int jobs) {
+        computeRate();
+        _compared = (long) _size * (_size - 1) / 2;
+        return collect(jobs, job -> {
+            List<Pair> result = new ArrayList<>();
+            for (int i0 = job * TILE; i0 < _size; i0 += jobs * TILE) {
+                int i1 = Math.min(i0 + TILE, _size);
+                for (int j0 = i0; j0 < _size; j0 += TILE) {
+                    int j1 = Math.min(j0 + TILE, _size);
+                    for (int i = i0; i < i1; i += 1) {
+                        for (int j = Math.max(j0, i + 1); j < j1; j += 1) {
+                            Pair pair = compare(i, j);
+                            if (pair.score >= threshold) {
+                                result.add(pair);
+                            }
+                        }
+                    }
+                }
+            }
+            return result;
+        });
+    }
+
+    /** Return a 40-bit hash of the GRAM letters of message I starting at
+     *  position P, and of P. */
+    private long blockHash(int i, int p) {
+        long h = p * 0x9e3779b97f4a7c15L;
+        for (int k = p; k < p + GRAM; k += 1) {
+            h = (h ^ letter(i, k)) * 0x100000001b3L;
+        }
+        h ^= h >>> 29;
+        h *= 0xbf58476d1ce4e5b9L;
+        h ^= h >>> 32;
+        return h >>> (Long.SIZE - HASH_BITS);
+    }
+
+    /** Return letter K of message I. */
+    private int letter(int i, int k) {
+        return (int) (_words[_starts[i] + k / LETTERS_PER_WORD]
+                      >>> (Byte.SIZE * (k % LETTERS_PER_WORD))) & 0xff;
+    }
+
+    /** Run TASK(0) .. TASK(JOBS - 1) in JOBS threads, and return the
+     *  pairs they return, best first. */
+    private static List<Pair> collect(int jobs,
+                                      IntFunction<List<Pair>> task) {
+        List<Pair> result = new ArrayList<>();
+        for (List<Pair> part : parallel(jobs, task)) {
+            result.addAll(part);
+        }
+        result.sort(BEST_FIRST);
+        return result;
+    }
+
+    /** Run TASK(0) .. TASK(JOBS - 1) in JOBS threads, and return their
+     *  results. */
+    private static <T> List<T> parallel(int jobs, IntFunction<T> task) {
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int job = 0; job < jobs; job += 1) {
+                int j = job;
+                futures.add(pool.submit(() -> task.apply(j)));
+            }
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw error("%s", excp.getCause());
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Default lowest score reported by allPairs. */
+    static final double DEFAULT_THRESHOLD = 4.0;
+
+    /** Default lowest score reported by candidatePairs. */
+    static final double CANDIDATE_THRESHOLD = 2.0;
+
+    /** Length of the blocks hashed. */
+    static final int GRAM = 6;
+
+    /** Number of leading letters of a message whose blocks are hashed (a
+     *  multiple of LETTERS_PER_WORD). */
+    static final int WINDOW = 64;
+
+    /** Greatest number of messages in a bucket whose pairs are listed
+     *  (see candidatePairs). */
+    private static final int MAX_BUCKET = 1024;
+
+    /** Marks an unused key, which sorts last. */
+    private static final long NO_KEY = Long.MAX_VALUE;
+
+    /** Bits of a key identifying a message. */
+    private static final int MESSAGE_BITS = 23;
+
+    /** Mask for the message part of a key. */
+    private static final long MESSAGE_MASK = (1L << MESSAGE_BITS) - 1;
+
+    /** Bits of a key holding a block hash. */
+    private static final int HASH_BITS = Long.SIZE - 1 - MESSAGE_BITS;
+
+    /** Number of messages in a square of pairs compared together by
+     *  allPairs, chosen so that their letters stay in the cache. */
+    private static final int TILE = 128;
+
+    /** Letters packed into each long. */
+    private static final int LETTERS_PER_WORD = Long.SIZE / Byte.SIZE;
+
+    /** Largest alphabet whose letters fit in a byte. */
+    static final int MAX_ALPHABET = 1 << Byte.SIZE;
+
+    /** The low seven bits of each byte. */
+    private static final long LOW_SEVEN = 0x7f7f7f7f7f7f7f7fL;
+
+    /** Initial sizes of growing arrays. */
+    private static final int INITIAL_LENGTH = 1024;
+
+    /** The alphabet of the messages. */
+    private final Alphabet _alphabet;
+
+    /** Number of occurrences of each letter. */
+    private final long[] _frequencies;
+
+    /** Probability that unrelated letters coincide, or -1 if not yet
+     *  computed. */
+    private double _rate = -1;
+
+    /** Number of messages. */
+    private int _size;
+
+    /** Names of the messages. */
+    private String[] _names = new String[INITIAL_LENGTH];
+
+    /** Lengths of the messages. */
+    private int[] _lengths = new int[INITIAL_LENGTH];
+
+    /** Index in _words of the first word of each message. */
+    private int[] _starts = new int[INITIAL_LENGTH + 1];
+
+    /** The letters of all the messages, eight to a word. */
+    private long[] _words = new long[INITIAL_LENGTH];
+
+    /** Number of pairs compared by the last search. */
+    private long _compared;
+
+}
@@ -0,0 +1,260 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.TestUtils.UPPER;
+
+/** The suite of all JUnit tests for the DepthFinder class.
+ *  @author Alessandro Buy
+ */
+public class DepthFinderTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a random plaintext of N letters chosen using RANDOM from
+     *  the first eight letters, so that plaintexts coincide much more
+     *  often than ciphertexts. */
+    private static String plaintext(int n, Random random) {
+        char[] result = new char[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = (char) ('A' + random.nextInt(8));
+        }
+        return new String(result);
+    }
+
+    /** Relative frequencies of the letters of English, in percent. */
+    private static final double[] ENGLISH = {
+        8.2, 1.5, 2.8, 4.3, 12.7, 2.2, 2.0, 6.1, 7.0, 0.2, 0.8, 4.0, 2.4,
+        6.7, 7.5, 1.9, 0.1, 6.0, 6.3, 9.1, 2.8, 1.0, 2.4, 0.2, 2.0, 0.1,
+    };
+
+    /** Return a random plaintext of N letters chosen using RANDOM with
+     *  the frequencies of English letters. */
+    private static String english(int n, Random random) {
+        double total = 0;
+        for (double f : ENGLISH) {
+            total += f;
+        }
+        char[] result = new char[n];
+        for (int i = 0; i < n; i += 1) {
+            double x = random.nextDouble() * total;
+            int c;
+            for (c = 0; c < ENGLISH.length - 1 && x >= ENGLISH[c]; c += 1) {
+                x -= ENGLISH[c];
+            }
+            result[i] = (char) ('A' + c);
+        }
+        return new String(result);
+    }
+
+    /** Return a random setting line for the naval machine, chosen using
+     *  RANDOM. */
+    private static String settings(Random random) {
+        StringBuilder result = new StringBuilder("B Beta I II III ");
+        for (int k = 0; k < 4; k += 1) {
+            result.append((char) ('A' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+
+    /** Return the encryption of PLAIN with the naval machine set up with
+     *  SETTINGS. */
+    private static String encrypt(String settings, String plain) {
+        Machine M = TestUtils.navalMachine();
+        Main.setUp(M, settings);
+        return M.convert(plain);
+    }
+
+    /** Return a corpus of COUNT messages of LENGTH letters with random
+     *  keys, chosen using RANDOM, except that messages 3 and 7 are in
+     *  depth, and so are messages 5 and 11, which also start with the
+     *  same plaintext. */
+    private static DepthFinder corpus(int count, int length,
+                                      Random random) {
+        String[] plain = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            plain[i] = plaintext(length, random);
+        }
+        return corpus(plain, random);
+    }
+
+    /** Return a corpus of the plaintexts PLAIN encrypted with random
+     *  keys, chosen using RANDOM, except that messages 3 and 7 are in
+     *  depth, and so are messages 5 and 11, which also start with the
+     *  same 20 letters of plaintext. */
+    private static DepthFinder corpus(String[] plain, Random random) {
+        int count = plain.length;
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            keys[i] = settings(random);
+        }
+        keys[7] = keys[3];
+        keys[11] = keys[5];
+        plain[11] = plain[5].substring(0, 20) + plain[11].substring(20);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < count; i += 1) {
+            input.append("* ").append(keys[i]).append('\n')
+                .append(encrypt(keys[i], plain[i])).append('\n');
+        }
+        DepthFinder finder = new DepthFinder(UPPER);
+        finder.read(new LineReader(new ByteArrayInputStream(
+                        input.toString().getBytes())), "in");
+        return finder;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testCoincidences() {
+        DepthFinder finder = new DepthFinder(UPPER);
+        Random random = new Random(1);
+        String[] texts = new String[20];
+        for (int i = 0; i < texts.length; i += 1) {
+            texts[i] = plaintext(random.nextInt(40), random);
+            byte[] letters = new byte[texts[i].length()];
+            for (int k = 0; k < letters.length; k += 1) {
+                letters[k] = (byte) (texts[i].charAt(k) - 'A');
+            }
+            finder.add("m" + i, letters, letters.length);
+        }
+        for (int i = 0; i < texts.length; i += 1) {
+            for (int j = 0; j < texts.length; j += 1) {
+                int n = Math.min(texts[i].length(), texts[j].length());
+                int count = 0;
+                for (int k = 0; k < n; k += 1) {
+                    if (texts[i].charAt(k) == texts[j].charAt(k)) {
+                        count += 1;
+                    }
+                }
+                assertEquals(count, finder.coincidences(i, j));
+            }
+        }
+    }
+
+    @Test
+    public void testByteAlphabet() {
+        DepthFinder finder = new DepthFinder(new ByteAlphabet());
+        Random random = new Random(2);
+        byte[][] texts = new byte[10][];
+        for (int i = 0; i < texts.length; i += 1) {
+            texts[i] = new byte[20 + random.nextInt(20)];
+            for (int k = 0; k < texts[i].length; k += 1) {
+                texts[i][k] = (byte) (0xf8 + random.nextInt(8));
+            }
+            finder.add("m" + i, texts[i], texts[i].length);
+        }
+        for (int i = 0; i < texts.length; i += 1) {
+            for (int j = 0; j < texts.length; j += 1) {
+                int n = Math.min(texts[i].length, texts[j].length);
+                int count = 0;
+                for (int k = 0; k < n; k += 1) {
+                    if (texts[i][k] == texts[j][k]) {
+                        count += 1;
+                    }
+                }
+                assertEquals(count, finder.coincidences(i, j));
+            }
+        }
+        assertFalse(Double.isNaN(finder.compare(0, 1).score));
+        try {
+            new DepthFinder(new CharacterRange('\0', (char) 300));
+            fail("alphabet of 301 letters accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testAllPairs() {
+        DepthFinder finder = corpus(60, 1000, new Random(2));
+        assertEquals(60, finder.size());
+        assertEquals("in:4", finder.name(3));
+        List<DepthFinder.Pair> pairs = finder.allPairs(6.0, 3);
+        assertEquals(2, pairs.size());
+        assertEquals(1770, finder.compared());
+        for (DepthFinder.Pair pair : pairs) {
+            assertTrue(pair.first == 3 && pair.second == 7
+                       || pair.first == 5 && pair.second == 11);
+            assertEquals(1000, pair.overlap);
+        }
+    }
+
+    @Test
+    public void testCandidatePairs() {
+        DepthFinder finder = corpus(60, 1000, new Random(3));
+        List<DepthFinder.Pair> pairs = finder.candidatePairs(6.0, 2);
+        assertEquals(1, pairs.size());
+        assertEquals(5, pairs.get(0).first);
+        assertEquals(11, pairs.get(0).second);
+        assertTrue(pairs.get(0).overlap <= 1000 - 20);
+        assertTrue(pairs.get(0).overlap > 1000 - DepthFinder.WINDOW);
+        assertTrue(finder.compared() < 10);
+    }
+
+    @Test
+    public void testEnglish() {
+        Random random = new Random(4);
+        for (int length : new int[] { 40, 64, 600 }) {
+            int found = 0;
+            for (int trial = 0; trial < 10; trial += 1) {
+                String[] plain = new String[20];
+                for (int i = 0; i < plain.length; i += 1) {
+                    plain[i] = english(length + random.nextInt(20), random);
+                }
+                DepthFinder finder = corpus(plain, random);
+                List<DepthFinder.Pair> pairs =
+                    finder.candidatePairs(Double.NEGATIVE_INFINITY, 2);
+                assertEquals(1, pairs.size());
+                DepthFinder.Pair pair = pairs.get(0);
+                assertEquals(5, pair.first);
+                assertEquals(11, pair.second);
+                assertTrue(pair.overlap >= length - 20 - GRAM_SLACK);
+                if (pair.score >= DepthFinder.CANDIDATE_THRESHOLD) {
+                    found += 1;
+                }
+            }
+            if (length >= 600) {
+                assertTrue("found " + found, found >= 7);
+            }
+        }
+    }
+
+    @Test
+    public void testLargeBucket() {
+        DepthFinder finder = new DepthFinder(UPPER);
+        Random random = new Random(5);
+        byte[] last = null;
+        for (int i = 0; i < 1100; i += 1) {
+            byte[] letters = new byte[100];
+            for (int k = DepthFinder.GRAM; k < letters.length; k += 1) {
+                letters[k] = (byte) random.nextInt(26);
+            }
+            if (i == 1099) {
+                letters = last;
+            }
+            finder.add("m" + i, letters, letters.length);
+            last = letters;
+        }
+        List<DepthFinder.Pair> pairs = finder.candidatePairs(8.0, 2);
+        assertEquals(1, pairs.size());
+        assertEquals(1098, pairs.get(0).first);
+        assertEquals(1099, pairs.get(0).second);
+        assertTrue(finder.compared() >= 1100 * 1099 / 2);
+    }
+
+    /** Most positions after the shared opening that may also count as
+     *  shared, by chance. */
+    private static final int GRAM_SLACK = 20;
+
+}
@@ -0,0 +1,19 @@
+package enigma;
+
+/** A converter of characters that behaves like a Machine in a
+ *  particular configuration, such as one compiled by EngineCompiler.
+ *  An Engine starts with the settings its machine had when the engine
+ *  was made, and then keeps its own settings.
+ *  @author Alessandro Buy
+ */
+interface Engine {
+
+    /** Return the conversion of C (an index into the alphabet), first
+     *  advancing the rotors, as Machine.convert(int) does. */
+    int convert(int c);
+
+    /** Set the rotors of M, the machine I was made from, to my current
+     *  settings. */
+    void store(Machine M);
+
+}
@@ -0,0 +1,369 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import static enigma.EnigmaException.*;
+
+/** A source of Engines specialised for the rotor order, alphabet size
+ *  and plugboard of a Machine.  The generic Machine.convert loops over
+ *  the slots and calls each Rotor's methods, which the JIT cannot unroll
+ *  or inline well.  Instead, EngineCompiler generates and compiles (with
+ *  the system Java compiler) a class for each "shape" of machine that
+ *  has a fixed set of fields for the settings and tables of the slots,
+ *  straight-line code for stepping and converting, and the alphabet size
+ *  as a constant.  Each moving rotor is represented by tables giving its
+ *  conversions at every setting, so that no modular arithmetic is
+ *  needed; the reflector and any fixed rotors next to it are combined
+ *  into one table; and the plugboard is folded into the tables of the
+ *  rightmost rotor.  Machines of the same shape share a compiled class.
+ *
+ *  If no compiler is available or compilation fails, the Engines
+ *  returned simply call Machine.convert.
+ *  @author Alessandro Buy
+ */
+final class EngineCompiler {
+
+    /** Not instantiable. */
+    private EngineCompiler() {
+    }
+
+    /** Return an Engine for M, which must have all its rotors in place,
+     *  starting at M's current settings. */
+    static Engine create(Machine M) {
+        Shape shape = new Shape(M);
+        Class<?> engineClass = compiled(shape);
+        if (engineClass != null) {
+            try {
+                return (Engine) engineClass
+                    .getDeclaredConstructor(int[][].class, int[][].class,
+                                            boolean[][].class, int[].class)
+                    .newInstance(shape.forward, shape.backward,
+                                 shape.notches, shape.settings);
+            } catch (ReflectiveOperationException excp) {
+                /* Fall through to the generic engine. */
+            }
+        }
+        return generic(M);
+    }
+
+    /** Return an Engine for M that uses M itself. */
+    static Engine generic(Machine M) {
+        return new Engine() {
+            @Override
+            public int convert(int c) {
+                return M.convert(c);
+            }
+
+            @Override
+            public void store(Machine ignored) {
+            }
+        };
+    }
+
+    /** Return true iff engines can be compiled. */
+    static boolean available() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /** Return the compiled engine class for SHAPE, compiling it if
+     *  necessary, or null if it cannot be compiled. */
+    private static Class<?> compiled(Shape shape) {
+        String key = shape.key();
+        Object result = CLASSES.computeIfAbsent(key, k -> {
+            Class<?> c = compile(shape);
+            return c == null ? FAILED : c;
+        });
+        return result == FAILED ? null : (Class<?>) result;
+    }
+
+    /** Compile and define an engine class for SHAPE, returning null if
+     *  that is not possible. */
+    private static Class<?> compile(Shape shape) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            return null;
+        }
+        String name = "CompiledEngine" + COUNT.getAndIncrement();
+        String source = source(shape, name);
+        Map<String, ByteArrayOutputStream> output =
+            new ConcurrentHashMap<>();
+        JavaFileManager files = new ForwardingJavaFileManager<>(
+            javac.getStandardFileManager(null, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(
+                Location location, String className, JavaFileObject.Kind kind,
+                FileObject sibling) {
+                return new SimpleJavaFileObject(
+                    URI.create("mem:///" + className.replace('.', '/')
+                               + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes =
+                            new ByteArrayOutputStream();
+                        output.put(className, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        JavaFileObject file = new SimpleJavaFileObject(
+            URI.create("string:///enigma/" + name + ".java"),
+            JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreErrors) {
+                return source;
+            }
+        };
+        List<String> options =
+            List.of("-classpath", System.getProperty("java.class.path"),
+                    "-proc:none", "-nowarn");
+        Boolean ok = javac.getTask(new StringWriter(), files, d -> { },
+                                   options, null, List.of(file)).call();
+        ByteArrayOutputStream bytes = output.get("enigma." + name);
+        if (!ok || bytes == null) {
+            return null;
+        }
+        try {
+            return MethodHandles.lookup().defineClass(bytes.toByteArray());
+        } catch (IllegalAccessException | LinkageError excp) {
+            return null;
+        }
+    }
+
+    /** Return the source of the engine class NAME for SHAPE. */
+    static String source(Shape shape, String name) {
+        int n = shape.slots, size = shape.size, last = shape.reflector;
+        StringBuilder src = new StringBuilder();
+        src.append("package enigma;\n\n")
+            .append("final class ").append(name)
+            .append(" implements Engine {\n\n")
+            .append("    ").append(name).append("(int[][] f, int[][] b, ")
+            .append("boolean[][] n, int[] s) {\n")
+            .append("        r = f[").append(last).append("];\n");
+        for (int k = last + 1; k < n; k += 1) {
+            src.append(String.format("        f%d = f[%d]; b%d = b[%d];%n",
+                                     k, k, k, k));
+            if (shape.moves[k]) {
+                src.append(String.format("        s%d = s[%d];%n", k, k));
+            }
+            if (shape.triggers[k - 1]) {
+                src.append(String.format("        n%d = n[%d];%n", k, k));
+            }
+        }
+        src.append("    }\n\n")
+            .append("    @Override\n")
+            .append("    public int convert(int c) {\n");
+        for (int i = 0; i < n; i += 1) {
+            if (shape.triggers[i]) {
+                src.append(String.format("        boolean t%d = n%d[s%d];%n",
+                                         i, i + 1, i + 1));
+            }
+        }
+        for (int k = last + 1; k < n; k += 1) {
+            if (!shape.moves[k]) {
+                continue;
+            }
+            StringBuilder cond = new StringBuilder();
+            if (k == n - 1) {
+                cond.append("true");
+            }
+            for (int i : new int[] { k - 1, k }) {
+                if (i >= 0 && shape.triggers[i]) {
+                    cond.append(cond.length() > 0 ? " || " : "")
+                        .append("t").append(i);
+                }
+            }
+            if (cond.length() == 0) {
+                continue;
+            }
+            String step = String.format("s%d = s%d == %d ? 0 : s%d + 1;",
+                                        k, k, size - 1, k);
+            if (k == n - 1) {
+                src.append("        ").append(step).append("\n");
+            } else {
+                src.append("        if (").append(cond).append(") {\n")
+                    .append("            ").append(step).append("\n")
+                    .append("        }\n");
+            }
+        }
+        for (int k = n - 1; k > last; k -= 1) {
+            src.append(String.format("        c = f%d[%s];%n", k,
+                                     index(shape, k, size)));
+        }
+        src.append("        c = r[c];\n");
+        for (int k = last + 1; k < n; k += 1) {
+            src.append(String.format("        c = b%d[%s];%n", k,
+                                     index(shape, k, size)));
+        }
+        src.append("        return c;\n")
+            .append("    }\n\n")
+            .append("    @Override\n")
+            .append("    public void store(Machine m) {\n");
+        for (int k = last + 1; k < n; k += 1) {
+            if (shape.moves[k]) {
+                src.append(String.format("        m.rotor(%d).set(s%d);%n",
+                                         k, k));
+            }
+        }
+        src.append("    }\n\n")
+            .append("    private final int[] r;\n");
+        for (int k = last + 1; k < n; k += 1) {
+            src.append(String.format("    private final int[] f%d, b%d;%n",
+                                     k, k));
+            if (shape.moves[k]) {
+                src.append(String.format("    private int s%d;%n", k));
+            }
+            if (shape.triggers[k - 1]) {
+                src.append(String.format("    private final boolean[] n%d;%n",
+                                         k));
+            }
+        }
+        src.append("}\n");
+        return src.toString();
+    }
+
+    /** Return the expression indexing the tables of slot K of SHAPE
+     *  with SIZE letters. */
+    private static String index(Shape shape, int k, int size) {
+        return shape.moves[k] ? String.format("s%d * %d + c", k, size) : "c";
+    }
+
+    /** The description of a Machine used to generate an engine class:
+     *  the properties that determine the generated code, and the tables
+     *  and settings passed to its constructor. */
+    static class Shape {
+
+        /** The shape of M. */
+        Shape(Machine M) {
+            slots = M.numRotors();
+            size = M.alphabet().size();
+            int first = Math.min(slots - M.numPawls(), slots - 1);
+            moves = new boolean[slots];
+            triggers = new boolean[slots];
+            settings = new int[slots];
+            for (int k = 0; k < slots; k += 1) {
+                Rotor rotor = M.rotor(k);
+                if (rotor == null) {
+                    throw error("machine has an empty slot");
+                }
+                moves[k] = rotor.rotates() && k >= first;
+                settings[k] = rotor.setting();
+            }
+            for (int i = first; i < slots - 1; i += 1) {
+                triggers[i] = M.rotor(i).rotates()
+                    && M.rotor(i + 1).rotates();
+            }
+            int last = 0;
+            while (last + 1 < slots && !moves[last + 1]) {
+                last += 1;
+            }
+            reflector = last;
+
+            forward = new int[slots][];
+            backward = new int[slots][];
+            notches = new boolean[slots][];
+            Permutation plug = M.plugboard();
+            if (plug == null) {
+                plug = new Permutation(M.alphabet());
+            }
+            Permutation reflect = M.rotor(0).currentPermutation();
+            for (int k = 1; k <= last; k += 1) {
+                Permutation p = M.rotor(k).currentPermutation();
+                reflect = p.compose(reflect).compose(p.inverse());
+            }
+            if (last == slots - 1) {
+                reflect = plug.compose(reflect).compose(plug.inverse());
+            }
+            forward[last] = reflect.toArray();
+            for (int k = last + 1; k < slots; k += 1) {
+                Rotor rotor = M.rotor(k);
+                int count = moves[k] ? size : 1;
+                forward[k] = new int[count * size];
+                backward[k] = new int[count * size];
+                for (int s = 0; s < count; s += 1) {
+                    Permutation p = moves[k]
+                        ? rotor.permutation().conjugate(s)
+                        : rotor.currentPermutation();
+                    Permutation q = p.inverse();
+                    if (k == slots - 1) {
+                        p = plug.compose(p);
+                        q = q.compose(plug.inverse());
+                    }
+                    System.arraycopy(p.toArray(), 0, forward[k], s * size,
+                                     size);
+                    System.arraycopy(q.toArray(), 0, backward[k], s * size,
+                                     size);
+                }
+                if (triggers[k - 1]) {
+                    notches[k] = new boolean[size];
+                    int setting = rotor.setting();
+                    for (int s = 0; s < size; s += 1) {
+                        rotor.set(s);
+                        notches[k][s] = rotor.atNotch();
+                    }
+                    rotor.set(setting);
+                }
+            }
+        }
+
+        /** Return a string that is the same for all machines whose
+         *  engines have the same code. */
+        String key() {
+            StringBuilder key = new StringBuilder();
+            key.append(size).append(':').append(reflector).append(':');
+            for (int k = 0; k < slots; k += 1) {
+                key.append(moves[k] ? 'M' : '-')
+                    .append(triggers[k] ? 'T' : '-');
+            }
+            return key.toString();
+        }
+
+        /** Number of slots and alphabet size. */
+        final int slots, size;
+        /** The last slot combined with the reflector. */
+        final int reflector;
+        /** For each slot, whether its rotor can move. */
+        final boolean[] moves;
+        /** For each slot I, whether its rotor is advanced (with the one
+         *  in slot I + 1) when the rotor in slot I + 1 is at a notch. */
+        final boolean[] triggers;
+        /** Forward tables by slot: for slots after the reflector, the
+         *  conversion of c at setting s is at index s * size + c (or just
+         *  c if the rotor cannot move); for the reflector slot, the
+         *  combined reflection. */
+        final int[][] forward;
+        /** Backward tables, indexed as for forward. */
+        final int[][] backward;
+        /** For slots whose notches matter, which settings are at a
+         *  notch. */
+        final boolean[][] notches;
+        /** The initial setting of each slot. */
+        final int[] settings;
+    }
+
+    /** Marks a shape that could not be compiled. */
+    private static final Object FAILED = new Object();
+
+    /** Number of classes compiled, used to name them. */
+    private static final AtomicInteger COUNT = new AtomicInteger();
+
+    /** Compiled classes (or FAILED) by Shape.key(). */
+    private static final Map<String, Object> CLASSES =
+        new ConcurrentHashMap<>();
+
+}
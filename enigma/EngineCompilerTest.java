@@ -0,0 +1,82 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+/** The suite of all JUnit tests for the EngineCompiler class.
+ *  @author Alessandro Buy
+ */
+public class EngineCompilerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Check that an engine made from the naval machine set up with
+     *  SETTINGS converts like the machine itself. */
+    private void checkEngine(String settings) {
+        Machine M = TestUtils.navalMachine();
+        Main.setUp(M, settings);
+        Machine copy = M.copy();
+        Engine engine = EngineCompiler.create(copy);
+        Random random = new Random(settings.hashCode());
+        for (int i = 0; i < 20000; i += 1) {
+            int c = random.nextInt(26);
+            assertEquals(settings, M.convert(c), engine.convert(c));
+        }
+        engine.store(copy);
+        assertEquals(M.rotorSettings(), copy.rotorSettings());
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testCompiled() {
+        if (!EngineCompiler.available()) {
+            return;
+        }
+        Machine M = TestUtils.navalMachine();
+        Main.setUp(M, "B Beta III IV I AXLE");
+        assertNotEquals(EngineCompiler.generic(M).getClass(),
+                        EngineCompiler.create(M).getClass());
+    }
+
+    @Test
+    public void testConvert() {
+        checkEngine("B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)");
+        checkEngine("B Beta I II III QDVZ");
+        checkEngine("B V Beta IV I APPL (AZ)");
+        checkEngine("B III IV Beta II ZZZZ");
+    }
+
+    @Test
+    public void testGeneric() {
+        Machine M = TestUtils.navalMachine();
+        Main.setUp(M, "B Beta III IV I AXLE (HQ) (EX)");
+        Machine copy = M.copy();
+        Engine engine = EngineCompiler.generic(copy);
+        for (int c = 0; c < 26; c += 1) {
+            assertEquals(M.convert(c), engine.convert(c));
+        }
+        assertEquals(M.rotorSettings(), copy.rotorSettings());
+    }
+
+    @Test
+    public void testSource() {
+        Machine M = TestUtils.navalMachine();
+        Main.setUp(M, "B Beta III IV I AXLE");
+        String source =
+            EngineCompiler.source(new EngineCompiler.Shape(M), "Test");
+        assertTrue(source.contains("final class Test implements Engine"));
+        assertTrue(source.contains("c = f4[s4 * 26 + c];"));
+        assertTrue(source.contains("c = r[c];"));
+        assertFalse(source.contains("f1"));
+    }
+
+}
@@ -0,0 +1,330 @@
+package enigma;
+
+import java.util.function.LongSupplier;
+
+import static enigma.EnigmaException.*;
+
+/** A chooser of the kind of Engine with which Main converts each message.
+ *  No kind is best for every input: the generic engine (Machine itself)
+ *  costs nothing to set up, but its cost per character grows with the
+ *  number of rotors; a CompositeEngine must first build tables in
+ *  proportion to the number of rotors and the alphabet size; and a
+ *  compiled engine (see EngineCompiler) is the fastest per character,
+ *  but builds a table for every setting of every moving rotor, and must
+ *  first be compiled for the shape of the machine.
+ *
+ *  The selector therefore estimates, for each kind, the time to set up an
+ *  engine and the time per character, and gives each message the kind for
+ *  which setup plus the expected length of the message times the time per
+ *  character is least, the expected length being a moving average of the
+ *  lengths of the messages so far.  Each estimate is the least of the last
+ *  WINDOW times measured, so that a pause (such as for garbage collection)
+ *  during one message does not count, and the times measured while the
+ *  code was still cold are soon forgotten.  There is no separate
+ *  warm-up, as times measured before the JIT compiler has compiled the
+ *  engines would be mostly noise.  Instead, the selector starts from the
+ *  composite kind, which it uses until it has timed WINDOW messages with
+ *  it (as only every SAMPLE-th message is timed, that is about WINDOW
+ *  times SAMPLE messages), then tries every other kind on WINDOW messages
+ *  in a row, and only then compares the kinds.  So that the
+ *  kind chosen does not flip to and fro with noise in the measurements
+ *  (which would also keep the JIT compiler from inlining the engines'
+ *  methods), the selector moves to another kind only if it is clearly
+ *  faster; and, so that no estimate goes stale, every EXPLORE-th message
+ *  uses the kind used least recently among those that are not far slower.
+ *  To keep the cost per message down, only every SAMPLE-th message is
+ *  timed, apart from those on which kinds are tried or explored.
+ *  Compiled engines are considered only when at least COMPILE_PAYBACK
+ *  characters remain to be converted, if the length of the input is known,
+ *  and otherwise once COMPILE_THRESHOLD have been converted, as compiling
+ *  costs more than short inputs could repay.
+ *
+ *  The estimates for each kind once it has been tried are recorded as
+ *  an EngineCalibration event, and the kind chosen for each message in
+ *  its MessageConversion event.
+ *  @author Alessandro Buy
+ */
+final class EngineSelector {
+
+    /** Kinds of engine. */
+    static final int GENERIC = 0, COMPOSITE = 1, COMPILED = 2;
+
+    /** Names of the kinds of engine, as for --engine. */
+    static final String[] NAMES = { "generic", "composite", "compiled" };
+
+    /** A selector that always chooses KIND, or chooses as described
+     *  above if KIND is -1. */
+    EngineSelector(int kind) {
+        this(kind, System::nanoTime);
+    }
+
+    /** A selector as for EngineSelector(KIND) that measures times, in
+     *  nanoseconds, with CLOCK. */
+    EngineSelector(int kind, LongSupplier clock) {
+        _fixed = kind;
+        _clock = clock;
+        _setup = new Estimate[NAMES.length];
+        _perChar = new Estimate[NAMES.length];
+        for (int k = 0; k < NAMES.length; k += 1) {
+            _setup[k] = new Estimate();
+            _perChar[k] = new Estimate();
+        }
+        _lastUsed = new long[NAMES.length];
+        _choice = kind < 0 ? COMPOSITE : kind;
+        _best = _choice;
+    }
+
+    /** Return the kind of engine named NAME, or -1 if NAME is "auto". */
+    static int kind(String name) {
+        if (name.equals("auto")) {
+            return -1;
+        }
+        for (int k = 0; k < NAMES.length; k += 1) {
+            if (NAMES[k].equals(name)) {
+                return k;
+            }
+        }
+        throw error("unknown engine: %s", name);
+    }
+
+    /** Return an engine for M, which is set up for a new message, of the
+     *  kind chosen for that message.  A composite engine is reused for
+     *  later messages (see CompositeEngine.reset), so the engine returned
+     *  must not be used once this is called again. */
+    Engine engine(Machine M) {
+        if (_fixed >= 0) {
+            return make(_fixed, M);
+        }
+        _messages += 1;
+        _timing = _messages % SAMPLE == 0 || _choice != _best;
+        if (!_timing) {
+            return make(_best, M);
+        }
+        if (_kinds == COMPILED && !_compileChecked
+            && (_expected > 0 ? _expected - _total >= COMPILE_PAYBACK
+                : _total >= COMPILE_THRESHOLD)) {
+            _compileChecked = true;
+            if (EngineCompiler.available()) {
+                /* Compile now, so that the time to compile is not
+                 * taken for the time to set up a compiled engine. */
+                make(COMPILED, M);
+                _kinds = NAMES.length;
+            }
+        }
+        _choice = choose();
+        _lastUsed[_choice] = _messages;
+        long start = _clock.getAsLong();
+        Engine result = make(_choice, M);
+        _started = _clock.getAsLong();
+        _setup[_choice].add(_started - start);
+        return result;
+    }
+
+    /** Return the kind of engine for the current message, updating
+     *  _best. */
+    private int choose() {
+        if (_perChar[_best].count < WINDOW) {
+            return _best;
+        }
+        for (int k = 0; k < _kinds; k += 1) {
+            if (_perChar[k].count < WINDOW) {
+                return k;
+            }
+        }
+        for (int k = 0; k < _kinds; k += 1) {
+            if (cost(k) < cost(_best) * (1 - MARGIN)) {
+                _best = k;
+            }
+        }
+        double least = cost(_best);
+        for (int k = 0; k < _kinds; k += 1) {
+            least = Math.min(least, cost(k));
+        }
+        int choice = _best;
+        if (_messages % EXPLORE == 0) {
+            for (int k = 0; k < _kinds; k += 1) {
+                if (_lastUsed[k] < _lastUsed[choice]
+                    && cost(k) < least * EXPLORE_RANGE) {
+                    choice = k;
+                }
+            }
+        }
+        return choice;
+    }
+
+    /** Record that the message converted by the engine last returned,
+     *  which ended just now, had LENGTH characters. */
+    void finish(long length) {
+        if (_fixed >= 0) {
+            return;
+        }
+        _total += length;
+        _length += (length - _length) / SMOOTHING;
+        if (_timing && length > 0) {
+            _perChar[_choice].add(
+                (double) (_clock.getAsLong() - _started) / length);
+            if (_perChar[_choice].count == WINDOW) {
+                calibrated(_choice);
+            }
+        }
+        _timing = false;
+    }
+
+    /** Record that the input is expected to hold about CHARS characters
+     *  (for example, because that is the size of the input file). */
+    void expect(long chars) {
+        _expected = chars;
+    }
+
+    /** Return the name of the kind of engine last chosen. */
+    String choice() {
+        return NAMES[_choice];
+    }
+
+    /** Return the estimated time to set up an engine of kind KIND and
+     *  convert a message of the expected length with it. */
+    private double cost(int kind) {
+        return _setup[kind].value + _length * _perChar[kind].value;
+    }
+
+    /** Return an engine of kind KIND for M. */
+    private Engine make(int kind, Machine M) {
+        switch (kind) {
+        case GENERIC:
+            return EngineCompiler.generic(M);
+        case COMPOSITE:
+            if (_composite == null || !_composite.reset(M)) {
+                _composite = new CompositeEngine(M);
+            }
+            return _composite;
+        default:
+            return EngineCompiler.create(M);
+        }
+    }
+
+    /** Record the estimates for kind KIND, which has just been tried on
+     *  WINDOW messages. */
+    private void calibrated(int kind) {
+        Events.EngineCalibration event = new Events.EngineCalibration();
+        if (event.shouldCommit()) {
+            event.engine = NAMES[kind];
+            event.setup = (long) _setup[kind].value;
+            event.perChar = _perChar[kind].value;
+            event.commit();
+        }
+    }
+
+    /** An estimate of a time, in nanoseconds: the least of the last
+     *  WINDOW measurements, or 0 if there are none. */
+    private static class Estimate {
+
+        /** Add the measurement SAMPLE. */
+        void add(double sample) {
+            _recent[(int) (count % WINDOW)] = sample;
+            count += 1;
+            value = Double.MAX_VALUE;
+            for (int i = 0; i < Math.min(count, WINDOW); i += 1) {
+                value = Math.min(value, _recent[i]);
+            }
+        }
+
+        /** The estimate. */
+        double value;
+
+        /** Number of measurements. */
+        long count;
+
+        /** The last WINDOW measurements, in a circular buffer. */
+        private final double[] _recent = new double[WINDOW];
+    }
+
+    /** Number of measurements of which an estimate is the least, and
+     *  number of (non-empty) messages on which each kind is first
+     *  tried. */
+    static final int WINDOW = 16;
+
+    /** Number of characters converted before compiled engines are
+     *  considered, when the length of the input is not known: about as
+     *  many as the other engines convert in the time it takes to compile
+     *  one, so that compiling at most doubles the time of an input that
+     *  ends just afterwards. */
+    static final long COMPILE_THRESHOLD = 1 << 25;
+
+    /** Least number of characters that compiled engines must convert to
+     *  repay compiling. */
+    static final long COMPILE_PAYBACK = 1 << 26;
+
+    /** Only every SAMPLE-th message (and those on which a kind of engine
+     *  is tried or explored) is timed, and only for those is the choice
+     *  of kind reconsidered; the others use the best kind. */
+    static final int SAMPLE = 8;
+
+    /** Every EXPLORE-th message uses the kind of engine used least
+     *  recently, among those whose estimated cost is less than
+     *  EXPLORE_RANGE times that of the best. */
+    static final int EXPLORE = 64;
+
+    /** See EXPLORE. */
+    private static final double EXPLORE_RANGE = 3;
+
+    /** A kind of engine is preferred to the current best only if it is
+     *  estimated to cost less by this fraction. */
+    private static final double MARGIN = 0.2;
+
+    /** Number of messages over which the expected length is averaged. */
+    private static final double SMOOTHING = 8;
+
+    /** Expected length of a message before any has been converted. */
+    private static final double DEFAULT_LENGTH = 1000;
+
+    /** The kind always chosen, or -1. */
+    private final int _fixed;
+
+    /** The clock with which times are measured. */
+    private final LongSupplier _clock;
+
+    /** For each kind, the estimated time to set up an engine. */
+    private final Estimate[] _setup;
+
+    /** For each kind, the estimated time per character. */
+    private final Estimate[] _perChar;
+
+    /** The composite engine last made, which is reused when possible. */
+    private CompositeEngine _composite;
+
+    /** For each kind, the number of the message that last used it. */
+    private final long[] _lastUsed;
+
+    /** The kind last chosen. */
+    private int _choice;
+
+    /** The kind expected to be fastest. */
+    private int _best;
+
+    /** Number of kinds considered: GENERIC up to COMPILED, or all, once
+     *  compiled engines are considered. */
+    private int _kinds = COMPILED;
+
+    /** True iff it has been checked whether engines can be compiled. */
+    private boolean _compileChecked;
+
+    /** Number of messages. */
+    private long _messages;
+
+    /** Number of characters converted. */
+    private long _total;
+
+    /** Number of characters the input is expected to hold, if that is
+     *  known; otherwise 0. */
+    private long _expected;
+
+    /** Expected length of a message. */
+    private double _length = DEFAULT_LENGTH;
+
+    /** True iff the current message is timed. */
+    private boolean _timing;
+
+    /** Time at which the current message's engine was made. */
+    private long _started;
+
+}
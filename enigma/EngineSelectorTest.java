@@ -0,0 +1,140 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/** The suite of all JUnit tests for the EngineSelector class.
+ *  @author Alessandro Buy
+ */
+public class EngineSelectorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Settings used for the naval machine. */
+    static final String SETTINGS = "B Beta III IV I AXLE (HQ) (EX)";
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testKind() {
+        assertEquals(-1, EngineSelector.kind("auto"));
+        assertEquals(EngineSelector.GENERIC, EngineSelector.kind("generic"));
+        assertEquals(EngineSelector.COMPOSITE,
+                     EngineSelector.kind("composite"));
+        assertEquals(EngineSelector.COMPILED, EngineSelector.kind("compiled"));
+        try {
+            EngineSelector.kind("fastest");
+            fail("unknown engine accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testFixed() {
+        String msg = randomMessage(500, new Random(1));
+        for (int kind = 0; kind < EngineSelector.NAMES.length; kind += 1) {
+            EngineSelector selector = new EngineSelector(kind);
+            Machine M = navalMachine(SETTINGS);
+            assertEquals(EngineSelector.NAMES[kind], expected(SETTINGS, msg),
+                         convert(selector.engine(M), msg));
+            assertEquals(EngineSelector.NAMES[kind], selector.choice());
+        }
+        Machine M = navalMachine(SETTINGS);
+        assertTrue(new EngineSelector(EngineSelector.COMPOSITE).engine(M)
+                   instanceof CompositeEngine);
+    }
+
+    @Test
+    public void testAuto() {
+        Random random = new Random(2);
+        EngineSelector selector = new EngineSelector(-1);
+        Set<String> chosen = new HashSet<>();
+        for (int n = 0; n < 4 * EngineSelector.EXPLORE; n += 1) {
+            String msg = randomMessage(random.nextInt(2000), random);
+            Machine M = navalMachine(SETTINGS);
+            Engine engine = selector.engine(M);
+            chosen.add(selector.choice());
+            assertEquals(expected(SETTINGS, msg), convert(engine, msg));
+            selector.finish(msg.length());
+        }
+        assertTrue(chosen.contains("generic"));
+        assertTrue(chosen.contains("composite"));
+    }
+
+    /** Return the number of the last 2 * EXPLORE of MESSAGES messages
+     *  of LENGTH characters for which an auto selector chooses KIND, if
+     *  each kind of engine K takes SETUP[K] + LENGTH * PERCHAR[K]
+     *  nanoseconds for a message, as measured by a clock that advances
+     *  only when a message is converted. */
+    static int chosen(long[] setup, long[] perChar, int messages,
+                      int length, int kind) {
+        long[] now = { 0 };
+        EngineSelector selector = new EngineSelector(-1, () -> now[0]);
+        int count = 0;
+        for (int n = 0; n < messages; n += 1) {
+            selector.engine(navalMachine(SETTINGS));
+            int k = EngineSelector.kind(selector.choice());
+            now[0] += setup[k] + length * perChar[k];
+            selector.finish(length);
+            if (n >= messages - 2 * EngineSelector.EXPLORE && k == kind) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testAutoChoosesFaster() {
+        int messages = 6 * EngineSelector.EXPLORE * EngineSelector.SAMPLE,
+            last = 2 * EngineSelector.EXPLORE;
+        long[] setup = { 0, 20000 }, perChar = { 100, 10 };
+        assertEquals("composite for long messages", last,
+                     chosen(setup, perChar, messages, 2000,
+                            EngineSelector.COMPOSITE));
+        assertEquals("generic for one-character messages", last,
+                     chosen(setup, perChar, messages, 1,
+                            EngineSelector.GENERIC));
+        perChar[EngineSelector.GENERIC] = 18;
+        assertEquals("composite unless generic is clearly faster, apart "
+                     + "from messages on which generic is explored",
+                     last - last / EngineSelector.EXPLORE,
+                     chosen(setup, perChar, messages, 2000,
+                            EngineSelector.COMPOSITE));
+    }
+
+    @Test
+    public void testMain() {
+        Random random = new Random(3);
+        StringBuilder input = new StringBuilder(), output = new StringBuilder();
+        for (int n = 0; n < 3 * EngineSelector.EXPLORE; n += 1) {
+            String msg = randomMessage(1 + random.nextInt(300), random);
+            input.append("* ").append(SETTINGS).append('\n')
+                .append(msg).append('\n');
+            StringBuilder line = new StringBuilder();
+            Main.appendMessageLine(line, expected(SETTINGS, msg));
+            output.append(line);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new Main(new LineReader(
+                     new ByteArrayInputStream(input.toString().getBytes())),
+                 new PrintStream(bytes))
+            .processMessages(navalMachine());
+        assertEquals(output.toString(), bytes.toString());
+    }
+
+}
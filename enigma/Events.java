@@ -0,0 +1,114 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/** JDK Flight Recorder events for the principal phases of Main: reading
+ *  the configuration, setting up the machine for each message, measuring
+ *  the engines that may convert messages, converting each message, and
+ *  flushing output.  Conversion is recorded once per message rather than
+ *  once per line or character, so that the events cost next to nothing
+ *  whether or not a recording is running.  To
+ *  record them, run with -XX:StartFlightRecording or start a recording
+ *  in the running process with "jcmd PID JFR.start".
+ *  @author Alessandro Buy
+ */
+final class Events {
+
+    /** Not instantiable. */
+    private Events() {
+    }
+
+    /** Reading and checking a configuration file. */
+    @Name("enigma.ConfigLoad")
+    @Label("Configuration Load")
+    @Category("Enigma")
+    @StackTrace(false)
+    static class ConfigLoad extends Event {
+        /** Number of rotors described. */
+        @Label("Rotors")
+        int rotors;
+    }
+
+    /** Setting up the machine from a settings line. */
+    @Name("enigma.MessageSetup")
+    @Label("Message Setup")
+    @Category("Enigma")
+    @StackTrace(false)
+    static class MessageSetup extends Event {
+        /** The settings line, without its '*'. */
+        @Label("Settings")
+        String settings;
+    }
+
+    /** Inserting rotors into the machine's slots. */
+    @Name("enigma.InsertRotors")
+    @Label("Insert Rotors")
+    @Category("Enigma")
+    @StackTrace(false)
+    static class InsertRotors extends Event {
+        /** Number of slots filled. */
+        @Label("Slots")
+        int slots;
+    }
+
+    /** Converting and printing all the lines of one message, from the
+     *  line after its settings line up to the next settings line or the
+     *  end of input. */
+    @Name("enigma.MessageConversion")
+    @Label("Message Conversion")
+    @Description("Conversion of the lines following one settings line")
+    @Category("Enigma")
+    @StackTrace(false)
+    static class MessageConversion extends Event {
+        /** The settings line, without its '*'. */
+        @Label("Settings")
+        String settings;
+        /** Number of lines converted. */
+        @Label("Lines")
+        long lines;
+        /** Number of characters converted. */
+        @Label("Length")
+        long length;
+        /** The kind of engine that converted them (see
+         *  EngineSelector). */
+        @Label("Engine")
+        String engine;
+    }
+
+    /** How fast a kind of engine was found to be, once EngineSelector
+     *  has tried it on enough messages to compare it with the others. */
+    @Name("enigma.EngineCalibration")
+    @Label("Engine Calibration")
+    @Category("Enigma")
+    @StackTrace(false)
+    static class EngineCalibration extends Event {
+        /** The kind of engine. */
+        @Label("Engine")
+        String engine;
+        /** Time to set up an engine, in nanoseconds. */
+        @Label("Setup")
+        @Timespan(Timespan.NANOSECONDS)
+        long setup;
+        /** Time per character, in nanoseconds. */
+        @Label("Time per Character")
+        double perChar;
+    }
+
+    /** Flushing output, and forcing it to disk if for a checkpoint. */
+    @Name("enigma.OutputFlush")
+    @Label("Output Flush")
+    @Category("Enigma")
+    @StackTrace(false)
+    static class OutputFlush extends Event {
+        /** True iff the output was also forced to disk. */
+        @Label("Synced")
+        boolean synced;
+    }
+
+}
@@ -0,0 +1,133 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/** The suite of all JUnit tests for the flight-recorder Events.
+ *  @author Alessandro Buy
+ */
+public class EventsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** The configuration file used with command-line arguments. */
+    static final String CONFIG = "../testing/correct/default.conf";
+
+    /** Return the events named NAME recorded while Main processes INPUT
+     *  with the naval machine. */
+    private List<RecordedEvent> record(String name, String input)
+        throws IOException {
+        return record(name, () -> {
+                PrintStream out =
+                    new PrintStream(new ByteArrayOutputStream());
+                new Main(new LineReader(
+                             new ByteArrayInputStream(input.getBytes())),
+                         out).processMessages(TestUtils.navalMachine());
+            });
+    }
+
+    /** Return the events named NAME recorded while ACTION runs. */
+    private List<RecordedEvent> record(String name, Runnable action)
+        throws IOException {
+        Path file = Files.createTempFile("enigma", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(name).withThreshold(Duration.ZERO);
+            recording.start();
+            action.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().equals(name))
+                .collect(Collectors.toList());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testMessageConversion() throws IOException {
+        List<RecordedEvent> events =
+            record("enigma.MessageConversion",
+                   "* B Beta III IV I AXLE (HQ) (EX)\n"
+                   + "FROM HIS SHOULDER\nHIAWATHA\n"
+                   + "* B Beta I II III AAAA\nHELLO\n");
+        assertEquals(2, events.size());
+        assertEquals(" B Beta III IV I AXLE (HQ) (EX)",
+                     events.get(0).getString("settings"));
+        assertEquals(2, events.get(0).getLong("lines"));
+        assertEquals(23, events.get(0).getLong("length"));
+        assertNotNull(events.get(0).getString("engine"));
+        assertEquals(" B Beta I II III AAAA",
+                     events.get(1).getString("settings"));
+        assertEquals(1, events.get(1).getLong("lines"));
+        assertEquals(5, events.get(1).getLong("length"));
+    }
+
+    @Test
+    public void testCachedConversion() throws IOException {
+        String hello = "* B Beta I II III AAAA\nHELLO\n";
+        StringBuilder input = new StringBuilder(hello);
+        input.append("* B Beta III IV I AXLE\n");
+        int lines = Main.MAX_CACHED_MESSAGE / 1000 + 2;
+        for (int i = 0; i < lines; i += 1) {
+            input.append(TestUtils.randomMessage(1000, new Random(i)))
+                .append('\n');
+        }
+        input.append(hello);
+        Path in = Files.createTempFile("enigma", ".inp"),
+            out = Files.createTempFile("enigma", ".out");
+        try {
+            Files.write(in, input.toString().getBytes());
+            List<RecordedEvent> events =
+                record("enigma.MessageConversion", () ->
+                       new Main(new String[] {
+                               "--cache=10000000", CONFIG, in.toString(),
+                               out.toString()
+                           }).process());
+            assertEquals(2, events.size());
+            assertEquals(" B Beta I II III AAAA",
+                         events.get(0).getString("settings"));
+            assertEquals(5, events.get(0).getLong("length"));
+            assertEquals(" B Beta III IV I AXLE",
+                         events.get(1).getString("settings"));
+            assertEquals(lines, events.get(1).getLong("lines"));
+            assertEquals(1000L * lines, events.get(1).getLong("length"));
+        } finally {
+            Files.delete(in);
+            Files.delete(out);
+        }
+    }
+
+    @Test
+    public void testSetupAndFlush() throws IOException {
+        String input = "* B Beta I II III AAAA\nHELLO\n"
+            + "* B Beta I II III AAAA\nWORLD\n";
+        assertEquals(2, record("enigma.MessageSetup", input).size());
+        assertEquals(2, record("enigma.InsertRotors", input).size());
+        assertEquals(1, record("enigma.OutputFlush", input).size());
+    }
+
+}
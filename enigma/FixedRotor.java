@@ -13,6 +13,18 @@ class FixedRotor extends Rotor {
         super(name, perm);
     }
 
+    @Override
+    Rotor copy() {
+        Rotor result = new FixedRotor(name(), permutation());
+        result.set(setting());
+        return result;
+    }
+
+    @Override
+    Permutation currentPermutation() {
+        return permutation().conjugate(setting());
+    }
+
     @Override
     int convertForward(int p) {
         int input = (setting() + p) % alphabet().size();
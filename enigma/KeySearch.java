@@ -0,0 +1,636 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.EnigmaException.*;
+
+/** A search of the KeySpace of a configuration for the keys (rotor
+ *  orders and starting positions) under which a ciphertext, decrypted
+ *  without plugboard, scores best as plaintext according to an
+ *  NgramScorer, divided among worker processes.
+ *
+ *  A coordinator divides the key space into units of consecutive keys
+ *  and listens on a socket (by default on the loopback interface) for
+ *  workers, which it may also start itself as local processes.  On
+ *  connecting, a worker is sent the configuration, ciphertext, scoring
+ *  tables and the number K of results wanted, and then one unit at a
+ *  time; for each unit it reports its K best keys, and the coordinator
+ *  merges these into the overall K best.  While working, a worker sends
+ *  a heartbeat every HEARTBEAT_MILLIS; a worker that is silent for
+ *  DEAD_MILLIS, or whose connection fails, is dropped, and its unit
+ *  goes back to the front of the queue.  Once the queue is empty, idle
+ *  workers take over copies of the longest-running unfinished units (up
+ *  to MAX_COPIES workers per unit), so that a slow worker does not hold
+ *  up the end of the search; the first report for a unit is used and
+ *  the others are ignored.
+ *
+ *  Messages are sent with DataOutputStreams.  To a worker: the job
+ *  (MAGIC, configuration text, ciphertext as ints, K and tables), then
+ *  for each unit UNIT, its number, first key and last key (exclusive),
+ *  and finally QUIT.  From a worker: HEARTBEAT, or RESULT, a unit number, a
+ *  count and that many keys and scores.
+ *  @author Alessandro Buy
+ */
+public final class KeySearch {
+
+    /** Search for keys or act as a worker, as specified by ARGS:
+     *      search [options] CONFIG CIPHER SAMPLE
+     *  searches the keys of configuration file CONFIG for decryptions of
+     *  the ciphertext in file CIPHER, scored using SAMPLE (a sample text
+     *  or n-gram table file, as for PlugboardSolver), and prints the best
+     *  keys and their scores, best first.  The options are
+     *    --workers=N  Start N local worker processes (default: one per
+     *                 processor; 0 to rely on workers started by hand).
+     *    --top=K      Report the K best keys (default 10).
+     *    --unit=N     Give workers N keys at a time (default 65536).
+     *    --port=P     Listen on port P (default: any free port, which is
+     *                 printed on the standard error).
+     *    --remote     Accept workers from other hosts.
+     *      work HOST PORT
+     *  works for the coordinator at HOST and PORT until told to stop.
+     *  Exits normally if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length > 0 && args[0].equals("work")) {
+                if (args.length != 3) {
+                    throw error("usage: work HOST PORT");
+                }
+                work(args[1], Integer.parseInt(args[2]));
+                return;
+            }
+            if (args.length == 0 || !args[0].equals("search")) {
+                throw error("usage: search [options] CONFIG CIPHER SAMPLE "
+                            + "or work HOST PORT");
+            }
+            KeySearch search = new KeySearch();
+            int k;
+            for (k = 1; k < args.length && args[k].startsWith("--");
+                 k += 1) {
+                search.setOption(args[k]);
+            }
+            if (args.length - k != 3) {
+                throw error("need CONFIG, CIPHER and SAMPLE");
+            }
+            String config;
+            try {
+                config = new String(Files.readAllBytes(Paths.get(args[k])),
+                                    StandardCharsets.UTF_8);
+            } catch (IOException excp) {
+                throw error("could not read %s", args[k]);
+            }
+            Alphabet alpha = Main.parseConfig(config).alphabet();
+            search.setJob(config, Main.readLetters(args[k + 1], alpha),
+                          NgramScorer.forSample(args[k + 2], alpha));
+            KeySpace keys = new KeySpace(Main.parseConfig(config));
+            for (Result result : search.run()) {
+                System.out.printf("%.2f %s%n", result.score,
+                                  keys.settings(result.key));
+            }
+            return;
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad number: %s%n", excp.getMessage());
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A search with default options and no job. */
+    KeySearch() {
+        _workers = Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Record the command-line option OPTION (see comment on main). */
+    private void setOption(String option) {
+        String value = option.substring(option.indexOf('=') + 1);
+        if (option.equals("--remote")) {
+            _remote = true;
+        } else if (option.startsWith("--workers=")) {
+            _workers = Integer.parseInt(value);
+        } else if (option.startsWith("--top=")) {
+            _top = Integer.parseInt(value);
+        } else if (option.startsWith("--unit=")) {
+            _unit = Long.parseLong(value);
+        } else if (option.startsWith("--port=")) {
+            _port = Integer.parseInt(value);
+        } else {
+            throw error("unknown option: %s", option);
+        }
+        if (_workers < 0 || _top < 1 || _unit < 1 || _port < 0) {
+            throw error("bad value for option %s", option);
+        }
+    }
+
+    /** Set the number of local worker processes to start to WORKERS, the
+     *  number of keys per unit to UNIT and the number of results to
+     *  TOP. */
+    void setSizes(int workers, long unit, int top) {
+        _workers = workers;
+        _unit = unit;
+        _top = top;
+    }
+
+    /** Search for decryptions of CIPHER (letter indices) with the machine
+     *  configured by CONFIG (the text of a configuration file), scored by
+     *  SCORER. */
+    void setJob(String config, int[] cipher, NgramScorer scorer) {
+        _config = config;
+        _cipher = cipher;
+        _scorer = scorer;
+        _keys = new KeySpace(Main.parseConfig(config));
+        long units = (_keys.size() + _unit - 1) / _unit;
+        if (units > Integer.MAX_VALUE) {
+            throw error("key space too large for units of %d keys", _unit);
+        }
+        for (int i = 0; i < units; i += 1) {
+            _pending.add(new Unit(i, i * _unit,
+                                  Math.min(_keys.size(), (i + 1) * _unit)));
+        }
+        _remaining = (int) units;
+    }
+
+    /** Start listening for workers, returning the port used. */
+    int listen() {
+        try {
+            _server = new ServerSocket();
+            InetAddress address =
+                _remote ? null : InetAddress.getLoopbackAddress();
+            _server.bind(new InetSocketAddress(address, _port));
+            return _server.getLocalPort();
+        } catch (IOException excp) {
+            throw error("could not listen on port %d", _port);
+        }
+    }
+
+    /** Run the search, listening first if necessary, and return its best
+     *  results, best first. */
+    List<Result> run() {
+        if (_server == null) {
+            System.err.printf("Listening on port %d%n", listen());
+        }
+        Thread acceptor = new Thread(this::accept, "enigma-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        List<Process> processes = new ArrayList<>();
+        try {
+            for (int i = 0; i < _workers; i += 1) {
+                processes.add(startWorker(_server.getLocalPort()));
+            }
+            synchronized (this) {
+                while (_remaining > 0) {
+                    if (!processes.isEmpty() && _connections == 0
+                        && processes.stream().noneMatch(Process::isAlive)) {
+                        throw error("all workers failed");
+                    }
+                    try {
+                        wait(DEAD_MILLIS);
+                    } catch (InterruptedException excp) {
+                        throw error("search interrupted");
+                    }
+                }
+            }
+        } finally {
+            try {
+                _server.close();
+            } catch (IOException excp) {
+                /* Ignore. */
+            }
+            for (Process process : processes) {
+                try {
+                    if (!process.waitFor(DEAD_MILLIS,
+                                         TimeUnit.MILLISECONDS)) {
+                        process.destroy();
+                    }
+                } catch (InterruptedException excp) {
+                    process.destroy();
+                }
+            }
+        }
+        List<Result> results = new ArrayList<>(_best);
+        results.sort(BEST_FIRST);
+        return results;
+    }
+
+    /** Start and return a local worker process that connects to PORT. */
+    private Process startWorker(int port) {
+        String java = Paths.get(System.getProperty("java.home"), "bin",
+                                "java").toString();
+        try {
+            return new ProcessBuilder(java, "-cp",
+                                      System.getProperty("java.class.path"),
+                                      KeySearch.class.getName(), "work",
+                                      "127.0.0.1", Integer.toString(port))
+                .inheritIO().start();
+        } catch (IOException excp) {
+            throw error("could not start worker: %s", excp.getMessage());
+        }
+    }
+
+    /** Accept workers until the server is closed, serving each in a
+     *  thread of its own. */
+    private void accept() {
+        while (true) {
+            Socket socket;
+            try {
+                socket = _server.accept();
+            } catch (IOException excp) {
+                return;
+            }
+            Thread server = new Thread(() -> serve(socket), "enigma-serve");
+            server.setDaemon(true);
+            server.start();
+        }
+    }
+
+    /** Send units to the worker connected to SOCKET and collect their
+     *  results, until there are none left or the worker fails. */
+    private void serve(Socket socket) {
+        synchronized (this) {
+            _connections += 1;
+        }
+        Unit unit = null;
+        try (socket) {
+            socket.setSoTimeout(DEAD_MILLIS);
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            sendJob(out);
+            while ((unit = take()) != null) {
+                out.writeByte(UNIT);
+                out.writeInt(unit.id);
+                out.writeLong(unit.first);
+                out.writeLong(unit.last);
+                out.flush();
+                while (true) {
+                    byte tag = in.readByte();
+                    if (tag == RESULT) {
+                        break;
+                    } else if (tag != HEARTBEAT) {
+                        throw new IOException("bad message from worker");
+                    }
+                }
+                if (in.readInt() != unit.id) {
+                    throw new IOException("result for wrong unit");
+                }
+                Result[] results = new Result[in.readInt()];
+                for (int i = 0; i < results.length; i += 1) {
+                    results[i] = new Result(in.readLong(), in.readDouble());
+                }
+                finish(unit, results);
+                unit = null;
+            }
+            out.writeByte(QUIT);
+            out.flush();
+        } catch (EOFException excp) {
+            System.err.printf("Worker %s disconnected%n",
+                              socket.getRemoteSocketAddress());
+        } catch (SocketTimeoutException excp) {
+            System.err.printf("Worker %s timed out%n",
+                              socket.getRemoteSocketAddress());
+        } catch (IOException excp) {
+            System.err.printf("Lost worker %s: %s%n",
+                              socket.getRemoteSocketAddress(),
+                              excp.getMessage());
+        } finally {
+            synchronized (this) {
+                _connections -= 1;
+                if (unit != null) {
+                    release(unit);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /** Send the job to a worker through OUT. */
+    private void sendJob(DataOutputStream out) throws IOException {
+        out.writeLong(MAGIC);
+        byte[] config = _config.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(config.length);
+        out.write(config);
+        writeLetters(out, _cipher);
+        out.writeInt(_top);
+        _scorer.write(out);
+    }
+
+    /** Send LETTERS, letter indices of any size, through OUT. */
+    static void writeLetters(DataOutputStream out, int[] letters)
+        throws IOException {
+        out.writeInt(letters.length);
+        for (int c : letters) {
+            out.writeInt(c);
+        }
+    }
+
+    /** Return the letter indices sent by writeLetters, read from IN. */
+    static int[] readLetters(DataInputStream in) throws IOException {
+        int[] letters = new int[in.readInt()];
+        for (int i = 0; i < letters.length; i += 1) {
+            letters[i] = in.readInt();
+        }
+        return letters;
+    }
+
+    /** Return the next unit for a worker, waiting if necessary, or null
+     *  if the search is done. */
+    private synchronized Unit take() {
+        while (true) {
+            if (_remaining == 0) {
+                return null;
+            }
+            Unit unit = _pending.poll();
+            if (unit == null) {
+                for (Unit running : _running.values()) {
+                    if (running.copies < MAX_COPIES) {
+                        unit = running;
+                        break;
+                    }
+                }
+            }
+            if (unit != null) {
+                if (unit.copies == 0) {
+                    _running.put(unit.id, unit);
+                }
+                unit.copies += 1;
+                return unit;
+            }
+            try {
+                wait();
+            } catch (InterruptedException excp) {
+                return null;
+            }
+        }
+    }
+
+    /** Record RESULTS as the results of UNIT, unless it has already been
+     *  done. */
+    private synchronized void finish(Unit unit, Result[] results) {
+        unit.copies -= 1;
+        if (unit.done) {
+            return;
+        }
+        unit.done = true;
+        _running.remove(unit.id);
+        _remaining -= 1;
+        for (Result result : results) {
+            offer(_best, result, _top);
+        }
+        notifyAll();
+    }
+
+    /** Note that a worker has abandoned UNIT, returning it to the queue
+     *  if no other worker has it. */
+    private synchronized void release(Unit unit) {
+        unit.copies -= 1;
+        if (!unit.done && unit.copies == 0) {
+            _running.remove(unit.id);
+            _pending.addFirst(unit);
+        }
+        notifyAll();
+    }
+
+    /** Add RESULT to BEST, a queue of at most TOP results with the worst
+     *  first, if it is among the best TOP. */
+    private static void offer(PriorityQueue<Result> best, Result result,
+                              int top) {
+        if (best.size() < top) {
+            best.add(result);
+        } else if (BEST_FIRST.compare(result, best.peek()) < 0) {
+            best.poll();
+            best.add(result);
+        }
+    }
+
+    /** Work for the coordinator at HOST and PORT until it sends QUIT or
+     *  closes the connection. */
+    static void work(String host, int port) {
+        try (Socket socket = new Socket(host, port)) {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readLong() != MAGIC) {
+                throw error("not a key search coordinator");
+            }
+            byte[] config = new byte[in.readInt()];
+            in.readFully(config);
+            int[] cipher = readLetters(in);
+            int top = in.readInt();
+            NgramScorer scorer = NgramScorer.read(in);
+            Trial trial = new Trial(new String(config, StandardCharsets.UTF_8),
+                                    cipher, scorer);
+            Thread heartbeat = new Thread(() -> beat(out), "enigma-heartbeat");
+            heartbeat.setDaemon(true);
+            heartbeat.start();
+            while (in.readByte() == UNIT) {
+                int id = in.readInt();
+                long first = in.readLong(), last = in.readLong();
+                Result[] results = trial.search(first, last, top);
+                synchronized (out) {
+                    out.writeByte(RESULT);
+                    out.writeInt(id);
+                    out.writeInt(results.length);
+                    for (Result result : results) {
+                        out.writeLong(result.key);
+                        out.writeDouble(result.score);
+                    }
+                    out.flush();
+                }
+            }
+        } catch (IOException excp) {
+            throw error("lost coordinator: %s", excp.getMessage());
+        }
+    }
+
+    /** Send heartbeats through OUT until it fails. */
+    private static void beat(DataOutputStream out) {
+        try {
+            while (true) {
+                Thread.sleep(HEARTBEAT_MILLIS);
+                synchronized (out) {
+                    out.writeByte(HEARTBEAT);
+                    out.flush();
+                }
+            }
+        } catch (IOException | InterruptedException excp) {
+            return;
+        }
+    }
+
+    /** The trial decryption and scoring of a ciphertext under a range of
+     *  keys, as done by a worker. */
+    static class Trial {
+
+        /** Trials of CIPHER with the machine configured by CONFIG, scored
+         *  by SCORER. */
+        Trial(String config, int[] cipher, NgramScorer scorer) {
+            _machine = Main.parseConfig(config);
+            _keys = new KeySpace(_machine);
+            _cipher = cipher;
+            _plain = new int[cipher.length];
+            _scorer = scorer;
+        }
+
+        /** Return the best TOP of the keys from FIRST to LAST (exclusive),
+         *  best first. */
+        Result[] search(long first, long last, int top) {
+            PriorityQueue<Result> best = new PriorityQueue<>(WORST_FIRST);
+            for (long key = first; key < last; key += 1) {
+                _keys.apply(_machine, key);
+                for (int i = 0; i < _cipher.length; i += 1) {
+                    _plain[i] = _machine.convert(_cipher[i]);
+                }
+                double score = _scorer.score(_plain, _plain.length);
+                if (best.size() < top || score > best.peek().score) {
+                    offer(best, new Result(key, score), top);
+                }
+            }
+            Result[] results = best.toArray(new Result[best.size()]);
+            Arrays.sort(results, BEST_FIRST);
+            return results;
+        }
+
+        /** The machine whose keys are tried. */
+        private final Machine _machine;
+        /** Its keys. */
+        private final KeySpace _keys;
+        /** The ciphertext. */
+        private final int[] _cipher;
+        /** The decryption under the current key. */
+        private final int[] _plain;
+        /** Scores decryptions. */
+        private final NgramScorer _scorer;
+    }
+
+    /** A key and the score of the decryption under it. */
+    static class Result {
+        /** The result of decrypting with KEY, scoring SCORE. */
+        Result(long key, double score) {
+            this.key = key;
+            this.score = score;
+        }
+
+        /** The key. */
+        final long key;
+        /** Its score. */
+        final double score;
+    }
+
+    /** A range of consecutive keys handed out as one piece of work. */
+    private static class Unit {
+        /** Unit number ID, holding the keys from FIRST to LAST
+         *  (exclusive). */
+        Unit(int id, long first, long last) {
+            this.id = id;
+            this.first = first;
+            this.last = last;
+        }
+
+        /** My number. */
+        final int id;
+        /** My range of keys. */
+        final long first, last;
+        /** Number of workers now working on me. */
+        int copies;
+        /** True once my results have been merged. */
+        boolean done;
+    }
+
+    /** Orders results from best to worst (and then by key). */
+    static final Comparator<Result> BEST_FIRST =
+        Comparator.comparingDouble((Result r) -> -r.score)
+        .thenComparingLong(r -> r.key);
+
+    /** Orders results from worst to best. */
+    private static final Comparator<Result> WORST_FIRST =
+        BEST_FIRST.reversed();
+
+    /** Message tags. */
+    private static final byte UNIT = 'U', QUIT = 'Q', HEARTBEAT = 'H',
+        RESULT = 'R';
+
+    /** Identifies the coordinator's first message. */
+    private static final long MAGIC = 0x454e49474d414b53L;
+
+    /** Time between heartbeats from a working worker. */
+    static final int HEARTBEAT_MILLIS = 1000;
+
+    /** Time after which a silent worker is dropped. */
+    static final int DEAD_MILLIS = 5 * HEARTBEAT_MILLIS;
+
+    /** Most workers that may work on a unit at once. */
+    private static final int MAX_COPIES = 2;
+
+    /** Number of local worker processes to start. */
+    private int _workers;
+
+    /** Number of results wanted. */
+    private int _top = 10;
+
+    /** Number of keys in a unit. */
+    private long _unit = 1 << 16;
+
+    /** Port to listen on, or 0 for any. */
+    private int _port;
+
+    /** True iff workers on other hosts are accepted. */
+    private boolean _remote;
+
+    /** The text of the configuration file. */
+    private String _config;
+
+    /** The ciphertext, as letter indices. */
+    private int[] _cipher;
+
+    /** Scores trial decryptions. */
+    private NgramScorer _scorer;
+
+    /** The keys searched. */
+    private KeySpace _keys;
+
+    /** Units not being worked on, in the order they are to be handed
+     *  out. */
+    private final Deque<Unit> _pending = new ArrayDeque<>();
+
+    /** Units being worked on, in the order they were first handed
+     *  out. */
+    private final Map<Integer, Unit> _running = new LinkedHashMap<>();
+
+    /** Number of units not yet done. */
+    private int _remaining;
+
+    /** Number of workers connected. */
+    private int _connections;
+
+    /** The best results so far, worst first. */
+    private final PriorityQueue<Result> _best =
+        new PriorityQueue<>(WORST_FIRST);
+
+    /** Accepts connections from workers. */
+    private ServerSocket _server;
+
+}
@@ -0,0 +1,162 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** The suite of all JUnit tests for the KeySearch class.
+ *  @author Alessandro Buy
+ */
+public class KeySearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration with a small key space: 6 rotor orders. */
+    private static final String CONFIG =
+        "A-Z 3 1\n"
+        + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "  (RX) (SZ) (TV)\n";
+
+    /** Sample plaintext. */
+    private static final String SAMPLE =
+        "ITWASTHEBESTOFTIMESITWASTHEWORSTOFTIMESITWASTHEAGEOFWISDOM"
+        + "ITWASTHEAGEOFFOOLISHNESSITWASTHEEPOCHOFBELIEFITWASTHEEPOCH"
+        + "OFINCREDULITYITWASTHESEASONOFLIGHTITWASTHESEASONOFDARKNESS"
+        + "ITWASTHESPRINGOFHOPEITWASTHEWINTEROFDESPAIRWEHADEVERYTHING"
+        + "BEFOREUSWEHADNOTHINGBEFOREUSWEWEREALLGOINGDIRECTTOHEAVENWE"
+        + "WEREALLGOINGDIRECTTHEOTHERWAYINSHORTTHEPERIODWASSOFARLIKE"
+        + "THEPRESENTPERIODTHATSOMEOFITSNOISIESTAUTHORITIESINSISTEDON"
+        + "ITSBEINGRECEIVEDFORGOODORFOREVILINTHESUPERLATIVEDEGREEOF"
+        + "COMPARISONONLY";
+
+    /** The key used to encrypt the ciphertext. */
+    private static final String KEY = "B III Beta QZ";
+
+    /** Return the letters of TEXT as indices. */
+    private static int[] letters(String text) {
+        Alphabet alpha = new CharacterRange('A', 'Z');
+        int[] result = new int[text.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = alpha.toInt(text.charAt(i));
+        }
+        return result;
+    }
+
+    /** Return a search for the encryption under KEY of part of the
+     *  sample, with WORKERS local processes and units of UNIT keys. */
+    private KeySearch search(int workers, long unit) {
+        Machine M = Main.parseConfig(CONFIG);
+        Main.setUp(M, KEY);
+        int[] cipher = letters(SAMPLE.substring(100, 220));
+        for (int i = 0; i < cipher.length; i += 1) {
+            cipher[i] = M.convert(cipher[i]);
+        }
+        int[] sample = letters(SAMPLE);
+        KeySearch search = new KeySearch();
+        search.setSizes(workers, unit, 3);
+        search.setJob(CONFIG, cipher,
+                      NgramScorer.train(26, sample, sample.length));
+        return search;
+    }
+
+    /** Start a thread that works for the coordinator on PORT. */
+    private void startWorker(int port) {
+        Thread worker = new Thread(() -> KeySearch.work("127.0.0.1", port));
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Check that RESULTS are ordered and headed by the true key. */
+    private void checkResults(List<KeySearch.Result> results) {
+        KeySpace keys = new KeySpace(Main.parseConfig(CONFIG));
+        assertEquals(3, results.size());
+        assertEquals(KEY, keys.settings(results.get(0).key));
+        assertTrue(results.get(0).score > results.get(1).score);
+        assertTrue(results.get(1).score >= results.get(2).score);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testTrial() {
+        Machine M = Main.parseConfig(CONFIG);
+        KeySpace keys = new KeySpace(M);
+        Main.setUp(M, KEY);
+        int[] cipher = letters(SAMPLE.substring(0, 100));
+        for (int i = 0; i < cipher.length; i += 1) {
+            cipher[i] = M.convert(cipher[i]);
+        }
+        int[] sample = letters(SAMPLE);
+        KeySearch.Trial trial =
+            new KeySearch.Trial(CONFIG, cipher,
+                                NgramScorer.train(26, sample, sample.length));
+        KeySearch.Result[] results = trial.search(0, keys.size(), 2);
+        assertEquals(2, results.length);
+        assertEquals(KEY, keys.settings(results[0].key));
+    }
+
+    @Test
+    public void testLetters() throws IOException {
+        int[] letters = { 0, 25, 255, 256, 1000, 65535 };
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        KeySearch.writeLetters(new DataOutputStream(bytes), letters);
+        assertArrayEquals(letters, KeySearch.readLetters(new DataInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    @Test
+    public void testWorkers() {
+        KeySearch search = search(0, 500);
+        int port = search.listen();
+        startWorker(port);
+        startWorker(port);
+        checkResults(search.run());
+    }
+
+    @Test
+    public void testLostWorker() throws IOException {
+        KeySearch search = search(0, 500);
+        int port = search.listen();
+        AtomicReference<List<KeySearch.Result>> results =
+            new AtomicReference<>();
+        Thread coordinator = new Thread(() -> results.set(search.run()));
+        coordinator.start();
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            in.readLong();
+            in.skipBytes(in.readInt());
+            KeySearch.readLetters(in);
+            in.readInt();
+            NgramScorer.read(in);
+            assertEquals('U', in.readByte());
+        }
+        startWorker(port);
+        try {
+            coordinator.join();
+        } catch (InterruptedException excp) {
+            fail();
+        }
+        checkResults(results.get());
+    }
+
+}
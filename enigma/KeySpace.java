@@ -0,0 +1,253 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+import static enigma.EnigmaException.*;
+
+/** The set of all keys (rotor orders and starting positions, without
+ *  plugboard) for a machine: a reflector, an ordered selection of
+ *  distinct other rotors with as many moving rotors as the machine has
+ *  pawls (as Machine.insertRotors requires), and a starting position for
+ *  each non-reflector (as Machine.setRotors accepts).
+ *
+ *  Keys are numbered from 0 to size() - 1 and are handled as longs:
+ *  key / positions() is the index of the rotor order and key % positions()
+ *  encodes the starting positions, most significant for the leftmost
+ *  rotor.  Rotor orders are numbered in order of the rotors' names.
+ *  @author Alessandro Buy
+ */
+class KeySpace {
+
+    /** The key space of machine M. */
+    KeySpace(Machine M) {
+        _slots = M.numRotors();
+        _alphabet = M.alphabet();
+        _rotors = new ArrayList<>(M.rotors());
+        _rotors.sort(Comparator.comparing(Rotor::name));
+        long positions = 1;
+        try {
+            for (int i = 1; i < _slots; i += 1) {
+                positions = Math.multiplyExact(positions, _alphabet.size());
+            }
+            _positions = positions;
+            int[] order = new int[_slots];
+            boolean[] used = new boolean[_rotors.size()];
+            List<int[]> orders = new ArrayList<>();
+            for (int r = 0; r < _rotors.size(); r += 1) {
+                if (_rotors.get(r).reflecting()) {
+                    order[0] = r;
+                    addOrders(orders, order, used, 1, M.numPawls());
+                }
+            }
+            _orders = orders.toArray(new int[orders.size()][]);
+            _size = Math.multiplyExact(_positions, (long) _orders.length);
+        } catch (ArithmeticException excp) {
+            throw error("key space too large");
+        }
+    }
+
+    /** Add to ORDERS all completions of ORDER, whose first SLOT entries
+     *  are filled, using rotors not marked in USED and exactly PAWLS
+     *  more moving rotors. */
+    private void addOrders(List<int[]> orders, int[] order, boolean[] used,
+                           int slot, int pawls) {
+        if (slot == _slots) {
+            if (pawls == 0) {
+                orders.add(order.clone());
+            }
+            return;
+        }
+        for (int r = 0; r < _rotors.size(); r += 1) {
+            Rotor rotor = _rotors.get(r);
+            if (used[r] || rotor.reflecting()
+                || (rotor.rotates() && pawls == 0)) {
+                continue;
+            }
+            used[r] = true;
+            order[slot] = r;
+            addOrders(orders, order, used, slot + 1,
+                      rotor.rotates() ? pawls - 1 : pawls);
+            used[r] = false;
+        }
+    }
+
+    /** Return the number of the rotor order named by the first
+     *  numRotors() tokens of NAMES (compared as by Machine.insertRotors),
+     *  or throw an exception if there is no such order. */
+    int order(String names) {
+        String[] tokens = names.trim().split("\\s+");
+        if (tokens.length < _slots) {
+            throw error("not enough rotor names in %s", names);
+        }
+        for (int k = 0; k < _orders.length; k += 1) {
+            int i;
+            for (i = 0; i < _slots; i += 1) {
+                if (!_rotors.get(_orders[k][i]).name()
+                    .equalsIgnoreCase(tokens[i])) {
+                    break;
+                }
+            }
+            if (i == _slots) {
+                return k;
+            }
+        }
+        throw error("no such rotor order: %s", names);
+    }
+
+    /** Return the number of keys. */
+    long size() {
+        return _size;
+    }
+
+    /** Return the number of rotor orders. */
+    int orders() {
+        return _orders.length;
+    }
+
+    /** Return the number of combinations of starting positions. */
+    long positions() {
+        return _positions;
+    }
+
+    /** Return the key for rotor order ORDER and the starting positions
+     *  numbered POSITION. */
+    long key(int order, long position) {
+        return order * _positions + position;
+    }
+
+    /** Return the rotor in slot SLOT (0 for the reflector) under KEY. */
+    Rotor rotor(long key, int slot) {
+        return _rotors.get(_orders[(int) (key / _positions)][slot]);
+    }
+
+    /** Return the starting position of the rotor in slot SLOT
+     *  (1 <= SLOT < numRotors) under KEY. */
+    int position(long key, int slot) {
+        long p = key % _positions;
+        for (int i = _slots - 1; i > slot; i -= 1) {
+            p /= _alphabet.size();
+        }
+        return (int) (p % _alphabet.size());
+    }
+
+    /** Return the settings line (without '*' and plugboard) for KEY. */
+    String settings(long key) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < _slots; i += 1) {
+            result.append(rotor(key, i).name()).append(' ');
+        }
+        for (int i = 1; i < _slots; i += 1) {
+            result.append(_alphabet.toChar(position(key, i)));
+        }
+        return result.toString();
+    }
+
+    /** Set the rotors of M, which must be the machine I was made from or
+     *  a copy of it, according to KEY, leaving its plugboard alone. */
+    void apply(Machine M, long key) {
+        String[] names = new String[_slots];
+        char[] setting = new char[_slots - 1];
+        for (int i = 0; i < _slots; i += 1) {
+            names[i] = rotor(key, i).name();
+            if (i > 0) {
+                setting[i - 1] = _alphabet.toChar(position(key, i));
+            }
+        }
+        M.clearRotors();
+        M.insertRotors(names);
+        M.setRotors(new String(setting));
+    }
+
+    /** Return a stream of all my keys, which is parallel iff PARALLEL. */
+    LongStream keys(boolean parallel) {
+        return keys(0, _size, parallel);
+    }
+
+    /** Return a stream of my keys from FIRST up to but not including
+     *  LAST, which is parallel iff PARALLEL. */
+    LongStream keys(long first, long last, boolean parallel) {
+        if (first < 0 || first > last || last > _size) {
+            throw error("bad range of keys");
+        }
+        return StreamSupport.longStream(new Keys(first, last), parallel);
+    }
+
+    /** A Spliterator over a range of keys, which splits in half. */
+    static class Keys implements Spliterator.OfLong {
+
+        /** An iterator over the keys from FIRST up to LAST. */
+        Keys(long first, long last) {
+            _next = first;
+            _last = last;
+        }
+
+        @Override
+        public OfLong trySplit() {
+            long mid = _next + (_last - _next) / 2;
+            if (mid == _next) {
+                return null;
+            }
+            Keys prefix = new Keys(_next, mid);
+            _next = mid;
+            return prefix;
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            if (_next >= _last) {
+                return false;
+            }
+            action.accept(_next);
+            _next += 1;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(LongConsumer action) {
+            long last = _last;
+            for (long key = _next; key < last; key += 1) {
+                action.accept(key);
+            }
+            _next = last;
+        }
+
+        @Override
+        public long estimateSize() {
+            return _last - _next;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | SIZED | SUBSIZED | NONNULL
+                | IMMUTABLE;
+        }
+
+        /** The next key and the end of the range. */
+        private long _next, _last;
+    }
+
+    /** Number of rotor slots. */
+    private final int _slots;
+
+    /** The machine's alphabet. */
+    private final Alphabet _alphabet;
+
+    /** All available rotors, in order of name. */
+    private final List<Rotor> _rotors;
+
+    /** Each rotor order, as indices into _rotors by slot. */
+    private final int[][] _orders;
+
+    /** Number of combinations of starting positions. */
+    private final long _positions;
+
+    /** Total number of keys. */
+    private final long _size;
+
+}
@@ -0,0 +1,80 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+/** The suite of all JUnit tests for the KeySpace class.
+ *  @author Alessandro Buy
+ */
+public class KeySpaceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private Alphabet abc = new CharacterRange('A', 'C');
+
+    /** Return a 3-slot, 1-pawl machine with two reflectors, two moving
+     *  rotors and a fixed rotor. */
+    private Machine smallMachine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation("(AB)", abc)));
+        rotors.add(new Reflector("C", new Permutation("(BC)", abc)));
+        rotors.add(new MovingRotor("I", new Permutation("(ABC)", abc), "A"));
+        rotors.add(new MovingRotor("II", new Permutation("(AC)", abc), "B"));
+        rotors.add(new FixedRotor("F", new Permutation("(CB)", abc)));
+        return new Machine(abc, 3, 1, rotors);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSize() {
+        KeySpace keys = new KeySpace(smallMachine());
+        assertEquals(8, keys.orders());
+        assertEquals(9, keys.positions());
+        assertEquals(72, keys.size());
+        assertEquals(72, keys.keys(true).count());
+        assertEquals(72 * 71 / 2, keys.keys(true).sum());
+    }
+
+    @Test
+    public void testSettings() {
+        KeySpace keys = new KeySpace(smallMachine());
+        assertEquals(72, keys.keys(true).mapToObj(keys::settings)
+                     .collect(Collectors.toSet()).size());
+        assertEquals("B F I AA", keys.settings(0));
+        assertEquals("B F I CB", keys.settings(7));
+        assertEquals("B F II AA", keys.settings(9));
+    }
+
+    @Test
+    public void testApply() {
+        Machine M = smallMachine();
+        KeySpace keys = new KeySpace(M);
+        for (long key = 0; key < keys.size(); key += 1) {
+            keys.apply(M, key);
+            assertEquals(keys.settings(key).substring(
+                             keys.settings(key).length() - 2),
+                         M.rotorSettings());
+        }
+    }
+
+    @Test
+    public void testSplit() {
+        KeySpace keys = new KeySpace(smallMachine());
+        Spliterator.OfLong all = keys.keys(false).spliterator();
+        Spliterator.OfLong half = all.trySplit();
+        assertEquals(36, half.estimateSize());
+        assertEquals(36, all.estimateSize());
+    }
+
+}
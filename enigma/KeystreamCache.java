@@ -0,0 +1,344 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+import static enigma.EnigmaException.*;
+
+/** A bounded cache of keystreams, shared by the messages that have the
+ *  same settings line.  A machine set up from a given settings line
+ *  always applies the same sequence of substitutions to the characters of
+ *  a message, whatever they are; this sequence is the keystream.  The
+ *  cache keeps, for each normalized settings line (see
+ *  Main.normalizeSettings), the table of the substitution at each of the
+ *  first positions of its keystream, so that a message with those
+ *  settings is converted by one lookup per character, with none of the
+ *  stepping of the rotors or passes through them that the machine
+ *  repeats for every message.
+ *
+ *  A keystream is generated lazily, CHUNK positions at a time, as far as
+ *  the longest message with its settings has needed, and no farther than
+ *  a maximum length; the rest of a longer message is converted by a
+ *  CompositeEngine.  Since generating a position costs about as much as
+ *  converting a character once for each character of the alphabet, a
+ *  keystream is generated only for settings seen at least twice: the
+ *  settings seen once are remembered apart from the keystreams, in a
+ *  least-recently-used set of at most MAX_SEEN lines that does not count
+ *  toward the size of the cache.  Keystreams are kept in
+ *  least-recently-used order, up to a limit on their total size, and
+ *  evicted when they would exceed it; no keystream grows beyond what
+ *  fits in that limit by itself.
+ *
+ *  The cache is safe to use from many threads at once.  Looking up a
+ *  settings line takes a lock on the cache, and generating more of a
+ *  keystream a lock on the keystream, but a keystream that is long enough
+ *  is read without any locking: the positions generated so far are never
+ *  changed, and are published by a volatile count.  A keystream that is
+ *  evicted while some engine is still reading it remains usable, and
+ *  occupies memory (outside the limit) until that engine is done.
+ *  @author Alessandro Buy
+ */
+class KeystreamCache {
+
+    /** A cache holding at most CAPACITY bytes of keystreams, each of at
+     *  most LENGTH positions. */
+    KeystreamCache(long capacity, long length) {
+        if (capacity < 1 || length < 1) {
+            throw error("keystream cache capacity and length must be "
+                        + "positive");
+        }
+        _capacity = capacity;
+        _length = length;
+    }
+
+    /** Return an engine for M, which has just been set up with the
+     *  settings line SETTINGS (without its '*'), starting at M's current
+     *  settings. */
+    Engine engine(Machine M, String settings) {
+        int size = M.alphabet().size();
+        if (size > MAX_SIZE) {
+            return new CompositeEngine(M);
+        }
+        String key = Main.normalizeSettings(settings, M.numRotors());
+        Keystream stream;
+        synchronized (this) {
+            stream = _streams.get(key);
+            if (stream == null) {
+                if (!_seen.remove(key)) {
+                    _misses += 1;
+                    _seen.add(key);
+                    if (_seen.size() > MAX_SEEN) {
+                        _seen.remove(_seen.iterator().next());
+                    }
+                    return new CompositeEngine(M);
+                }
+                stream = new Keystream(key, size);
+                if (stream._limit == 0) {
+                    _hits += 1;
+                    _seen.add(key);
+                    return new CompositeEngine(M);
+                }
+                _streams.put(key, stream);
+                stream.bytes = stream.size();
+                _size += stream.bytes;
+                evict(stream);
+            }
+            _hits += 1;
+        }
+        stream.prepare(M);
+        return new KeystreamEngine(stream, M);
+    }
+
+    /** Return the number of lookups of settings seen before. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups of settings not seen before (or
+     *  since their keystream was evicted or forgotten). */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Return the number of keystreams evicted. */
+    synchronized long evictions() {
+        return _evictions;
+    }
+
+    /** Return the total size of the keystreams cached, in bytes. */
+    synchronized long size() {
+        return _size;
+    }
+
+    /** Return a one-line summary of my metrics. */
+    synchronized String stats() {
+        long lookups = _hits + _misses;
+        return String.format("keystream cache: %d lookups, %d hits "
+                             + "(%.1f%%), %d keystreams (%d bytes), "
+                             + "%d evicted, %d settings seen once",
+                             lookups, _hits,
+                             lookups == 0 ? 0.0 : 100.0 * _hits / lookups,
+                             _streams.size(), _size, _evictions,
+                             _seen.size());
+    }
+
+    /** Record that STREAM has grown by BYTES. */
+    private synchronized void grew(Keystream stream, long bytes) {
+        if (_streams.get(stream.key) == stream) {
+            stream.bytes += bytes;
+            _size += bytes;
+            evict(stream);
+        }
+    }
+
+    /** Evict the least recently used keystreams other than KEEP until
+     *  the cache is within its capacity, or only KEEP is left. */
+    private void evict(Keystream keep) {
+        Iterator<Keystream> victims = _streams.values().iterator();
+        while (_size > _capacity && victims.hasNext()) {
+            Keystream victim = victims.next();
+            if (victim != keep) {
+                victims.remove();
+                _size -= victim.bytes;
+                _evictions += 1;
+            }
+        }
+    }
+
+    /** The keystream of one settings line. */
+    private final class Keystream {
+
+        /** An empty keystream for the settings line KEY, for an alphabet
+         *  of SIZE characters. */
+        Keystream(String key, int size) {
+            this.key = key;
+            _letters = size;
+            long room = Math.max(0, _capacity - size());
+            _limit = (int) Math.min(Math.min(_length, room / size),
+                                    Integer.MAX_VALUE / size);
+        }
+
+        /** Make M, which is set up with my settings, my generator, if I
+         *  have neither generator nor positions. */
+        synchronized void prepare(Machine M) {
+            if (_generator == null && length == 0) {
+                _generator = new CompositeEngine(M);
+            }
+        }
+
+        /** Generate positions until there are at least POSITIONS, or as
+         *  many as there can be. */
+        void extend(int positions) {
+            long grown = 0;
+            synchronized (this) {
+                if (length >= positions || _generator == null) {
+                    return;
+                }
+                int target = (int) Math.min(_limit,
+                                            (long) positions + CHUNK - 1
+                                            - (positions - 1) % CHUNK);
+                byte[] t = table;
+                if (t.length < target * _letters) {
+                    int capacity = Math.max(
+                        target, Math.min(_limit, 2 * (t.length / _letters)));
+                    t = Arrays.copyOf(t, capacity * _letters);
+                    grown = t.length - table.length;
+                }
+                for (int p = length; p < target; p += 1) {
+                    _generator.substitution(t, p * _letters);
+                }
+                table = t;
+                length = target;
+                if (target == _limit) {
+                    _generator = null;
+                }
+            }
+            if (grown > 0) {
+                grew(this, grown);
+            }
+        }
+
+        /** Return the approximate number of bytes I occupy. */
+        long size() {
+            return 2L * key.length() + table.length + ENTRY_OVERHEAD;
+        }
+
+        /** My normalized settings line. */
+        final String key;
+
+        /** The substitution at position P, for P < length, is in
+         *  table[P * _letters] up to table[(P + 1) * _letters]. */
+        volatile byte[] table = new byte[0];
+
+        /** Number of positions generated.  Readers must read it before
+         *  table. */
+        volatile int length;
+
+        /** Number of bytes counted in the size of the cache for me. */
+        long bytes;
+
+        /** Alphabet size. */
+        private final int _letters;
+
+        /** Greatest number of positions: at most _length, and no more
+         *  than fit in the capacity of the cache. */
+        private final int _limit;
+
+        /** Engine at position length, from which the following positions
+         *  are generated, or null if there will be no more. */
+        private CompositeEngine _generator;
+    }
+
+    /** An engine that reads the substitutions from a keystream. */
+    private final class KeystreamEngine implements Engine {
+
+        /** An engine reading STREAM, whose settings M has. */
+        KeystreamEngine(Keystream stream, Machine M) {
+            _stream = stream;
+            _machine = M;
+            _start = M.rotorSettings();
+            _letters = M.alphabet().size();
+        }
+
+        @Override
+        public int convert(int c) {
+            int p = _position;
+            if (p < _available) {
+                _position = p + 1;
+                return _table[p * _letters + c] & 0xff;
+            }
+            return convertBeyond(c);
+        }
+
+        /** Return the conversion of C at a position that is not
+         *  available in _table. */
+        private int convertBeyond(int c) {
+            if (_fallback == null) {
+                _stream.extend(_position + 1);
+                _available = _stream.length;
+                _table = _stream.table;
+                if (_position < _available) {
+                    return convert(c);
+                }
+                store(_machine);
+                _fallback = new CompositeEngine(_machine);
+            }
+            _position += 1;
+            return _fallback.convert(c);
+        }
+
+        @Override
+        public void store(Machine M) {
+            if (_fallback != null) {
+                _fallback.store(M);
+            } else {
+                M.setRotors(_start);
+                M.advance(_position);
+            }
+        }
+
+        /** The keystream read. */
+        private final Keystream _stream;
+
+        /** The machine I was made from. */
+        private final Machine _machine;
+
+        /** The rotor settings of _machine when I was made. */
+        private final String _start;
+
+        /** Alphabet size. */
+        private final int _letters;
+
+        /** Number of characters converted. */
+        private int _position;
+
+        /** Number of positions of _table known to be generated. */
+        private int _available;
+
+        /** The table of _stream, as of when _available was read. */
+        private byte[] _table = new byte[0];
+
+        /** Engine converting the characters beyond the end of the
+         *  keystream, or null. */
+        private CompositeEngine _fallback;
+    }
+
+    /** Largest alphabet for which keystreams are kept. */
+    static final int MAX_SIZE = 256;
+
+    /** Number of positions generated at a time. */
+    static final int CHUNK = 256;
+
+    /** Default greatest length of a keystream. */
+    static final long DEFAULT_LENGTH = 1 << 16;
+
+    /** Greatest number of settings lines remembered as seen once. */
+    static final int MAX_SEEN = 1 << 14;
+
+    /** Approximate size of a keystream besides its key and table. */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /** Greatest total size of the keystreams, in bytes. */
+    private final long _capacity;
+
+    /** Greatest length of a keystream, in positions. */
+    private final long _length;
+
+    /** The keystreams, in least-recently-used order. */
+    private final LinkedHashMap<String, Keystream> _streams =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The settings lines seen once, oldest first.  A line seen again
+     *  leaves this set for _streams, so that this is also
+     *  least-recently-used order. */
+    private final LinkedHashSet<String> _seen = new LinkedHashSet<>();
+
+    /** Total size of the keystreams, in bytes. */
+    private long _size;
+
+    /** Metrics. */
+    private long _hits, _misses, _evictions;
+
+}
@@ -0,0 +1,190 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the KeystreamCache class.
+ *  @author Alessandro Buy
+ */
+public class KeystreamCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Settings lines used for the naval machine. */
+    static final String[] SETTINGS = {
+        "B Beta III IV I AXLE (HQ) (EX)",
+        "B Beta II V I QEVZ (AB)",
+        "B Beta V IV III ZZZY",
+    };
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testConvert() {
+        Random random = new Random(1);
+        KeystreamCache cache = new KeystreamCache(1 << 20, 1000);
+        for (int n = 0; n < 60; n += 1) {
+            String settings = SETTINGS[random.nextInt(SETTINGS.length)];
+            String msg = randomMessage(
+                random.nextInt(1500), random);
+            assertEquals(expected(settings, msg),
+                         convert(cache.engine(navalMachine(settings), settings),
+                                 msg));
+        }
+        assertEquals(SETTINGS.length, cache.misses());
+        assertEquals(60 - SETTINGS.length, cache.hits());
+        assertEquals(0, cache.evictions());
+    }
+
+    @Test
+    public void testStore() {
+        KeystreamCache cache = new KeystreamCache(1 << 20, 300);
+        String settings = SETTINGS[0];
+        cache.engine(navalMachine(settings), settings);
+        String msg = randomMessage(700, new Random(2));
+        for (int length : new int[] { 0, 1, 299, 300, 301, 700 }) {
+            Machine M = navalMachine(settings);
+            Engine engine = cache.engine(M, settings);
+            convert(engine, msg.substring(0, length));
+            engine.store(M);
+            Machine expected = navalMachine(settings);
+            expected.convert(msg.substring(0, length));
+            assertEquals("after " + length, expected.rotorSettings(),
+                         M.rotorSettings());
+        }
+    }
+
+    @Test
+    public void testEviction() {
+        Random random = new Random(3);
+        KeystreamCache cache = new KeystreamCache(40_000, 1 << 16);
+        String[] rotors = { "I", "II", "III", "IV", "V" };
+        for (int n = 0; n < 200; n += 1) {
+            String settings = String.format(
+                "B Beta %s %s %s %c%c%c%c", rotors[n % 5],
+                rotors[(n + 1) % 5], rotors[(n + 2) % 5],
+                'A' + random.nextInt(3), 'A', 'A', 'A');
+            String msg = randomMessage(
+                random.nextInt(1000), random);
+            assertEquals(expected(settings, msg),
+                         convert(cache.engine(navalMachine(settings), settings),
+                                 msg));
+            assertTrue(cache.size() <= 40_000);
+        }
+        assertTrue(cache.evictions() > 0);
+        assertTrue(cache.hits() > 0);
+    }
+
+    @Test
+    public void testCapacityBoundsLength() {
+        String settings = SETTINGS[0];
+        String msg = randomMessage(5000, new Random(5));
+        for (long capacity : new long[] { 10_000, 100 }) {
+            KeystreamCache cache = new KeystreamCache(capacity, 1 << 16);
+            for (int n = 0; n < 3; n += 1) {
+                assertEquals(expected(settings, msg),
+                             convert(cache.engine(navalMachine(settings),
+                                                  settings), msg));
+                assertTrue(cache.size() <= capacity);
+            }
+            assertEquals(0, cache.evictions());
+        }
+    }
+
+    @Test
+    public void testFirstSightings() {
+        Random random = new Random(6);
+        KeystreamCache cache = new KeystreamCache(40_000, 1 << 16);
+        String settings = SETTINGS[1];
+        for (int n = 0; n < 400; n += 1) {
+            String once = String.format("B Beta I II III %c%c%c%c",
+                                        'A' + n % 26, 'A' + n / 26 % 26,
+                                        'A' + n / 676, 'A');
+            for (String line : new String[] { settings, once }) {
+                String msg = randomMessage(random.nextInt(500), random);
+                assertEquals(expected(line, msg),
+                             convert(cache.engine(navalMachine(line), line),
+                                     msg));
+            }
+        }
+        assertEquals(0, cache.evictions());
+        assertEquals(399, cache.hits());
+        assertEquals(401, cache.misses());
+        assertTrue(cache.stats(),
+                   cache.stats().contains("1 keystreams"));
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        KeystreamCache cache = new KeystreamCache(1 << 20, 1 << 16);
+        List<Thread> threads = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        for (int t = 0; t < 4; t += 1) {
+            Random random = new Random(t);
+            threads.add(new Thread(() -> {
+                for (int n = 0; n < 200; n += 1) {
+                    String settings = SETTINGS[n % SETTINGS.length];
+                    String msg = randomMessage(
+                        random.nextInt(3000), random);
+                    String result;
+                    try {
+                        result = convert(cache.engine(navalMachine(settings),
+                                                      settings), msg);
+                    } catch (RuntimeException excp) {
+                        result = excp.toString();
+                    }
+                    if (!expected(settings, msg).equals(result)) {
+                        synchronized (failures) {
+                            failures.add(settings + ": " + result);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(new ArrayList<String>(), failures);
+    }
+
+    @Test
+    public void testPipeline() {
+        Random random = new Random(4);
+        StringBuilder input = new StringBuilder(),
+            output = new StringBuilder();
+        for (int n = 0; n < 100; n += 1) {
+            String settings = SETTINGS[random.nextInt(SETTINGS.length)];
+            String msg = randomMessage(
+                1 + random.nextInt(200), random);
+            input.append("* ").append(settings).append('\n')
+                .append(msg).append('\n');
+            StringBuilder line = new StringBuilder();
+            Main.appendMessageLine(line, expected(settings, msg));
+            output.append(line);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new Pipeline(navalMachine(),
+                     new LineReader(new ByteArrayInputStream(
+                         input.toString().getBytes())),
+                     bytes, 3, -1, new KeystreamCache(1 << 20, 1 << 16))
+            .run();
+        assertEquals(output.toString(), bytes.toString());
+    }
+
+}
@@ -0,0 +1,197 @@
+package enigma;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static enigma.EnigmaException.*;
+
+/** A source of input lines that keeps track of the byte offset at which
+ *  each line starts, so that a run can later be resumed at a line
+ *  boundary.  Lines are terminated by '\n' (a preceding '\r' is dropped);
+ *  a final line need not be terminated.  The bytes of the current line
+ *  are available without copying until the next call to nextLine().
+ *  @author Alessandro Buy
+ */
+class LineReader {
+
+    /** A reader for the lines of IN, whose first byte is taken to be at
+     *  offset 0. */
+    LineReader(InputStream in) {
+        this(in, 0);
+    }
+
+    /** A reader for the lines of IN, whose first byte is taken to be at
+     *  offset START. */
+    private LineReader(InputStream in, long start) {
+        _in = in;
+        _buf = new byte[BUFFER_SIZE];
+        _next = start;
+        _offset = start;
+        _end = Long.MAX_VALUE;
+    }
+
+    /** Return a reader for the lines of the file named NAME, beginning
+     *  OFFSET bytes into the file. */
+    static LineReader open(String name, long offset) {
+        return open(name, offset, Long.MAX_VALUE);
+    }
+
+    /** Return a reader for the lines of the file named NAME that begin
+     *  at or after OFFSET bytes into the file and before END. */
+    static LineReader open(String name, long offset, long end) {
+        try {
+            FileInputStream in = new FileInputStream(new File(name));
+            in.getChannel().position(offset);
+            LineReader result = new LineReader(in, offset);
+            result._end = end;
+            return result;
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Advance to the next line, returning false (and leaving the current
+     *  line empty) if there are no more. */
+    boolean nextLine() {
+        _offset = _next;
+        if (_next >= _end) {
+            _start = _length = 0;
+            return false;
+        }
+        int scan = _pos;
+        while (true) {
+            while (scan < _limit && _buf[scan] != '\n') {
+                scan += 1;
+            }
+            if (scan < _limit) {
+                setLine(scan, scan + 1);
+                return true;
+            }
+            if (_eof) {
+                if (scan == _pos) {
+                    _start = _length = 0;
+                    return false;
+                }
+                setLine(scan, scan);
+                return true;
+            }
+            scan -= _pos;
+            fill();
+            scan += _pos;
+        }
+    }
+
+    /** Make the current line consist of the bytes from _pos up to END,
+     *  with the next line starting at NEXT. */
+    private void setLine(int end, int next) {
+        _start = _pos;
+        _length = end - _pos;
+        if (_length > 0 && _buf[end - 1] == '\r') {
+            _length -= 1;
+        }
+        _next += next - _pos;
+        _pos = next;
+    }
+
+    /** Read more input after the unconsumed bytes in _buf, moving them to
+     *  the front of the buffer (or enlarging it) to make room. */
+    private void fill() {
+        if (_pos > 0) {
+            System.arraycopy(_buf, _pos, _buf, 0, _limit - _pos);
+            _limit -= _pos;
+            _pos = 0;
+        } else if (_limit == _buf.length) {
+            byte[] bigger = new byte[2 * _buf.length];
+            System.arraycopy(_buf, 0, bigger, 0, _limit);
+            _buf = bigger;
+        }
+        try {
+            int n = _in.read(_buf, _limit, _buf.length - _limit);
+            if (n < 0) {
+                _eof = true;
+            } else {
+                _limit += n;
+            }
+        } catch (IOException excp) {
+            throw error("error reading input: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the buffer holding the current line. */
+    byte[] buffer() {
+        return _buf;
+    }
+
+    /** Return the index in buffer() of the first byte of the current
+     *  line. */
+    int start() {
+        return _start;
+    }
+
+    /** Return the number of bytes in the current line, not counting its
+     *  terminator. */
+    int length() {
+        return _length;
+    }
+
+    /** Return the current line as a String. */
+    String line() {
+        return new String(_buf, _start, _length, CHARSET);
+    }
+
+    /** Return the byte offset of the start of the current line. */
+    long offset() {
+        return _offset;
+    }
+
+    /** Return the byte offset just past the current line and its
+     *  terminator, which is where the next line starts. */
+    long position() {
+        return _next;
+    }
+
+    /** Close the underlying input. */
+    void close() {
+        try {
+            _in.close();
+        } catch (IOException excp) {
+            /* Ignore: nothing more will be read. */
+            return;
+        }
+    }
+
+    /** Size of the initial input buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Character set used to decode lines, as for a Scanner. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** Source of bytes. */
+    private final InputStream _in;
+
+    /** Buffered input; valid bytes are those in [_pos, _limit) plus the
+     *  current line. */
+    private byte[] _buf;
+
+    /** Index in _buf of the first byte not yet returned in a line. */
+    private int _pos;
+
+    /** Index in _buf just past the last byte read. */
+    private int _limit;
+
+    /** Location and length of the current line in _buf. */
+    private int _start, _length;
+
+    /** Byte offsets of the current line and of the line after it. */
+    private long _offset, _next;
+
+    /** Byte offset at which to stop reading lines. */
+    private long _end;
+
+    /** True once _in is exhausted. */
+    private boolean _eof;
+
+}
@@ -1,7 +1,10 @@
 package enigma;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import static enigma.EnigmaException.*;
 
@@ -20,9 +23,38 @@ class Machine {
         _numRotors = numRotors;
         _pawls = pawls;
         _slots = new Rotor[numRotors];
+        _moves = new boolean[numRotors];
         _rotors = new HashSet<>(allRotors);
     }
 
+    /** Return a new machine with the same rotors, slots, settings and
+     *  plugboard as mine, but with rotors of its own, so that the two
+     *  machines can be used independently (for example, by different
+     *  threads). */
+    Machine copy() {
+        Map<Rotor, Rotor> copies = new IdentityHashMap<>();
+        for (Rotor r : _rotors) {
+            copies.put(r, r.copy());
+        }
+        Machine result =
+            new Machine(_alphabet, _numRotors, _pawls, copies.values());
+        for (int i = 0; i < _numRotors; i++) {
+            result._slots[i] = copies.get(_slots[i]);
+        }
+        result._plugboard = _plugboard;
+        return result;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return all the rotors available to me. */
+    Collection<Rotor> rotors() {
+        return _rotors;
+    }
+
     /** Return the number of rotor slots I have. */
     int numRotors() {
         return _numRotors;
@@ -33,10 +65,18 @@ class Machine {
         return _pawls;
     }
 
+    /** Return the rotor in slot K (0 for the reflector), or null if
+     *  there is none. */
+    Rotor rotor(int k) {
+        return _slots[k];
+    }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
+        Events.InsertRotors event = new Events.InsertRotors();
+        event.begin();
         int mrotors = 0;
         for (int i = 0; i < _numRotors; i++) {
             String name = rotors[i];
@@ -54,6 +94,8 @@ class Machine {
         if (mrotors != numPawls()) {
             throw error("number of moving rotors does not match pawls");
         }
+        event.slots = _numRotors;
+        event.commit();
     }
 
     /** A function that clears all the rotors for a new line. */
@@ -71,6 +113,22 @@ class Machine {
         }
     }
 
+    /** Return the current settings of my rotors (not counting the
+     *  reflector) as a string of numRotors()-1 characters, in the form
+     *  accepted by setRotors. */
+    String rotorSettings() {
+        char[] setting = new char[numRotors() - 1];
+        for (int i = 1; i < numRotors(); i++) {
+            setting[i - 1] = _alphabet.toChar(_slots[i].setting());
+        }
+        return new String(setting);
+    }
+
+    /** Return my plugboard, or null if I have none. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
         _plugboard = plugboard;
@@ -81,11 +139,16 @@ class Machine {
      *  the machine. */
     int convert(int c) {
         advanceMachine();
+        return transform(c);
+    }
+
+    /** Returns the result of passing the input character C through the
+     *  plugboard, rotors and reflector in their current positions,
+     *  without advancing the machine. */
+    int transform(int c) {
         int temp = 0;
         if (_plugboard != null) {
-            int size = _alphabet.size();
-            char out = _plugboard.permute(_alphabet.toChar(c % size));
-            temp = _alphabet.toInt(out);
+            temp = _plugboard.permute(c);
         } else {
             temp = c;
         }
@@ -103,12 +166,32 @@ class Machine {
     }
 
 
+    /** Returns the single permutation performed by the plugboard, rotors
+     *  and reflector in their current positions, so that transform(c)
+     *  is currentPermutation().permute(c). */
+    Permutation currentPermutation() {
+        Permutation result = _plugboard;
+        if (result == null) {
+            result = new Permutation(_alphabet);
+        }
+        for (int j = numRotors() - 1; j >= 1; j--) {
+            result = result.compose(_slots[j].currentPermutation());
+        }
+        result = result.compose(_slots[0].currentPermutation());
+        for (int i = 1; i < numRotors(); i++) {
+            result = result.compose(_slots[i].currentPermutation().inverse());
+        }
+        if (_plugboard != null) {
+            result = result.compose(_plugboard.inverse());
+        }
+        return result;
+    }
+
     /**
      * AdvanceMachine advances the rotors that must me advanced in a machine.
      */
     void advanceMachine() {
-        boolean[] needs2move = new boolean[numRotors()];
-        needs2move[0] = false;
+        boolean[] needs2move = _moves;
         needs2move[numRotors() - 1] = true;
         for (int i = numRotors() - numPawls(); i < numRotors() - 1; i++) {
             if (_slots[i].rotates() && _slots[i + 1].atNotch()) {
@@ -119,10 +202,48 @@ class Machine {
         for (int i = 0; i < numRotors(); i++) {
             if (needs2move[i]) {
                 _slots[i].advance();
+                needs2move[i] = false;
             }
         }
     }
 
+    /** Advance my rotors STEPS times, as advanceMachine does.  The
+     *  positions of the rotors that can move determine the next
+     *  positions, so they eventually repeat; when there are at most
+     *  MAX_STATES possible positions, those seen are recorded, and once
+     *  one recurs, the whole cycles from it on are skipped. */
+    void advance(long steps) {
+        int n = numRotors(), first = n - numPawls();
+        int size = _alphabet.size();
+        long states = 1;
+        for (int k = first; k < n && states <= MAX_STATES; k += 1) {
+            states *= size;
+        }
+        if (steps <= states || states > MAX_STATES) {
+            for (long t = 0; t < steps; t += 1) {
+                advanceMachine();
+            }
+            return;
+        }
+        int[] seen = new int[(int) states];
+        Arrays.fill(seen, -1);
+        for (int t = 0; ; t += 1) {
+            int state = 0;
+            for (int k = first; k < n; k += 1) {
+                state = state * size + _slots[k].setting();
+            }
+            if (seen[state] >= 0) {
+                long rest = (steps - t) % (t - seen[state]);
+                for (long u = 0; u < rest; u += 1) {
+                    advanceMachine();
+                }
+                return;
+            }
+            seen[state] = t;
+            advanceMachine();
+        }
+    }
+
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
@@ -136,6 +257,10 @@ class Machine {
         return retval;
     }
 
+    /** Greatest number of rotor positions for which advance records
+     *  those it has seen. */
+    static final long MAX_STATES = 1 << 20;
+
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 
@@ -148,6 +273,10 @@ class Machine {
     /** The rotors of a given machine. */
     private Rotor[] _slots;
 
+    /** Slots to be advanced by advanceMachine (all false between
+     *  steps). */
+    private final boolean[] _moves;
+
     /** The plugboard of a Machine. */
     private Permutation _plugboard;
 
@@ -0,0 +1,353 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** A Flow.Processor that passes a stream of text in the input format of
+ *  Main through a Machine, producing the text that Main would print.
+ *  The input may be cut into buffers anywhere, even in the middle of a
+ *  settings line; a line beginning with '*' sets up the machine, as
+ *  for Main.setUp, and every other line is encrypted (or decrypted) and
+ *  printed in groups of five.
+ *
+ *  Buffers are handled without copying or allocation.  The processor
+ *  requests one input buffer at a time, and only while its subscriber
+ *  has outstanding demand; it may hold on to (and read) an input buffer
+ *  until it requests the next one.  Output is coalesced into a single
+ *  buffer that is delivered when it is full, at the start of each new
+ *  message once it holds at least the coalescing threshold, and at the
+ *  end of the input.  A subscriber must consume or copy each output
+ *  buffer before onNext returns, since the buffer is then reused.
+ *  @author Alessandro Buy
+ */
+class MachineProcessor
+    implements Flow.Processor<ByteBuffer, ByteBuffer> {
+
+    /** A processor that converts input with machine M, which need not
+     *  have been set up, delivering output in buffers of BUFFERSIZE
+     *  bytes and holding back output until it has at least COALESCE
+     *  bytes (or the input has ended). */
+    MachineProcessor(Machine M, int bufferSize, int coalesce) {
+        if (bufferSize < 2 || coalesce < 0 || coalesce > bufferSize) {
+            throw error("bad buffer sizes");
+        }
+        _machine = M;
+        _alphabet = M.alphabet();
+        _out = ByteBuffer.allocate(bufferSize);
+        _coalesce = coalesce;
+        _settings = new byte[INITIAL_SETTINGS_SIZE];
+    }
+
+    /** A processor that converts input with machine M, using default
+     *  buffer sizes. */
+    MachineProcessor(Machine M) {
+        this(M, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_SIZE / 2);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (_downstream != null) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(
+                new IllegalStateException("already subscribed"));
+            return;
+        }
+        _downstream = subscriber;
+        subscriber.onSubscribe(new Downstream());
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (_upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        _upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+        _pending = item;
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        _error = throwable;
+        _upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        _upstreamDone = true;
+        drain();
+    }
+
+    /** Do whatever work the current demand and input allow.  Only one
+     *  thread at a time gets past the _wip check; signals that arrive
+     *  meanwhile (including reentrant ones) make it go around again. */
+    private void drain() {
+        if (_wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            if (_downstream != null && _upstream != null) {
+                try {
+                    step();
+                } catch (EnigmaException excp) {
+                    _upstream.cancel();
+                    fail(excp);
+                }
+            }
+            missed = _wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /** Convert pending input and deliver output for as long as demand
+     *  and input last. */
+    private void step() {
+        while (!_finished) {
+            if (_badRequest != null) {
+                _upstream.cancel();
+                fail(_badRequest);
+                return;
+            } else if (_cancelled) {
+                return;
+            }
+            if (_ready) {
+                if (_demand.get() == 0) {
+                    return;
+                }
+                emit();
+            } else if (_pending != null) {
+                convertPending();
+            } else if (_upstreamDone) {
+                if (_error != null) {
+                    fail(_error);
+                } else if (!_atLineStart || _settingsLength >= 0) {
+                    if (_out.hasRemaining()) {
+                        endLine();
+                    } else {
+                        _ready = true;
+                    }
+                } else if (_out.position() > 0) {
+                    _ready = true;
+                } else {
+                    _finished = true;
+                    _downstream.onComplete();
+                }
+            } else {
+                if (!_requested && _demand.get() > 0) {
+                    _requested = true;
+                    _upstream.request(1);
+                }
+                return;
+            }
+        }
+    }
+
+    /** Deliver the output buffer to the subscriber and reuse it. */
+    private void emit() {
+        _demand.decrementAndGet();
+        _out.flip();
+        _downstream.onNext(_out);
+        _out.clear();
+        _ready = false;
+    }
+
+    /** Signal THROWABLE to the subscriber and stop. */
+    private void fail(Throwable throwable) {
+        if (!_finished) {
+            _finished = true;
+            _downstream.onError(throwable);
+        }
+    }
+
+    /** Convert bytes of _pending until it is used up or the output
+     *  buffer must be delivered. */
+    private void convertPending() {
+        ByteBuffer in = _pending;
+        while (in.hasRemaining()) {
+            if (_out.remaining() < 2) {
+                _ready = true;
+                return;
+            }
+            byte b = in.get();
+            if (b == '\n') {
+                endLine();
+            } else if (_settingsLength >= 0) {
+                addSettingsByte(b);
+            } else if (_atLineStart && b == '*') {
+                _settingsLength = 0;
+                if (_out.position() >= _coalesce && _out.position() > 0) {
+                    _ready = true;
+                    return;
+                }
+            } else {
+                convertByte(b);
+            }
+        }
+        _pending = null;
+        _requested = false;
+    }
+
+    /** Finish the current input line. */
+    private void endLine() {
+        if (_settingsLength >= 0) {
+            int length = _settingsLength;
+            _settingsLength = -1;
+            Main.setUp(_machine, new String(_settings, 0, length));
+            _configured = true;
+        } else if (_configured) {
+            _out.put((byte) '\n');
+        }
+        _atLineStart = true;
+        _column = 0;
+    }
+
+    /** Append B to the settings line being collected. */
+    private void addSettingsByte(byte b) {
+        if (_settingsLength == _settings.length) {
+            byte[] bigger = new byte[2 * _settings.length];
+            System.arraycopy(_settings, 0, bigger, 0, _settingsLength);
+            _settings = bigger;
+        }
+        _settings[_settingsLength] = b;
+        _settingsLength += 1;
+    }
+
+    /** Convert message byte B, if it is not white space, and append it
+     *  to the output in its proper group. */
+    private void convertByte(byte b) {
+        _atLineStart = false;
+        char ch = (char) (b & 0xff);
+        if (ch == ' ' || ch == '\t' || ch == '\r' || ch == '\f'
+            || ch == '\u000b') {
+            return;
+        }
+        if (!_configured) {
+            throw error("missing settings line");
+        }
+        if (_column > 0 && _column % 5 == 0) {
+            _out.put((byte) ' ');
+        }
+        int c = _alphabet.toInt(Character.toUpperCase(ch));
+        _out.put((byte) _alphabet.toChar(_machine.convert(c)));
+        _column += 1;
+    }
+
+    /** The subscription given to my subscriber. */
+    private class Downstream implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                _badRequest = new IllegalArgumentException(
+                    "non-positive request: " + n);
+                drain();
+                return;
+            }
+            long current, next;
+            do {
+                current = _demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!_demand.compareAndSet(current, next));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            _cancelled = true;
+            if (_upstream != null) {
+                _upstream.cancel();
+            }
+        }
+    }
+
+    /** Default size of the output buffer. */
+    static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    /** Initial capacity for a settings line. */
+    private static final int INITIAL_SETTINGS_SIZE = 128;
+
+    /** The machine doing the conversion. */
+    private final Machine _machine;
+
+    /** The machine's alphabet. */
+    private final Alphabet _alphabet;
+
+    /** The output buffer. */
+    private final ByteBuffer _out;
+
+    /** Amount of output held back before starting a new message. */
+    private final int _coalesce;
+
+    /** The settings line being collected. */
+    private byte[] _settings;
+
+    /** Number of bytes in _settings, or -1 if not in a settings line. */
+    private int _settingsLength = -1;
+
+    /** Number of letters output on the current line. */
+    private int _column;
+
+    /** True iff nothing has been seen on the current input line. */
+    private boolean _atLineStart = true;
+
+    /** True iff a settings line has been applied. */
+    private boolean _configured;
+
+    /** My source. */
+    private volatile Flow.Subscription _upstream;
+
+    /** My subscriber. */
+    private volatile Flow.Subscriber<? super ByteBuffer> _downstream;
+
+    /** The input buffer being converted, or null. */
+    private volatile ByteBuffer _pending;
+
+    /** True iff an input buffer has been requested and not received. */
+    private boolean _requested;
+
+    /** True iff the output buffer must be delivered before going on. */
+    private boolean _ready;
+
+    /** True once the source has completed or failed. */
+    private volatile boolean _upstreamDone;
+
+    /** The failure reported by the source, if any. */
+    private volatile Throwable _error;
+
+    /** The error caused by an invalid request from the subscriber. */
+    private volatile Throwable _badRequest;
+
+    /** True once the subscriber has cancelled. */
+    private volatile boolean _cancelled;
+
+    /** True once the subscriber has been told of completion or error. */
+    private boolean _finished;
+
+    /** Output buffers requested by the subscriber and not yet
+     *  delivered. */
+    private final AtomicLong _demand = new AtomicLong();
+
+    /** Count of drain requests not yet handled. */
+    private final AtomicInteger _wip = new AtomicInteger();
+
+}
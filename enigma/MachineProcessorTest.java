@@ -0,0 +1,117 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the MachineProcessor class.
+ *  @author Alessandro Buy
+ */
+public class MachineProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A subscriber that collects its input into a string, requesting
+     *  one buffer at a time. */
+    static class Collector implements Flow.Subscriber<ByteBuffer> {
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            _subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            while (item.hasRemaining()) {
+                _text.append((char) item.get());
+            }
+            _subscription.request(1);
+        }
+
+        @Override
+        public synchronized void onError(Throwable throwable) {
+            _error = throwable;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            _done = true;
+            notifyAll();
+        }
+
+        /** Wait for the end of the stream and return its text. */
+        synchronized String result() throws InterruptedException {
+            while (!_done && _error == null) {
+                wait();
+            }
+            return _text.toString();
+        }
+
+        /** My source. */
+        private Flow.Subscription _subscription;
+        /** Text received so far. */
+        private StringBuilder _text = new StringBuilder();
+        /** True when the stream has completed. */
+        private boolean _done;
+        /** Error received, if any. */
+        private Throwable _error;
+    }
+
+    /** Return the output of a processor given INPUT in pieces of at
+     *  most CHUNK bytes, using a BUFSIZE-byte output buffer. */
+    private Collector run(String input, int chunk, int bufSize) {
+        MachineProcessor proc =
+            new MachineProcessor(navalMachine(), bufSize, bufSize / 2);
+        SubmissionPublisher<ByteBuffer> source =
+            new SubmissionPublisher<>(Runnable::run, 2);
+        Collector sink = new Collector();
+        source.subscribe(proc);
+        proc.subscribe(sink);
+        byte[] bytes = input.getBytes();
+        for (int i = 0; i < bytes.length; i += chunk) {
+            source.submit(ByteBuffer.wrap(bytes, i,
+                                          Math.min(chunk, bytes.length - i)));
+        }
+        source.close();
+        return sink;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testWholeInput() throws InterruptedException {
+        assertEquals("ILBDA AMTAZ\n",
+                     run("* B BETA I II III AAAA\nHello world\n", 1000, 64)
+                     .result());
+    }
+
+    @Test
+    public void testChunkedInput() throws InterruptedException {
+        String input = "\n* B BETA I II III AAAA\nHello world\n\n"
+            + "* B Beta I II III AAAA\r\nILBDA AMTAZ";
+        String expected = "ILBDA AMTAZ\n\nHELLO WORLD\n";
+        for (int chunk = 1; chunk < 8; chunk += 1) {
+            assertEquals(expected, run(input, chunk, 4).result());
+        }
+    }
+
+    @Test
+    public void testMissingSettings() throws InterruptedException {
+        Collector sink = run("Hello world\n", 3, 64);
+        sink.result();
+        assertTrue(sink._error instanceof EnigmaException);
+    }
+
+}
@@ -84,6 +84,37 @@ public class MachineTest {
                 mach.convert(mach.convert("AAAA")));
     }
 
+    @Test
+    public void testCurrentPermutation() {
+        Machine mach = TestUtils.navalMachine();
+        Main.setUp(mach, "B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)");
+        for (int step = 0; step < 100; step += 1) {
+            Permutation p = mach.currentPermutation();
+            for (int c = 0; c < 26; c += 1) {
+                assertEquals(mach.transform(c), p.permute(c));
+            }
+            assertTrue(p.derangement());
+            mach.advanceMachine();
+        }
+    }
+
+    @Test
+    public void testAdvance() {
+        Machine M = TestUtils.navalMachine();
+        for (long steps : new long[] { 0, 1, 500, 17576, 100_000,
+                                       1_234_567 }) {
+            Main.setUp(M, "B Beta III IV I AXLE");
+            M.advance(steps);
+            String advanced = M.rotorSettings();
+            Main.setUp(M, "B Beta III IV I AXLE");
+            for (long t = 0; t < steps; t += 1) {
+                M.advanceMachine();
+            }
+            assertEquals("after " + steps + " steps", M.rotorSettings(),
+                         advanced);
+        }
+    }
+
     /** Helper method to get the Str representation of the Rotor settings */
     private String getSetting(Alphabet alph, Rotor[] machineRotors) {
         String currSetting = "";
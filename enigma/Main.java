@@ -1,9 +1,19 @@
 package enigma;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Scanner;
 import java.util.StringTokenizer;
 import java.util.Set;
@@ -17,14 +27,88 @@ import static enigma.EnigmaException.*;
 public final class Main {
 
     /** Process a sequence of encryptions and decryptions, as
-     *  specified by ARGS, where 1 <= ARGS.length <= 3.
+     *  specified by ARGS, where 1 <= ARGS.length <= 3 after any leading
+     *  options.
      *  ARGS[0] is the name of a configuration file.
      *  ARGS[1] is optional; when present, it names an input file
      *  containing messages.  Otherwise, input comes from the standard
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *
+     *  The options are
+     *    --checkpoint=N  Every N bytes of input, record the progress of
+     *                    the run in the file ARGS[2].ckpt.
+     *    --resume        Continue from the checkpoint in ARGS[2].ckpt,
+     *                    if there is one, and go on checkpointing.
+     *  Both require named input and output files.  The checkpoint file is
+     *  removed when the run completes.
+     *    --threads=N     Read, convert and write in separate threads,
+     *                    using N threads to convert (see Pipeline).
+     *                    Cannot be combined with checkpoints.
+     *    --batch         ARGS[1] is a directory or a file-name pattern
+     *                    such as "in/*.inp", and ARGS[2] is a directory.
+     *                    Each input file is processed separately (see
+     *                    Batch) into the file of the same name in ARGS[2],
+     *                    reading the configuration only once.  ARGS[2]
+     *                    may not be the directory of an input file.
+     *    --jobs=N        With --batch, process N files at a time
+     *                    (default: one per processor).
+     *    --cache=N       Keep the results of converting up to about N
+     *                    bytes of messages, and use them instead of
+     *                    converting a message seen before with the same
+     *                    settings (see ResultCache).  Prints statistics
+     *                    on the standard error at the end.
+     *    --cache-dir=D   With --cache, spill results that do not fit in
+     *                    memory to files in directory D.
+     *    --messages=R    Process only the messages in ARGS[1] in the range
+     *                    R, which is N or N-M, counting the messages from
+     *                    1, finding them with a MessageIndex (which is
+     *                    made if there is none, or it is out of date).
+     *                    Cannot be combined with checkpoints.
+     *    --old-input=F   With --old-output=G, ARGS[1] is an edited
+     *                    version of the input file F, whose output G was
+     *                    produced with the same configuration, and only
+     *                    what the edits change is converted again, the
+     *                    rest being copied from G (see Reencryption).
+     *                    ARGS[2] may be G itself, in which case it is
+     *                    changed in place when possible.  Prints
+     *                    statistics on the standard error at the end.
+     *    --old-output=G  See --old-input.
+     *    --engine=E      Convert messages with engines of kind E, which is
+     *                    generic, composite, compiled (for each rotor
+     *                    order; see EngineCompiler), or auto (the default),
+     *                    to choose for each message the kind expected to
+     *                    be fastest (see EngineSelector).
+     *    --compile       The same as --engine=compiled.
+     *    --keystreams=N  Keep up to about N bytes of the keystreams of
+     *                    the settings lines seen more than once, and
+     *                    convert messages with those settings by looking
+     *                    up their keystreams instead of with an engine
+     *                    of the kind given by --engine (see
+     *                    KeystreamCache).  Prints statistics on the
+     *                    standard error at the end.  Cannot be combined
+     *                    with --engine, checkpoints, --cache or --bytes.
+     *    --keystream-length=L  With --keystreams, keep at most the first
+     *                    L positions of each keystream (default: 65536).
+     *    --quarantine=F  Instead of stopping at the first message that
+     *                    cannot be set up or converted, write each such
+     *                    message to the file F, after a line giving its
+     *                    byte offsets in the input and the error, and go
+     *                    on with the next settings line.  Prints the
+     *                    numbers of messages converted and rejected on
+     *                    the standard error at the end.  With --batch,
+     *                    F is a directory, and the rejected messages of
+     *                    each input go to the file of the same name in
+     *                    it.  Requires named input and output files, and
+     *                    cannot be combined with checkpoints, --threads,
+     *                    --cache or --bytes.
+     *    --bytes=S       The configuration is a byte configuration (see
+     *                    ByteMachine), and the input is any file of bytes,
+     *                    which is converted as a single message with byte
+     *                    settings line S (without '*').  There is no other
+     *                    processing of input or output. */
     public static void main(String... args) {
         try {
             new Main(args).process();
@@ -37,23 +121,266 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        int k;
+        for (k = 0; k < args.length && args[k].startsWith("--"); k += 1) {
+            setOption(args[k]);
+        }
+        args = Arrays.copyOfRange(args, k, args.length);
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
         _config = getInput(args[0]);
 
-        if (args.length > 1) {
-            _input = getInput(args[1]);
+        if (_keystreamCapacity > 0) {
+            if (_engineKind >= 0 || _resume || _checkpointInterval > 0
+                || _cacheCapacity > 0 || _byteSettings != null
+                || _oldInput != null || _oldOutput != null) {
+                throw error("--keystreams cannot be used with --engine, "
+                            + "checkpoints, --cache or --bytes");
+            }
+            _keystreams = new KeystreamCache(_keystreamCapacity,
+                                             _keystreamLength);
+        } else if (_keystreamLength != KeystreamCache.DEFAULT_LENGTH) {
+            throw error("--keystream-length needs --keystreams");
+        }
+
+        if (_batch) {
+            if (args.length != 3) {
+                throw error("--batch needs inputs and an output directory");
+            }
+            if (_threads > 0 || _resume || _checkpointInterval > 0
+                || _byteSettings != null || _cacheCapacity > 0
+                || _messages != null || _oldInput != null
+                || _oldOutput != null) {
+                throw error("--batch cannot be used with other options");
+            }
+            _batchInputs = args[1];
+            _batchOutput = args[2];
+            return;
+        }
+        if (_jobs > 0) {
+            throw error("--jobs needs --batch");
+        }
+
+        if (_quarantineFile != null) {
+            if (_threads > 0 || _resume || _checkpointInterval > 0
+                || _byteSettings != null || _cacheCapacity > 0
+                || _oldInput != null || _oldOutput != null) {
+                throw error("--quarantine cannot be used with checkpoints, "
+                            + "--threads, --cache or --bytes");
+            }
+            if (args.length < 3) {
+                throw error("--quarantine needs input and output files");
+            }
+        }
+
+        if (_oldInput != null || _oldOutput != null) {
+            if (_oldInput == null || _oldOutput == null) {
+                throw error("--old-input and --old-output go together");
+            }
+            if (_threads > 0 || _resume || _checkpointInterval > 0
+                || _byteSettings != null || _cacheCapacity > 0
+                || _messages != null || args.length != 3) {
+                throw error("re-encryption needs input and output files "
+                            + "and no other options");
+            }
+            _newInput = new File(args[1]);
+            _newOutput = new File(args[2]);
+            return;
+        }
+
+        if (_cacheDir != null && _cacheCapacity == 0) {
+            throw error("--cache-dir needs --cache");
+        }
+        if (_cacheCapacity > 0) {
+            if (_threads > 0 || _resume || _checkpointInterval > 0
+                || _byteSettings != null) {
+                throw error("--cache cannot be used with other options");
+            }
+            _cache = new ResultCache(_cacheCapacity, _cacheDir,
+                                     fingerprint(args[0]));
+        }
+
+        if (_byteSettings != null) {
+            if (_threads > 0 || _resume || _checkpointInterval > 0
+                || _messages != null) {
+                throw error("--bytes cannot be used with other options");
+            }
+            try {
+                _byteInput = args.length > 1
+                    ? new FileInputStream(args[1]) : System.in;
+            } catch (IOException excp) {
+                throw error("could not open %s", args[1]);
+            }
+            _output = args.length > 2 ? getOutput(args[2], 0) : System.out;
+            return;
+        }
+
+        if (_resume || _checkpointInterval > 0) {
+            if (_threads > 0) {
+                throw error("checkpoints cannot be used with --threads");
+            }
+            if (args.length < 3) {
+                throw error("checkpoints need input and output files");
+            }
+            if (_checkpointInterval == 0) {
+                _checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+            }
+            _checkpointFile = new File(args[2] + ".ckpt");
+            if (_resume) {
+                _resumeFrom = Checkpoint.read(_checkpointFile);
+            }
+        }
+        long inputStart = _resumeFrom == null ? 0 : _resumeFrom.input();
+        long outputStart = _resumeFrom == null ? 0 : _resumeFrom.output();
+
+        if (_messages != null) {
+            if (_resume || _checkpointInterval > 0 || args.length < 2) {
+                throw error("--messages needs an input file and "
+                            + "no checkpoints");
+            }
+            _input = openMessages(args[1], _messages);
+        } else if (args.length > 1) {
+            _input = LineReader.open(args[1], inputStart);
+            _inputSize = new File(args[1]).length() - inputStart;
         } else {
-            _input = new Scanner(System.in);
+            _input = new LineReader(System.in);
         }
 
         if (args.length > 2) {
-            _output = getOutput(args[2]);
+            _output = getOutput(args[2], outputStart);
         } else {
             _output = System.out;
         }
+
+        if (_quarantineFile != null) {
+            try {
+                quarantine(new PrintStream(new BufferedOutputStream(
+                               new FileOutputStream(_quarantineFile))),
+                           args[1], _outputFile);
+            } catch (IOException excp) {
+                throw error("could not open %s", _quarantineFile);
+            }
+        }
+    }
+
+    /** Return a reader for the lines of the messages in the file NAME
+     *  denoted by RANGE, which has the form N or N-M, where N and M are
+     *  message numbers counting from 1, using the file's MessageIndex. */
+    private static LineReader openMessages(String name, String range) {
+        MessageIndex index = MessageIndex.of(new File(name));
+        int dash = range.indexOf('-');
+        long first = index.number(dash < 0 ? range : range.substring(0, dash));
+        long last = dash < 0 ? first : index.number(range.substring(dash + 1));
+        if (last < first) {
+            throw error("bad range of messages: %s", range);
+        }
+        return LineReader.open(name, index.offset(first), index.end(last));
+    }
+
+    /** A Main with no files, used only to read configurations. */
+    private Main() {
+    }
+
+    /** A Main that processes the messages in INPUT, sending the results to
+     *  OUTPUT. */
+    Main(LineReader input, PrintStream output) {
+        _input = input;
+        _output = output;
+    }
+
+    /** Return an Enigma machine configured from the contents of the
+     *  configuration file named NAME. */
+    static Machine readConfig(String name) {
+        Main main = new Main();
+        main._config = main.getInput(name);
+        return main.readConfig();
+    }
+
+    /** Return an Enigma machine configured from the configuration
+     *  TEXT (the contents of a configuration file). */
+    static Machine parseConfig(String text) {
+        Main main = new Main();
+        main._config = new Scanner(text);
+        return main.readConfig();
+    }
+
+    /** Return the letters in the file named NAME as indices in ALPHABET,
+     *  ignoring case and any characters (such as white space and
+     *  punctuation) that are not in ALPHABET. */
+    static int[] readLetters(String name, Alphabet alphabet) {
+        String text;
+        try {
+            text = new String(Files.readAllBytes(Paths.get(name)));
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+        int[] letters = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = Character.toUpperCase(text.charAt(i));
+            if (alphabet.contains(c)) {
+                letters[n] = alphabet.toInt(c);
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(letters, n);
+    }
+
+    /** Record the command-line option OPTION (see comment on main). */
+    private void setOption(String option) {
+        if (option.equals("--resume")) {
+            _resume = true;
+        } else if (option.startsWith("--cache=")) {
+            _cacheCapacity = count(option, Long.MAX_VALUE);
+        } else if (option.startsWith("--cache-dir=")) {
+            _cacheDir = new File(option.substring(option.indexOf('=') + 1));
+        } else if (option.startsWith("--messages=")) {
+            _messages = option.substring(option.indexOf('=') + 1);
+        } else if (option.startsWith("--old-input=")) {
+            _oldInput = new File(option.substring(option.indexOf('=') + 1));
+        } else if (option.startsWith("--old-output=")) {
+            _oldOutput = new File(option.substring(option.indexOf('=') + 1));
+        } else if (option.startsWith("--engine=")) {
+            _engineKind = EngineSelector.kind(
+                option.substring(option.indexOf('=') + 1));
+        } else if (option.equals("--compile")) {
+            _engineKind = EngineSelector.COMPILED;
+        } else if (option.startsWith("--keystreams=")) {
+            _keystreamCapacity = count(option, Long.MAX_VALUE);
+        } else if (option.startsWith("--keystream-length=")) {
+            _keystreamLength = count(option, Integer.MAX_VALUE);
+        } else if (option.startsWith("--quarantine=")) {
+            _quarantineFile =
+                new File(option.substring(option.indexOf('=') + 1));
+        } else if (option.equals("--batch")) {
+            _batch = true;
+        } else if (option.startsWith("--threads=")) {
+            _threads = (int) count(option, Integer.MAX_VALUE);
+        } else if (option.startsWith("--jobs=")) {
+            _jobs = (int) count(option, Integer.MAX_VALUE);
+        } else if (option.startsWith("--bytes=")) {
+            _byteSettings = option.substring(option.indexOf('=') + 1);
+        } else if (option.startsWith("--checkpoint=")) {
+            _checkpointInterval = count(option, Long.MAX_VALUE);
+        } else {
+            throw error("unknown option: %s", option);
+        }
+    }
+
+    /** Return the value of OPTION, which has the form --NAME=N, where N
+     *  must be an integer in the range 1 .. MAX. */
+    private static long count(String option, long max) {
+        try {
+            long n = Long.parseLong(option.substring(option.indexOf('=') + 1));
+            if (n > 0 && n <= max) {
+                return n;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to the error below. */
+        }
+        throw error("bad value for option %s", option);
     }
 
     /** Return a Scanner reading from the file named NAME. */
@@ -65,10 +392,16 @@ public final class Main {
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a PrintStream writing to the file named NAME, keeping its
+     *  first LENGTH bytes and discarding the rest. */
+    private PrintStream getOutput(String name, long length) {
         try {
-            return new PrintStream(new File(name));
+            _outputFile = new FileOutputStream(new File(name), length > 0);
+            if (_outputFile.getChannel().size() < length) {
+                throw error("%s is shorter than its checkpoint", name);
+            }
+            _outputFile.getChannel().truncate(length);
+            return new PrintStream(new BufferedOutputStream(_outputFile));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -77,46 +410,527 @@ public final class Main {
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
-    private void process() {
+    void process() {
         Machine M = readConfig();
         try {
-            String star = _input.next();
-            String line = _input.nextLine();
-            setUp(M, line);
-            String nxt = "";
-            while (_input.hasNextLine()) {
-                nxt = _input.nextLine() + "\n";
-                if (nxt.length() != 0 && !nxt.substring(0, 1).equals("*")) {
-                    nxt = nxt.replaceAll("\\s", "");
-                    nxt = nxt.toUpperCase().trim();
-                    String rv = M.convert(nxt);
-                    printMessageLine(rv);
+            process(M);
+        } finally {
+            if (_keystreams != null) {
+                System.err.println(_keystreams.stats());
+            }
+        }
+    }
+
+    /** Apply M to the messages in _input, sending the results to
+     *  _output, as directed by the options. */
+    private void process(Machine M) {
+        if (_batch) {
+            int jobs = _jobs > 0 ? _jobs
+                : Runtime.getRuntime().availableProcessors();
+            new Batch(M, Batch.inputs(_batchInputs), new File(_batchOutput),
+                      jobs, _quarantineFile, _keystreams).run();
+            return;
+        }
+        if (_byteSettings != null) {
+            processBytes(M);
+            return;
+        }
+        if (_oldInput != null) {
+            Reencryption update =
+                new Reencryption(M, _oldInput, _oldOutput, _newInput,
+                                 _newOutput);
+            update.run();
+            System.err.println(update.stats());
+            return;
+        }
+        if (_cache != null) {
+            try {
+                processCached(M);
+            } finally {
+                System.err.println(_cache.stats());
+            }
+            return;
+        }
+        if (_threads > 0) {
+            try {
+                new Pipeline(M, _input, _output, _threads, _engineKind,
+                             _keystreams).run();
+            } finally {
+                flush();
+            }
+            return;
+        }
+        if (_quarantine != null) {
+            try {
+                processMessages(M);
+            } finally {
+                _quarantine.close();
+            }
+            System.err.printf("%d messages converted, %d rejected%n",
+                              _converted, _rejected);
+            return;
+        }
+        processMessages(M);
+    }
+
+    /** Apply M to the messages in _input, sending the results to
+     *  _output (or, if there is a quarantine, as for
+     *  processQuarantined). */
+    void processMessages(Machine M) {
+        if (_quarantine != null) {
+            processQuarantined(M);
+            return;
+        }
+        Events.MessageConversion message = null;
+        try {
+            if (_resumeFrom != null) {
+                _settings = _resumeFrom.settings();
+                setUp(M, _settings);
+                M.setRotors(_resumeFrom.positions());
+            } else {
+                setUpFirst(M);
+            }
+            Engine engine = engine(M);
+            long nextCheckpoint = _input.position() + _checkpointInterval;
+            message = startMessage();
+            while (_input.nextLine()) {
+                if (_input.length() == 0
+                    || _input.buffer()[_input.start()] != '*') {
+                    message.lines += 1;
+                    message.length += convertLine(engine, M.alphabet());
                 } else {
-                    setUp(M, nxt.substring(1));
+                    finishMessage(message.length);
+                    message.commit();
+                    _settings = _input.line().substring(1);
+                    setUp(M, _settings);
+                    engine = engine(M);
+                    message = startMessage();
+                }
+                if (_checkpointFile != null
+                    && _input.position() >= nextCheckpoint) {
+                    engine.store(M);
+                    checkpoint(M);
+                    nextCheckpoint = _input.position() + _checkpointInterval;
                 }
             }
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
+        } finally {
+            if (message != null) {
+                finishMessage(message.length);
+                message.commit();
+            }
+            flush();
+        }
+        if (_checkpointFile != null) {
+            _checkpointFile.delete();
+        }
+    }
+
+    /** Apply M to the messages in _input, sending the results to
+     *  _output as for processMessages, except that each message whose
+     *  settings line or text causes an error produces no output, and is
+     *  instead written to _quarantine, after a line giving its byte
+     *  offsets in _input and the error.  Nothing is copied for a message
+     *  that succeeds: the output of one that fails is truncated away,
+     *  and its input is read again from the file _inputName. */
+    private void processQuarantined(Machine M) {
+        try {
+            Engine engine = null;
+            Events.MessageConversion message = null;
+            String failure = null;
+            long start = -1, outputStart = 0;
+            while (_input.nextLine()) {
+                boolean settings = _input.length() > 0
+                    && _input.buffer()[_input.start()] == '*';
+                if (start < 0) {
+                    if (_input.line().trim().isEmpty()) {
+                        continue;
+                    }
+                    settings = true;
+                }
+                if (settings && start >= 0) {
+                    endQuarantined(message, failure, start, _input.offset(),
+                                   outputStart);
+                }
+                if (settings) {
+                    _settings = start < 0 ? settingsOf(_input.line())
+                        : _input.line().substring(1);
+                    start = _input.offset();
+                    outputStart = _outputCount.count();
+                    message = null;
+                    failure = null;
+                    try {
+                        setUp(M, _settings);
+                        engine = engine(M);
+                        message = startMessage();
+                    } catch (EnigmaException excp) {
+                        failure = excp.getMessage();
+                    }
+                } else if (failure == null) {
+                    try {
+                        message.lines += 1;
+                        message.length += convertLine(engine, M.alphabet());
+                    } catch (EnigmaException excp) {
+                        failure = excp.getMessage();
+                    }
+                }
+            }
+            if (start >= 0) {
+                endQuarantined(message, failure, start, _input.position(),
+                               outputStart);
+            }
+        } finally {
+            flush();
+            _quarantine.flush();
+        }
+    }
+
+    /** End the message at bytes START up to END of _input, whose
+     *  conversion is MESSAGE (null if it could not be set up), and whose
+     *  output began at offset OUTPUTSTART of _output.  If FAILURE is not
+     *  null, remove that output and write the message and FAILURE to
+     *  _quarantine instead. */
+    private void endQuarantined(Events.MessageConversion message,
+                                String failure, long start, long end,
+                                long outputStart) {
+        if (message != null) {
+            finishMessage(message.length);
+        }
+        if (failure == null) {
+            message.commit();
+            _converted += 1;
+            return;
+        }
+        flush();
+        try {
+            _outputFile.getChannel().truncate(outputStart);
+        } catch (IOException excp) {
+            throw error("could not write output");
+        }
+        _outputCount.setCount(outputStart);
+        _quarantine.printf("# bytes %d-%d: %s%n", start, end, failure);
+        LineReader rejected = LineReader.open(_inputName, start, end);
+        try {
+            while (rejected.nextLine()) {
+                _quarantine.write(rejected.buffer(), rejected.start(),
+                                  rejected.length());
+                _quarantine.write('\n');
+            }
+        } finally {
+            rejected.close();
+        }
+        _rejected += 1;
+    }
+
+    /** Make engine use KEYSTREAMS, which may be shared with other
+     *  Mains (see --keystreams). */
+    void keystreams(KeystreamCache keystreams) {
+        _keystreams = keystreams;
+    }
+
+    /** Make processMessages write each message that cannot be set up or
+     *  converted to REJECTS (see processQuarantined), instead of
+     *  stopping.  My input must be read from the file named INPUT, at
+     *  the offsets it has in that file, and my output is then written to
+     *  OUTPUT, which must be empty, instead. */
+    void quarantine(PrintStream rejects, String input,
+                    FileOutputStream output) {
+        _quarantine = rejects;
+        _inputName = input;
+        _outputFile = output;
+        _outputCount =
+            new CountingOutputStream(new BufferedOutputStream(output));
+        _output = new PrintStream(_outputCount);
+    }
+
+    /** Return the number of messages converted by processMessages with a
+     *  quarantine. */
+    long converted() {
+        return _converted;
+    }
+
+    /** Return the number of messages rejected by processMessages with a
+     *  quarantine. */
+    long rejected() {
+        return _rejected;
+    }
+
+    /** Apply M to the messages in _input, sending the results to
+     *  _output, and using _cache to avoid converting any message that
+     *  has been seen before with the same settings.  The lines of a
+     *  message are collected (normalized) until the next settings line,
+     *  unless there are more than MAX_CACHED_MESSAGE characters, in which
+     *  case the rest of the message is converted directly. */
+    private void processCached(Machine M) {
+        Events.MessageConversion event = null;
+        try {
+            String settings = firstSettings();
+            StringBuilder message = new StringBuilder();
+            List<String> lines = new ArrayList<>();
+            Engine engine = null;
+            while (true) {
+                boolean more = _input.nextLine();
+                String line = more ? _input.line() : null;
+                if (!more || line.startsWith("*")) {
+                    if (engine == null) {
+                        convertCached(M, settings, lines, message);
+                    } else {
+                        finishMessage(event.length);
+                        event.commit();
+                        event = null;
+                    }
+                    if (!more) {
+                        break;
+                    }
+                    settings = line.substring(1);
+                    lines.clear();
+                    message.setLength(0);
+                    engine = null;
+                    continue;
+                }
+                line = line.replaceAll("\\s", "").toUpperCase();
+                if (engine != null) {
+                    printMessageLine(convert(engine, M.alphabet(), line));
+                    event.lines += 1;
+                    event.length += line.length();
+                    continue;
+                }
+                lines.add(line);
+                message.append(line).append('\n');
+                if (message.length() > MAX_CACHED_MESSAGE) {
+                    _settings = settings;
+                    setUp(M, settings);
+                    engine = engine(M);
+                    event = startMessage();
+                    for (String msg : lines) {
+                        printMessageLine(convert(engine, M.alphabet(), msg));
+                    }
+                    event.lines = lines.size();
+                    event.length = message.length() - lines.size();
+                }
+            }
+        } finally {
+            if (event != null) {
+                finishMessage(event.length);
+                event.commit();
+            }
+            flush();
+        }
+    }
+
+    /** Print the conversion of LINES, the normalized lines of a message
+     *  with settings SETTINGS, forming MESSAGE, taking it from _cache if
+     *  possible, and otherwise converting it with M and caching the
+     *  result. */
+    private void convertCached(Machine M, String settings,
+                               List<String> lines, StringBuilder message) {
+        String key = normalizeSettings(settings, M.numRotors()) + "\n"
+            + message;
+        String result = _cache.get(key);
+        if (result != null) {
+            _output.print(result);
+            return;
+        }
+        _settings = settings;
+        setUp(M, settings);
+        Engine engine = engine(M);
+        Events.MessageConversion event = startMessage();
+        StringBuilder output = new StringBuilder();
+        for (String line : lines) {
+            int start = output.length();
+            appendMessageLine(output,
+                              convert(engine, M.alphabet(), line));
+            _output.append(output, start, output.length());
+        }
+        event.lines = lines.size();
+        event.length = message.length() - lines.size();
+        finishMessage(event.length);
+        event.commit();
+        _cache.put(key, output.toString());
+    }
+
+    /** Return SETTINGS, a settings line for a machine with ROTORS slots,
+     *  with white space made uniform: the rotor names and setting
+     *  separated by single blanks and followed by the plugboard without
+     *  blanks. */
+    static String normalizeSettings(String settings, int rotors) {
+        String[] tokens = settings.trim().split("\\s+");
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < tokens.length; i += 1) {
+            if (i > 0 && i <= rotors + 1) {
+                result.append(' ');
+            }
+            result.append(tokens[i]);
+        }
+        return result.toString();
+    }
+
+    /** Return a hexadecimal hash of the contents of the file named
+     *  NAME. */
+    private static String fingerprint(String name) {
+        try {
+            return String.format("%016x", ResultCache.hash(
+                new String(Files.readAllBytes(Paths.get(name)),
+                           StandardCharsets.ISO_8859_1)));
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+    }
+
+    /** Return the Engine with which to convert the message for which M
+     *  has just been set up with _settings (see --engine and
+     *  --keystreams).  Each message converted with it is to be ended by
+     *  finishMessage. */
+    private Engine engine(Machine M) {
+        if (_keystreams != null) {
+            return _keystreams.engine(M, _settings);
+        }
+        if (_selector == null) {
+            _selector = new EngineSelector(_engineKind);
+            _selector.expect(_inputSize);
+        }
+        return _selector.engine(M);
+    }
+
+    /** Record that the message converted with the last Engine returned by
+     *  engine had LENGTH characters. */
+    private void finishMessage(long length) {
+        if (_selector != null) {
+            _selector.finish(length);
+        }
+    }
+
+    /** Return the conversion of MSG, a string of characters in ALPHABET,
+     *  by ENGINE. */
+    private static String convert(Engine engine, Alphabet alphabet,
+                                  String msg) {
+        char[] result = new char[msg.length()];
+        for (int i = 0; i < msg.length(); i += 1) {
+            result[i] =
+                alphabet.toChar(engine.convert(alphabet.toInt(msg.charAt(i))));
+        }
+        return new String(result);
+    }
+
+    /** Convert all of _byteInput with M as a single message with byte
+     *  settings _byteSettings, sending the results to _output. */
+    private void processBytes(Machine M) {
+        ByteMachine.setUp(M, _byteSettings);
+        ByteMachine engine = new ByteMachine(M);
+        byte[] buffer = new byte[BYTE_BUFFER_SIZE];
+        try {
+            int n;
+            while ((n = _byteInput.read(buffer)) > 0) {
+                engine.convert(buffer, 0, n);
+                _output.write(buffer, 0, n);
+            }
+        } catch (IOException excp) {
+            throw error("error reading input: %s", excp.getMessage());
+        } finally {
+            flush();
+        }
+        if (_output.checkError()) {
+            throw error("error writing output");
+        }
+    }
+
+    /** Return a new, started event for the conversion of the message
+     *  whose settings are _settings. */
+    private Events.MessageConversion startMessage() {
+        Events.MessageConversion message = new Events.MessageConversion();
+        if (message.isEnabled()) {
+            message.settings = _settings;
+            message.engine = _selector == null ? "keystream"
+                : _selector.choice();
+        }
+        message.begin();
+        return message;
+    }
+
+    /** Flush _output. */
+    private void flush() {
+        Events.OutputFlush event = new Events.OutputFlush();
+        event.begin();
+        _output.flush();
+        event.commit();
+    }
+
+    /** Set M according to the first non-blank line of _input, ignoring
+     *  its first token (the '*'). */
+    private void setUpFirst(Machine M) {
+        _settings = firstSettings();
+        setUp(M, _settings);
+    }
+
+    /** Return the first non-blank line of _input without its first token
+     *  (the '*'). */
+    private String firstSettings() {
+        String line;
+        do {
+            if (!_input.nextLine()) {
+                throw error("missing settings line");
+            }
+            line = _input.line().trim();
+        } while (line.isEmpty());
+        return settingsOf(line);
+    }
+
+    /** Return LINE, a settings line, without leading white space and its
+     *  first token (the '*'). */
+    private static String settingsOf(String line) {
+        line = line.trim();
+        int k;
+        for (k = 0; k < line.length(); k += 1) {
+            if (Character.isWhitespace(line.charAt(k))) {
+                break;
+            }
+        }
+        return line.substring(k);
+    }
+
+    /** Record in _checkpointFile that all input before the current
+     *  position of _input has been processed by M, first making sure
+     *  that the corresponding output is on disk. */
+    private void checkpoint(Machine M) {
+        Events.OutputFlush event = new Events.OutputFlush();
+        event.begin();
+        _output.flush();
+        try {
+            _outputFile.getFD().sync();
+            event.synced = true;
+            event.commit();
+            new Checkpoint(_input.position(), _outputFile.getChannel().size(),
+                           _settings, M.rotorSettings())
+                .write(_checkpointFile);
+        } catch (IOException excp) {
+            throw error("could not write checkpoint: %s", excp.getMessage());
         }
     }
 
     /** Return an Enigma machine configured from the contents of configuration
      *  file _config. */
     private Machine readConfig() {
+        Events.ConfigLoad event = new Events.ConfigLoad();
+        event.begin();
         try {
             String s = _config.next();
-            if (!Character.isAlphabetic(s.charAt(0))
+            if (s.equals("bytes")) {
+                _alphabet = new ByteAlphabet();
+            } else if (!Character.isAlphabetic(s.charAt(0))
                     || !Character.isAlphabetic(s.charAt(2))) {
                 throw error("Bad alphabet spec");
+            } else {
+                _alphabet = new CharacterRange(s.charAt(0), s.charAt(2));
             }
-            _alphabet = new CharacterRange(s.charAt(0), s.charAt(2));
             int rotors = _config.nextInt();
             int pawls = _config.nextInt();
             Set<Rotor> slots = new HashSet<>();
             while (_config.hasNext()) {
                 slots.add(readRotor());
             }
-            return new Machine(_alphabet, rotors, pawls, slots);
+            Machine M = new Machine(_alphabet, rotors, pawls, slots);
+            event.rotors = slots.size();
+            event.commit();
+            return M;
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
         }
@@ -133,6 +947,9 @@ public final class Main {
                 name = _config.next();
             }
             String mobility = _config.next();
+            if (_alphabet instanceof ByteAlphabet) {
+                return readByteRotor(name, mobility);
+            }
             String permutations = "";
             while (_config.hasNext()) {
                 String perm = _config.next();
@@ -161,9 +978,32 @@ public final class Main {
         }
     }
 
+    /** Return the rotor named NAME of type MOBILITY in a byte
+     *  configuration, reading its table from _config. */
+    private Rotor readByteRotor(String name, String mobility) {
+        Permutation p =
+            new Permutation(ByteMachine.parseHex(_config.next()), _alphabet);
+        if (mobility.charAt(0) == 'M') {
+            int[] notches = ByteMachine.parseHex(mobility.substring(1));
+            char[] chars = new char[notches.length];
+            for (int i = 0; i < notches.length; i += 1) {
+                chars[i] = (char) notches[i];
+            }
+            return new MovingRotor(name, p, new String(chars));
+        } else if (mobility.charAt(0) == 'N') {
+            return new FixedRotor(name, p);
+        } else if (mobility.charAt(0) == 'R') {
+            return new Reflector(name, p);
+        } else {
+            throw error("bad rotor type: %s", mobility);
+        }
+    }
+
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
+    static void setUp(Machine M, String settings) {
+        Events.MessageSetup event = new Events.MessageSetup();
+        event.begin();
         StringTokenizer st = new StringTokenizer(settings);
         String[] names = new String[M.numRotors()];
         try {
@@ -189,23 +1029,85 @@ public final class Main {
         } catch (NoSuchElementException e) {
             throw error("bad plugboard");
         }
-        Permutation plug = new Permutation(pb, _alphabet);
+        Permutation plug = new Permutation(pb, M.alphabet());
         M.setPlugboard(plug);
+        if (event.shouldCommit()) {
+            event.settings = settings;
+            event.commit();
+        }
+    }
+
+
+    /** Convert the current line of _input, a message line, with ENGINE,
+     *  whose alphabet is ALPHABET, and print the result as for
+     *  printMessageLine.  Return the number of characters converted.
+     *  A line of ASCII characters is converted and printed through
+     *  buffers without creating any objects. */
+    private int convertLine(Engine engine, Alphabet alphabet) {
+        byte[] buf = _input.buffer();
+        int start = _input.start(), end = start + _input.length();
+        for (int i = start; i < end; i += 1) {
+            if (buf[i] < ' ' && !isSpace(buf[i])) {
+                String rv = convert(engine, alphabet,
+                    _input.line().replaceAll("\\s", "").toUpperCase().trim());
+                printMessageLine(rv);
+                return rv.length();
+            }
+        }
+        int size = 2 * _input.length() + 1;
+        if (_outChars.length < size) {
+            _outChars = new char[size];
+            _outBytes = new byte[size];
+        }
+        int n = 0, k = 0, wide = 0;
+        for (int i = start; i < end; i += 1) {
+            if (isSpace(buf[i])) {
+                continue;
+            }
+            if (n > 0 && n % 5 == 0) {
+                _outChars[k++] = ' ';
+            }
+            char c = alphabet.toChar(engine.convert(
+                alphabet.toInt(Character.toUpperCase((char) buf[i]))));
+            _outChars[k++] = c;
+            wide |= c;
+            n += 1;
+        }
+        _outChars[k++] = '\n';
+        if (wide < ASCII_LIMIT) {
+            for (int i = 0; i < k; i += 1) {
+                _outBytes[i] = (byte) _outChars[i];
+            }
+            _output.write(_outBytes, 0, k);
+        } else {
+            _output.print(new String(_outChars, 0, k));
+        }
+        return n;
     }
 
+    /** Return true iff B is a white-space byte, as matched by \s. */
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b >= '\t' && b <= '\r';
+    }
 
     /** Print MSG in groups of five (except that the last group may
      *  have fewer letters). */
     private void printMessageLine(String msg) {
+        _line.setLength(0);
+        appendMessageLine(_line, msg);
+        _output.append(_line);
+    }
+
+    /** Append MSG to OUT in groups of five (except that the last group
+     *  may have fewer letters), followed by a newline. */
+    static void appendMessageLine(StringBuilder out, String msg) {
         for (int i = 0; i < msg.length(); i = i + 5) {
             if (i > 0) {
-                _output.print(" ");
+                out.append(' ');
             }
-            String out = msg.substring(i,
-                    (i + 5 <= msg.length()) ? i + 5 : msg.length());
-            _output.print(out);
+            out.append(msg, i, Math.min(i + 5, msg.length()));
         }
-        _output.print("\n");
+        out.append('\n');
     }
 
 
@@ -213,7 +1115,7 @@ public final class Main {
     private Alphabet _alphabet;
 
     /** Source of input messages. */
-    private Scanner _input;
+    private LineReader _input;
 
     /** Source of machine configuration. */
     private Scanner _config;
@@ -221,6 +1123,125 @@ public final class Main {
     /** File for encoded/decoded messages. */
     private PrintStream _output;
 
+    /** The underlying output file, if output does not go to the
+     *  standard output. */
+    private FileOutputStream _outputFile;
+
     /** The name of the next String. */
     private String _nextname;
+
+    /** The settings line most recently applied, without its '*'. */
+    private String _settings;
+
+    /** Default number of input bytes between checkpoints. */
+    static final long DEFAULT_CHECKPOINT_INTERVAL = 1L << 26;
+
+    /** Number of input bytes between checkpoints. */
+    private long _checkpointInterval;
+
+    /** Number of converting threads (--threads), or 0 to process input
+     *  serially. */
+    private int _threads;
+
+    /** True iff many input files are processed (--batch). */
+    private boolean _batch;
+
+    /** With --batch, the input files and output directory. */
+    private String _batchInputs, _batchOutput;
+
+    /** Number of files processed at once (--jobs), or 0 for the
+     *  default. */
+    private int _jobs;
+
+    /** Memory limit of the cache of converted messages (--cache), or 0
+     *  if there is no cache. */
+    private long _cacheCapacity;
+
+    /** Directory to which the cache spills (--cache-dir), or null. */
+    private File _cacheDir;
+
+    /** The cache of converted messages, or null. */
+    private ResultCache _cache;
+
+    /** Longest message (in characters) that is cached. */
+    static final int MAX_CACHED_MESSAGE = 1 << 20;
+
+    /** Buffer for formatting output lines. */
+    private final StringBuilder _line = new StringBuilder();
+
+    /** Characters of the line being printed by convertLine. */
+    private char[] _outChars = new char[0];
+
+    /** The same characters as bytes. */
+    private byte[] _outBytes = new byte[0];
+
+    /** Characters below this are ASCII. */
+    private static final int ASCII_LIMIT = 0x80;
+
+    /** The messages to be processed (--messages), or null for all. */
+    private String _messages;
+
+    /** With --old-input and --old-output, the old input and output
+     *  files, or null. */
+    private File _oldInput, _oldOutput;
+
+    /** With --old-input, the new input and output files. */
+    private File _newInput, _newOutput;
+
+    /** The kind of Engine with which messages are converted (--engine),
+     *  or -1 to let _selector choose. */
+    private int _engineKind = -1;
+
+    /** The chooser of Engines, once there is one. */
+    private EngineSelector _selector;
+
+    /** Number of bytes of input to be processed, if known; otherwise
+     *  0. */
+    private long _inputSize;
+
+    /** Memory limit of the keystream cache (--keystreams), or 0 if there
+     *  is none. */
+    private long _keystreamCapacity;
+
+    /** Greatest length of a cached keystream (--keystream-length). */
+    private long _keystreamLength = KeystreamCache.DEFAULT_LENGTH;
+
+    /** The cache of keystreams, or null. */
+    private KeystreamCache _keystreams;
+
+    /** File to which rejected messages are written (--quarantine), or
+     *  null; with --batch, the directory of such files. */
+    private File _quarantineFile;
+
+    /** Output for rejected messages, or null if an error ends the run. */
+    private PrintStream _quarantine;
+
+    /** With a quarantine, the name of the input file, from which
+     *  rejected messages are read again. */
+    private String _inputName;
+
+    /** With a quarantine, the count of bytes written to _output. */
+    private CountingOutputStream _outputCount;
+
+    /** With a quarantine, the numbers of messages converted and
+     *  rejected. */
+    private long _converted, _rejected;
+
+    /** The byte settings line (--bytes), or null if not in byte mode. */
+    private String _byteSettings;
+
+    /** With --bytes, the source of input. */
+    private InputStream _byteInput;
+
+    /** Size of the buffer used in byte mode. */
+    private static final int BYTE_BUFFER_SIZE = 1 << 16;
+
+    /** True iff the run continues from a checkpoint (--resume). */
+    private boolean _resume;
+
+    /** File holding the latest checkpoint, or null if there is none. */
+    private File _checkpointFile;
+
+    /** The checkpoint from which the run resumes, or null. */
+    private Checkpoint _resumeFrom;
 }
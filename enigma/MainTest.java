@@ -0,0 +1,172 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/** The suite of JUnit tests for Main's processing of messages with a
+ *  quarantine.
+ *  @author Alessandro Buy
+ */
+public class MainTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** The configuration file used. */
+    static final String CONFIG = "../testing/correct/default.conf";
+
+    /** A good message and its conversion. */
+    static final String GOOD = "* B Beta III IV I AXLE\nHELLO WORLD\n",
+        GOOD_OUTPUT = "FHVGJ ZUKSG\n";
+
+    /** Messages that cannot be converted, each with the error that it
+     *  causes. */
+    static final String[][] BAD = {
+        { "* B Beta FOO IV I AXLE\nHELLO\nMORE\n",
+          "number of moving rotors does not match pawls" },
+        { "* B Beta III IV I AXLE\nHELLO\nHEL1O\nX\n",
+          "character out of range" },
+        { "* B Beta III IV I AXLE (AB\nQ\n", "No closing parenthesis" },
+        { "* B Beta III\nQ\n", "not enough rotor names in file" },
+    };
+
+    /** Write TEXT to FILE. */
+    static void write(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes());
+    }
+
+    /** Return the contents of FILE. */
+    static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()));
+    }
+
+    /** Remove the files in DIR, and DIR. */
+    static void remove(File dir) {
+        File[] files = dir.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /** Process INPUT with a quarantine, using files in DIR, and return
+     *  the output, the rejected messages, and the numbers of messages
+     *  converted and rejected. */
+    static String[] quarantined(String input, File dir) throws IOException {
+        File in = new File(dir, "in"), out = new File(dir, "out");
+        write(in, input);
+        ByteArrayOutputStream rejects = new ByteArrayOutputStream();
+        LineReader reader = LineReader.open(in.getPath(), 0);
+        try (FileOutputStream output = new FileOutputStream(out)) {
+            Main main = new Main(reader, null);
+            main.quarantine(new PrintStream(rejects), in.getPath(), output);
+            main.processMessages(Main.readConfig(CONFIG));
+            return new String[] {
+                read(out), rejects.toString(),
+                Long.toString(main.converted()),
+                Long.toString(main.rejected()),
+            };
+        } finally {
+            reader.close();
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testCleanInput() throws IOException {
+        File dir = Files.createTempDirectory("enigma").toFile();
+        try {
+            String[] result = quarantined(
+                "\n" + GOOD + GOOD + "* B Beta III IV I AXLE\n\n", dir);
+            assertArrayEquals(new String[] {
+                GOOD_OUTPUT + GOOD_OUTPUT + "\n", "", "3", "0"
+            }, result);
+        } finally {
+            remove(dir);
+        }
+    }
+
+    @Test
+    public void testRejects() throws IOException {
+        StringBuilder input = new StringBuilder(GOOD),
+            expected = new StringBuilder(GOOD_OUTPUT),
+            expectedRejects = new StringBuilder();
+        for (String[] bad : BAD) {
+            int start = input.length();
+            input.append(bad[0]);
+            expectedRejects.append(String.format("# bytes %d-%d: %s%n%s",
+                                                 start, input.length(),
+                                                 bad[1], bad[0]));
+            input.append(GOOD);
+            expected.append(GOOD_OUTPUT);
+        }
+        File dir = Files.createTempDirectory("enigma").toFile();
+        try {
+            String[] result = quarantined(input.toString(), dir);
+            assertArrayEquals(new String[] {
+                expected.toString(), expectedRejects.toString(),
+                Integer.toString(BAD.length + 1),
+                Integer.toString(BAD.length),
+            }, result);
+        } finally {
+            remove(dir);
+        }
+    }
+
+    @Test
+    public void testNeedsFiles() {
+        try {
+            new Main(new String[] { "--quarantine=rejects", CONFIG });
+            fail("--quarantine without files");
+        } catch (EnigmaException excp) {
+            assertEquals("--quarantine needs input and output files",
+                         excp.getMessage());
+        }
+    }
+
+    @Test
+    public void testBatch() throws IOException {
+        File dir = Files.createTempDirectory("enigma").toFile(),
+            in = new File(dir, "in"), out = new File(dir, "out"),
+            rejected = new File(dir, "rejected");
+        in.mkdir();
+        try {
+            Files.write(new File(in, "a.inp").toPath(),
+                        (GOOD + BAD[0][0]).getBytes());
+            Files.write(new File(in, "b.inp").toPath(), GOOD.getBytes());
+            new Batch(Main.readConfig(CONFIG), Batch.inputs(in.getPath()),
+                      out, 2, rejected, null).run();
+            for (String name : new String[] { "a.inp", "b.inp" }) {
+                assertEquals(GOOD_OUTPUT, new String(Files.readAllBytes(
+                    new File(out, name).toPath())));
+            }
+            assertTrue(new String(Files.readAllBytes(
+                new File(rejected, "a.inp").toPath())).endsWith(BAD[0][0]));
+            assertEquals(0, new File(rejected, "b.inp").length());
+        } finally {
+            for (File sub : Arrays.asList(in, out, rejected)) {
+                File[] files = sub.listFiles();
+                for (File file : files == null ? new File[0] : files) {
+                    file.delete();
+                }
+                sub.delete();
+            }
+            dir.delete();
+        }
+    }
+
+}
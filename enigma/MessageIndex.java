@@ -0,0 +1,291 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** An index of the messages in an input file, giving for each message
+ *  the byte offset of its settings line, its settings and its length (the
+ *  number of characters to be converted), so that any message, or range
+ *  of messages, can be processed by seeking directly to it (see the
+ *  --messages option of Main).  Messages are numbered from 0 here, and
+ *  from 1 on command lines.
+ *
+ *  An index is kept in a side file, whose name is that of the input file
+ *  followed by ".idx", and which contains a header (a magic number, and
+ *  the length and modification time of the input file, so that an index
+ *  that is out of date can be recognized, and the number of messages), a
+ *  fixed-size record for each message (its offset, its length and the
+ *  position of its settings), and the settings of all the messages (each
+ *  as a length and UTF-8 bytes, with white space reduced to single
+ *  blanks).  The records can thus be read in constant time from the
+ *  file, which is mapped into memory rather than read.
+ *  @author Alessandro Buy
+ */
+final class MessageIndex {
+
+    /** Index the input file ARGS[0], writing the index to its side file
+     *  (unless the side file is up to date), and print the number of
+     *  messages, or, if ARGS[1] is present, the offset, length and
+     *  settings of message number ARGS[1] (from 1).  Exits normally if
+     *  there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 1 || args.length > 2) {
+                throw error("usage: INPUT [MESSAGE]");
+            }
+            MessageIndex index = of(new File(args[0]));
+            if (args.length == 1) {
+                System.out.printf("%d messages%n", index.size());
+            } else {
+                long n = index.number(args[1]);
+                System.out.printf("%d %d %s%n", index.offset(n),
+                                  index.letters(n), index.settings(n));
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** An index whose contents (in the side-file format) are DATA. */
+    private MessageIndex(ByteBuffer data) {
+        _data = data;
+        if (data.capacity() < HEADER_SIZE || data.getLong(0) != MAGIC) {
+            throw error("not a message index");
+        }
+        _count = data.getLong(COUNT);
+        _strings = HEADER_SIZE + _count * RECORD_SIZE;
+        if (_count < 0 || _strings > data.capacity()) {
+            throw error("message index is damaged");
+        }
+    }
+
+    /** Return the index of INPUT, reading it from INPUT's side file if
+     *  that is up to date, and otherwise indexing INPUT and writing the
+     *  side file.  If the side file cannot be written (for example, in
+     *  a read-only directory), the index is still returned. */
+    static MessageIndex of(File input) {
+        if (!input.isFile()) {
+            throw error("could not open %s", input);
+        }
+        File side = sideFile(input);
+        if (side.isFile()) {
+            try {
+                MessageIndex index = load(side);
+                if (index.describes(input)) {
+                    return index;
+                }
+            } catch (EnigmaException excp) {
+                /* Index it again. */
+            }
+        }
+        MessageIndex index = build(input);
+        try {
+            index.save(side);
+        } catch (EnigmaException excp) {
+            /* Use the index without saving it. */
+        }
+        return index;
+    }
+
+    /** Return the side file for the input file INPUT. */
+    static File sideFile(File input) {
+        return new File(input.getPath() + ".idx");
+    }
+
+    /** Return an index of the messages in the file INPUT. */
+    static MessageIndex build(File input) {
+        long length = input.length(), modified = input.lastModified();
+        LineReader reader = LineReader.open(input.getPath(), 0);
+        try {
+            return build(reader, length, modified);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /** Return an index of the messages in INPUT, whose length is LENGTH
+     *  and whose modification time is MODIFIED. */
+    static MessageIndex build(LineReader input, long length, long modified) {
+        long[] records = new long[3 * INITIAL_MESSAGES];
+        int count = 0;
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(strings);
+        try {
+            while (input.nextLine()) {
+                byte[] buf = input.buffer();
+                int start = input.start(), end = start + input.length();
+                if (start < end && buf[start] == '*') {
+                    if (3 * count == records.length) {
+                        records = Arrays.copyOf(records, 2 * records.length);
+                    }
+                    records[3 * count] = input.offset();
+                    records[3 * count + 2] = out.size();
+                    byte[] settings = input.line().substring(1).trim()
+                        .replaceAll("\\s+", " ")
+                        .getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(settings.length);
+                    out.write(settings);
+                    count += 1;
+                } else if (count > 0) {
+                    records[3 * count - 2] += letters(buf, start, end);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not index input");
+        }
+        long size = HEADER_SIZE + (long) count * RECORD_SIZE + out.size();
+        if (size > Integer.MAX_VALUE) {
+            throw error("too many messages to index");
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) size);
+        data.putLong(MAGIC).putLong(length).putLong(modified).putLong(count);
+        data.asLongBuffer().put(records, 0, 3 * count);
+        data.position(HEADER_SIZE + count * RECORD_SIZE);
+        data.put(strings.toByteArray());
+        return new MessageIndex(data);
+    }
+
+    /** Return the number of characters other than white space in the
+     *  bytes of BUF from START up to END, counting a character encoded
+     *  as several bytes once. */
+    static long letters(byte[] buf, int start, int end) {
+        long count = 0;
+        for (int i = start; i < end; i += 1) {
+            int b = buf[i] & 0xff;
+            if (b != ' ' && (b < '\t' || b > '\r') && (b & 0xc0) != 0x80) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Return the index in the side file FILE. */
+    static MessageIndex load(File file) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() > Integer.MAX_VALUE) {
+                throw error("%s is too large", file);
+            }
+            return new MessageIndex(in.getChannel()
+                .map(FileChannel.MapMode.READ_ONLY, 0, in.length()));
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /** Write me to the side file FILE, replacing it atomically. */
+    void save(File file) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.getChannel().write(_data.duplicate().clear());
+        } catch (IOException excp) {
+            temp.delete();
+            throw error("could not write %s", file);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** Return true iff I index the current contents of INPUT, as far as
+     *  can be told from its length and modification time. */
+    boolean describes(File input) {
+        return _data.getLong(LENGTH) == input.length()
+            && _data.getLong(MODIFIED) == input.lastModified();
+    }
+
+    /** Return the number of messages. */
+    long size() {
+        return _count;
+    }
+
+    /** Return the number of the message denoted by NUMBER, a numeral
+     *  counting from 1. */
+    long number(String number) {
+        long n;
+        try {
+            n = Long.parseLong(number);
+        } catch (NumberFormatException excp) {
+            throw error("bad message number: %s", number);
+        }
+        if (n < 1 || n > _count) {
+            throw error("no message %s (there are %d)", number, _count);
+        }
+        return n - 1;
+    }
+
+    /** Return the byte offset of the settings line of message N. */
+    long offset(long n) {
+        return _data.getLong(record(n));
+    }
+
+    /** Return the byte offset just past the end of message N. */
+    long end(long n) {
+        return n + 1 < _count ? offset(n + 1) : _data.getLong(LENGTH);
+    }
+
+    /** Return the number of characters to be converted in message N. */
+    long letters(long n) {
+        return _data.getLong(record(n) + 8);
+    }
+
+    /** Return the settings of message N (without the '*'). */
+    String settings(long n) {
+        int pos = (int) (_strings + _data.getLong(record(n) + 16));
+        byte[] bytes = new byte[_data.getInt(pos)];
+        _data.duplicate().position(pos + 4).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Return the position in _data of the record of message N. */
+    private int record(long n) {
+        if (n < 0 || n >= _count) {
+            throw error("no message %d", n + 1);
+        }
+        return (int) (HEADER_SIZE + n * RECORD_SIZE);
+    }
+
+    /** Identifies a side file: "ENIGMIDX". */
+    private static final long MAGIC = 0x454e49474d494458L;
+
+    /** Positions in the header of the length and modification time of
+     *  the input file, and of the number of messages. */
+    private static final int LENGTH = 8, MODIFIED = 16, COUNT = 24;
+
+    /** Size of the header. */
+    private static final int HEADER_SIZE = 32;
+
+    /** Size of the record of a message. */
+    private static final int RECORD_SIZE = 24;
+
+    /** Number of messages for which room is made at first. */
+    private static final int INITIAL_MESSAGES = 1024;
+
+    /** The contents of the side file. */
+    private final ByteBuffer _data;
+
+    /** Number of messages. */
+    private final long _count;
+
+    /** Position in _data of the settings. */
+    private final long _strings;
+
+}
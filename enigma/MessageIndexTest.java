@@ -0,0 +1,104 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/** The suite of all JUnit tests for the MessageIndex class.
+ *  @author Alessandro Buy
+ */
+public class MessageIndexTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Input with three messages. */
+    static final String INPUT =
+        "* B Beta III IV I AXLE  (HQ)\t(EX)\n"
+        + "hello world\n"
+        + "\n"
+        + "*B Beta I II III AAAA\r\n"
+        + "ABCDE FG\r\n"
+        + "* B Beta I II III ZZZZ\n"
+        + "xyz";
+
+    /** Return an index of INPUT. */
+    private static MessageIndex index() {
+        return MessageIndex.build(
+            new LineReader(new ByteArrayInputStream(INPUT.getBytes())),
+            INPUT.length(), 0);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testBuild() {
+        MessageIndex index = index();
+        assertEquals(3, index.size());
+        assertEquals(0, index.offset(0));
+        assertEquals(INPUT.indexOf("*B"), index.offset(1));
+        assertEquals(INPUT.indexOf("* B Beta I II III Z"), index.offset(2));
+        assertEquals(index.offset(1), index.end(0));
+        assertEquals(INPUT.length(), index.end(2));
+        assertEquals(10, index.letters(0));
+        assertEquals(7, index.letters(1));
+        assertEquals(3, index.letters(2));
+        assertEquals("B Beta III IV I AXLE (HQ) (EX)", index.settings(0));
+        assertEquals("B Beta I II III AAAA", index.settings(1));
+        assertEquals(1, index.number("2"));
+    }
+
+    @Test
+    public void testSideFile() throws IOException {
+        File input = File.createTempFile("enigma", ".inp");
+        File side = MessageIndex.sideFile(input);
+        try {
+            Files.write(input.toPath(), INPUT.getBytes());
+            MessageIndex index = MessageIndex.of(input);
+            assertTrue(side.isFile());
+            MessageIndex loaded = MessageIndex.load(side);
+            assertTrue(loaded.describes(input));
+            assertEquals(3, loaded.size());
+            assertEquals(index.offset(2), loaded.offset(2));
+            assertEquals("B Beta I II III ZZZZ", loaded.settings(2));
+
+            Files.write(input.toPath(), (INPUT + "\n* B Beta I II III QQQQ\n")
+                        .getBytes());
+            assertFalse(loaded.describes(input));
+            assertEquals(4, MessageIndex.of(input).size());
+        } finally {
+            input.delete();
+            side.delete();
+        }
+    }
+
+    @Test
+    public void testReadRange() throws IOException {
+        File input = File.createTempFile("enigma", ".inp");
+        try {
+            Files.write(input.toPath(), INPUT.getBytes());
+            MessageIndex index = MessageIndex.build(input);
+            LineReader reader = LineReader.open(input.getPath(),
+                                                index.offset(1),
+                                                index.end(1));
+            assertTrue(reader.nextLine());
+            assertEquals("*B Beta I II III AAAA", reader.line());
+            assertTrue(reader.nextLine());
+            assertEquals("ABCDE FG", reader.line());
+            assertFalse(reader.nextLine());
+            reader.close();
+        } finally {
+            input.delete();
+        }
+    }
+
+}
@@ -1,8 +1,5 @@
 package enigma;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import static enigma.EnigmaException.*;
 
 /** Class that represents a rotating rotor in the enigma machine.
@@ -17,13 +14,29 @@ class MovingRotor extends Rotor {
      */
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
-        _notches = new ArrayList<>();
+        _notchNames = notches;
+        _notches = new boolean[perm.size()];
         for (int i = 0; i < notches.length(); i++) {
-            _notches.add(notches.charAt(i));
+            char c = notches.charAt(i);
+            if (perm.alphabet().contains(c)) {
+                _notches[perm.alphabet().toInt(c)] = true;
+            }
         }
         _permutation = perm;
     }
 
+    @Override
+    Rotor copy() {
+        Rotor result = new MovingRotor(name(), _permutation, _notchNames);
+        result.set(setting());
+        return result;
+    }
+
+    @Override
+    Permutation currentPermutation() {
+        return permutation().conjugate(setting());
+    }
+
     @Override
     int convertForward(int p) {
         int input = (setting() + p) % alphabet().size();
@@ -53,11 +66,14 @@ class MovingRotor extends Rotor {
 
     @Override
     boolean atNotch() {
-        return _notches.contains(alphabet().toChar(setting()));
+        return _notches[setting()];
     }
 
-    /** A list of characters representing the notches passed to us. */
-    private List<Character> _notches;
+    /** The characters representing the notches passed to us. */
+    private final String _notchNames;
+
+    /** Element i is true iff there is a notch at setting i. */
+    private final boolean[] _notches;
 
     /** The permutation implemented by this rotor in its 0 position. */
     private Permutation _permutation;
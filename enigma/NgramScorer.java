@@ -0,0 +1,385 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static enigma.EnigmaException.*;
+
+/** A measure of how much a text looks like plaintext, computed from the
+ *  frequencies of its n-grams for some of n = 1 (unigrams) to 4
+ *  (quadgrams).  Letters are given as indices into an alphabet (as from
+ *  Alphabet.toInt), and the log-probabilities are kept in flat tables
+ *  indexed by the letters of each n-gram, so that the n-gram ABC has
+ *  index (A * size() + B) * size() + C.
+ *
+ *  The score of a text is the sum, over its positions, of the
+ *  log-probabilities of the n-grams that end there.  Where all the
+ *  n-grams fit, their sum is looked up in a single table indexed by the
+ *  longest one, which is kept up to date as the text is scanned, so
+ *  that scoring costs one table access per letter and allocates
+ *  nothing.  After a change to one letter of a text, its score can be
+ *  updated by rescoring only the n-grams that contain that letter.
+ *
+ *  Tables can be saved to and loaded from a compact binary file holding
+ *  a header (magic number, alphabet size, and a mask of the orders
+ *  present) followed by each table as floats.
+ *  @author Alessandro Buy
+ */
+public final class NgramScorer {
+
+    /** Build a table file, as specified by ARGS:
+     *  ARGS[0] is the name of a configuration file, whose alphabet is
+     *  used.
+     *  ARGS[1] names a file of sample plaintext.
+     *  ARGS[2] names the table file to write.
+     *  Unigram to quadgram statistics are gathered from the sample.
+     *  Exits normally if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length != 3) {
+                throw error("usage: CONFIG SAMPLE TABLES");
+            }
+            Alphabet alpha = Main.readConfig(args[0]).alphabet();
+            int[] sample = Main.readLetters(args[1], alpha);
+            train(alpha.size(), sample, sample.length, ALL_ORDERS)
+                .save(new File(args[2]));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A scorer for texts in an alphabet of SIZE letters whose bigram
+     *  and trigram log-probabilities are BIGRAMS and TRIGRAMS. */
+    NgramScorer(int size, float[] bigrams, float[] trigrams) {
+        this(size, new float[][] { null, null, bigrams, trigrams, null });
+    }
+
+    /** A scorer for texts in an alphabet of SIZE letters, where
+     *  TABLES[n], if not null, holds the log-probabilities of n-grams,
+     *  for 1 <= n <= MAX_ORDER. */
+    NgramScorer(int size, float[][] tables) {
+        if (size < 1 || tables.length != MAX_ORDER + 1) {
+            throw error("bad n-gram tables");
+        }
+        _size = size;
+        _tables = tables.clone();
+        _tables[0] = null;
+        int order = 0;
+        long length = 1;
+        for (int n = 1; n <= MAX_ORDER; n += 1) {
+            length *= size;
+            if (_tables[n] != null) {
+                if (_tables[n].length != length) {
+                    throw error("%d-gram table has wrong size", n);
+                }
+                order = n;
+            }
+        }
+        if (order == 0) {
+            throw error("no n-gram tables");
+        }
+        _order = order;
+        _high = (int) Math.pow(size, order - 1);
+        _combined = new float[_high * size];
+        for (int q = 0; q < _combined.length; q += 1) {
+            int index = q;
+            for (int n = order; n >= 1; n -= 1) {
+                if (_tables[n] != null) {
+                    _combined[q] += _tables[n][index];
+                }
+                index %= (int) Math.pow(size, n - 1);
+            }
+        }
+    }
+
+    /** Return a scorer trained on the first N letters of TEXT, in an
+     *  alphabet of SIZE letters, using bigrams and trigrams. */
+    static NgramScorer train(int size, int[] text, int n) {
+        return train(size, text, n, BIGRAMS | TRIGRAMS);
+    }
+
+    /** Return a scorer trained on the first N letters of TEXT, in an
+     *  alphabet of SIZE letters, using the n-grams whose orders are in
+     *  the mask ORDERS (a combination of UNIGRAMS, BIGRAMS, TRIGRAMS and
+     *  QUADGRAMS).  Counts are smoothed so that n-grams missing from
+     *  TEXT are unlikely but not impossible. */
+    static NgramScorer train(int size, int[] text, int n, int orders) {
+        if (!fits(size, orders)) {
+            throw error("n-gram tables for %d letters are too large", size);
+        }
+        float[][] tables = new float[MAX_ORDER + 1][];
+        int length = 1;
+        for (int k = 1; k <= MAX_ORDER; k += 1) {
+            length *= size;
+            if ((orders & (1 << k)) == 0) {
+                continue;
+            }
+            tables[k] = new float[length];
+            for (int i = 0; i + k <= n; i += 1) {
+                int index = 0;
+                for (int j = i; j < i + k; j += 1) {
+                    index = index * size + text[j];
+                }
+                tables[k][index] += 1;
+            }
+            toLogProbabilities(tables[k]);
+        }
+        return new NgramScorer(size, tables);
+    }
+
+    /** Replace the counts in TABLE by the logarithms of their smoothed
+     *  relative frequencies. */
+    private static void toLogProbabilities(float[] table) {
+        double total = 0;
+        for (float count : table) {
+            total += count + SMOOTHING;
+        }
+        for (int i = 0; i < table.length; i += 1) {
+            table[i] = (float) Math.log((table[i] + SMOOTHING) / total);
+        }
+    }
+
+    /** Return true iff the tables of the orders in the mask ORDERS, for
+     *  an alphabet of SIZE letters, have at most MAX_ENTRIES entries in
+     *  all (and so can be allocated and indexed by ints). */
+    private static boolean fits(int size, int orders) {
+        long total = 0, length = 1;
+        for (int n = 1; n <= MAX_ORDER; n += 1) {
+            length *= size;
+            if ((orders & (1 << n)) != 0) {
+                total += length;
+            }
+        }
+        return total <= MAX_ENTRIES;
+    }
+
+    /** Return the scorer whose tables are in FILE. */
+    static NgramScorer load(File file) {
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)))) {
+            NgramScorer result = read(in, file.toString());
+            if (in.read() != -1) {
+                throw error("%s is damaged", file);
+            }
+            return result;
+        } catch (EOFException excp) {
+            throw error("%s is damaged", file);
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /** Write my tables to FILE, in the form read by load. */
+    void save(File file) {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(file)))) {
+            write(out);
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** Write my tables to OUT in the format of a table file. */
+    void write(DataOutput out) throws IOException {
+        int orders = 0;
+        for (int n = 1; n <= MAX_ORDER; n += 1) {
+            if (_tables[n] != null) {
+                orders |= 1 << n;
+            }
+        }
+        out.writeLong(MAGIC);
+        out.writeInt(_size);
+        out.writeInt(orders);
+        ByteBuffer buffer = ByteBuffer.allocate(4 * _size);
+        for (float[] table : _tables) {
+            if (table == null) {
+                continue;
+            }
+            for (int i = 0; i < table.length; i += _size) {
+                buffer.clear();
+                buffer.asFloatBuffer().put(table, i, _size);
+                out.write(buffer.array());
+            }
+        }
+    }
+
+    /** Return the scorer whose tables are read from IN, in the format of
+     *  a table file (as written by write). */
+    static NgramScorer read(DataInput in) throws IOException {
+        return read(in, "input");
+    }
+
+    /** Return the scorer whose tables are read from IN, as for
+     *  read(IN), naming IN SOURCE in error messages. */
+    private static NgramScorer read(DataInput in, String source)
+        throws IOException {
+        if (in.readLong() != MAGIC) {
+            throw error("%s is not an n-gram table", source);
+        }
+        int size = in.readInt();
+        int orders = in.readInt();
+        if (size < 1 || (orders & ~ALL_ORDERS) != 0 || !fits(size, orders)) {
+            throw error("%s is damaged", source);
+        }
+        float[][] tables = new float[MAX_ORDER + 1][];
+        byte[] bytes = new byte[4 * size];
+        int length = 1;
+        for (int n = 1; n <= MAX_ORDER; n += 1) {
+            length *= size;
+            if ((orders & (1 << n)) != 0) {
+                tables[n] = new float[length];
+                for (int i = 0; i < length; i += size) {
+                    in.readFully(bytes);
+                    ByteBuffer.wrap(bytes).asFloatBuffer()
+                        .get(tables[n], i, size);
+                }
+            }
+        }
+        return new NgramScorer(size, tables);
+    }
+
+    /** Return the scorer in the file named NAME if it is a table file,
+     *  and otherwise the scorer trained (as by train(size, text, n)) on
+     *  the letters of ALPHA in that file. */
+    static NgramScorer forSample(String name, Alphabet alpha) {
+        try (RandomAccessFile in = new RandomAccessFile(name, "r")) {
+            if (in.length() >= HEADER_SIZE && in.readLong() == MAGIC) {
+                NgramScorer result = load(new File(name));
+                if (result.size() != alpha.size()) {
+                    throw error("%s is for a different alphabet", name);
+                }
+                return result;
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+        int[] sample = Main.readLetters(name, alpha);
+        return train(alpha.size(), sample, sample.length);
+    }
+
+    /** Return the size of my alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the length of the longest n-grams I use. */
+    int order() {
+        return _order;
+    }
+
+    /** Return the score of the first N letters of TEXT: the sum of the
+     *  log-probabilities of its n-grams.  Higher scores are more
+     *  plausible. */
+    double score(int[] text, int n) {
+        double total = 0;
+        int head = Math.min(n, _order - 1);
+        for (int i = 0; i < head; i += 1) {
+            total += term(text, i);
+        }
+        int size = _size, high = _high, order = _order;
+        float[] combined = _combined;
+        int prefix = 0;
+        for (int i = 0; i < head; i += 1) {
+            prefix = prefix * size + text[i];
+        }
+        for (int i = order - 1; i < n; i += 1) {
+            int q = prefix * size + text[i];
+            total += combined[q];
+            prefix = q - text[i - order + 1] * high;
+        }
+        return total;
+    }
+
+    /** Return the score of the first N letters of TEXT, whose score is
+     *  SCORE, after replacing its letter at POS with LETTER (which is
+     *  done).  Only the n-grams that include POS are rescored. */
+    double rescore(double score, int[] text, int n, int pos, int letter) {
+        double result = score - window(text, n, pos);
+        text[pos] = letter;
+        return result + window(text, n, pos);
+    }
+
+    /** Return the sum of the terms of the score of the first N letters
+     *  of TEXT for the positions whose n-grams may include POS. */
+    private double window(int[] text, int n, int pos) {
+        double total = 0;
+        int end = Math.min(n, pos + _order);
+        for (int i = pos; i < end; i += 1) {
+            total += term(text, i);
+        }
+        return total;
+    }
+
+    /** Return the term of the score of TEXT for position I: the sum of
+     *  the log-probabilities of the n-grams that end there. */
+    private double term(int[] text, int i) {
+        if (i >= _order - 1) {
+            int q = 0;
+            for (int j = i - _order + 1; j <= i; j += 1) {
+                q = q * _size + text[j];
+            }
+            return _combined[q];
+        }
+        double total = 0;
+        int index = 0, scale = 1;
+        for (int n = 1; n <= i + 1; n += 1) {
+            index += text[i - n + 1] * scale;
+            scale *= _size;
+            if (_tables[n] != null) {
+                total += _tables[n][index];
+            }
+        }
+        return total;
+    }
+
+    /** Masks for the orders of n-grams used by train. */
+    static final int UNIGRAMS = 1 << 1, BIGRAMS = 1 << 2, TRIGRAMS = 1 << 3,
+        QUADGRAMS = 1 << 4, ALL_ORDERS = UNIGRAMS | BIGRAMS | TRIGRAMS
+        | QUADGRAMS;
+
+    /** Longest n-grams supported. */
+    static final int MAX_ORDER = 4;
+
+    /** Added to every count to avoid zero probabilities. */
+    private static final float SMOOTHING = 0.5f;
+
+    /** Identifies table files. */
+    private static final long MAGIC = 0x454e49474d414e47L;
+
+    /** Largest total number of entries in the tables. */
+    private static final long MAX_ENTRIES = 1 << 28;
+
+    /** Size of the header of a table file in bytes. */
+    private static final int HEADER_SIZE = 16;
+
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** Log-probabilities of n-grams, by n, or null if n-grams of that
+     *  length are not used. */
+    private final float[][] _tables;
+
+    /** Length of the longest n-grams used. */
+    private final int _order;
+
+    /** size() to the power _order - 1. */
+    private final int _high;
+
+    /** The sum of the log-probabilities of all the n-grams used that end
+     *  each _order-gram, indexed as for _order-grams. */
+    private final float[] _combined;
+
+}
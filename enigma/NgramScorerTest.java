@@ -0,0 +1,184 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the NgramScorer class.
+ *  @author Alessandro Buy
+ */
+public class NgramScorerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Size of the test alphabet. */
+    private static final int SIZE = 5;
+
+    /** Return LENGTH random letters chosen using RANDOM. */
+    private int[] randomText(Random random, int length) {
+        int[] text = new int[length];
+        for (int i = 0; i < length; i += 1) {
+            text[i] = random.nextInt(SIZE);
+        }
+        return text;
+    }
+
+    /** Return a scorer using the n-grams in ORDERS, trained on random
+     *  text. */
+    private NgramScorer scorer(int orders) {
+        int[] sample = randomText(new Random(1), 2000);
+        return NgramScorer.train(SIZE, sample, sample.length, orders);
+    }
+
+    /** Return the score of the first N letters of TEXT under the
+     *  tables in TABLES, computed directly from the definition. */
+    private double naiveScore(float[][] tables, int[] text, int n) {
+        double total = 0;
+        for (int k = 1; k < tables.length; k += 1) {
+            if (tables[k] == null) {
+                continue;
+            }
+            for (int i = 0; i + k <= n; i += 1) {
+                int index = 0;
+                for (int j = i; j < i + k; j += 1) {
+                    index = index * SIZE + text[j];
+                }
+                total += tables[k][index];
+            }
+        }
+        return total;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testScore() {
+        Random random = new Random(2);
+        float[][] tables = new float[NgramScorer.MAX_ORDER + 1][];
+        for (int k = 1, length = SIZE; k < tables.length;
+             k += 1, length *= SIZE) {
+            tables[k] = new float[length];
+            for (int i = 0; i < length; i += 1) {
+                tables[k][i] = -random.nextFloat();
+            }
+        }
+        tables[2] = null;
+        NgramScorer scorer = new NgramScorer(SIZE, tables);
+        assertEquals(4, scorer.order());
+        int[] text = randomText(random, 100);
+        for (int n = 0; n <= text.length; n += 1) {
+            assertEquals(naiveScore(tables, text, n), scorer.score(text, n),
+                         1e-3);
+        }
+    }
+
+    @Test
+    public void testBigramsAndTrigrams() {
+        Random random = new Random(3);
+        float[] bigrams = new float[SIZE * SIZE];
+        float[] trigrams = new float[SIZE * SIZE * SIZE];
+        for (int i = 0; i < trigrams.length; i += 1) {
+            trigrams[i] = -random.nextFloat();
+        }
+        for (int i = 0; i < bigrams.length; i += 1) {
+            bigrams[i] = -random.nextFloat();
+        }
+        NgramScorer scorer = new NgramScorer(SIZE, bigrams, trigrams);
+        int[] text = randomText(random, 50);
+        assertEquals(naiveScore(new float[][] {null, null, bigrams, trigrams},
+                                text, text.length),
+                     scorer.score(text, text.length), 1e-3);
+    }
+
+    @Test
+    public void testRescore() {
+        Random random = new Random(4);
+        for (int orders : new int[] { NgramScorer.ALL_ORDERS,
+                                      NgramScorer.UNIGRAMS,
+                                      NgramScorer.TRIGRAMS }) {
+            NgramScorer scorer = scorer(orders);
+            int[] text = randomText(random, 40);
+            int n = 30;
+            double score = scorer.score(text, n);
+            for (int trial = 0; trial < 200; trial += 1) {
+                int pos = random.nextInt(n);
+                score = scorer.rescore(score, text, n, pos,
+                                       random.nextInt(SIZE));
+                assertEquals(scorer.score(text, n), score, 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        NgramScorer scorer =
+            scorer(NgramScorer.UNIGRAMS | NgramScorer.QUADGRAMS);
+        File file = File.createTempFile("enigma", ".ngrams");
+        try {
+            scorer.save(file);
+            NgramScorer loaded = NgramScorer.load(file);
+            assertEquals(SIZE, loaded.size());
+            assertEquals(4, loaded.order());
+            int[] text = randomText(new Random(5), 100);
+            assertEquals(scorer.score(text, text.length),
+                         loaded.score(text, text.length), 0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDamagedFile() throws IOException {
+        File file = File.createTempFile("enigma", ".ngrams");
+        try {
+            scorer(NgramScorer.BIGRAMS).save(file);
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            for (byte[] damaged
+                     : new byte[][] { Arrays.copyOf(bytes, bytes.length - 1),
+                                      Arrays.copyOf(bytes, bytes.length + 4),
+                                      Arrays.copyOf(bytes, 8) }) {
+                Files.write(file.toPath(), damaged);
+                try {
+                    NgramScorer.load(file);
+                    fail("damaged file accepted");
+                } catch (EnigmaException excp) {
+                    assertTrue(excp.getMessage(),
+                               excp.getMessage().endsWith("is damaged"));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTooLarge() {
+        int[] sample = new int[100];
+        try {
+            NgramScorer.train(256, sample, sample.length,
+                              NgramScorer.ALL_ORDERS);
+            fail("256^4 quadgram table accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        assertEquals(3, NgramScorer.train(256, sample, sample.length,
+                                          NgramScorer.TRIGRAMS).order());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testWrongSize() {
+        new NgramScorer(SIZE, new float[SIZE], new float[SIZE * SIZE]);
+    }
+
+}
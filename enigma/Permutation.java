@@ -1,5 +1,6 @@
 package enigma;
-import java.util.HashMap;
+
+import java.util.Arrays;
 
 import static enigma.EnigmaException.*;
 
@@ -15,7 +16,7 @@ class Permutation {
      *  alphabet that are not included in any cycle map to themselves.
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
-        _alphabet = alphabet;
+        this(alphabet);
         for (int i = 0; i < cycles.length(); i++) {
             if (cycles.charAt(i) == '(') {
                 for (int j = i; j < cycles.length(); j++) {
@@ -33,16 +34,52 @@ class Permutation {
         }
     }
 
+    /** The permutation of ALPHABET that maps each index i to TABLE[i].
+     *  TABLE must contain each index exactly once. */
+    Permutation(int[] table, Alphabet alphabet) {
+        _alphabet = alphabet;
+        if (table.length != alphabet.size()) {
+            throw error("permutation table has wrong size");
+        }
+        _forward = table.clone();
+        _inverse = new int[table.length];
+        Arrays.fill(_inverse, -1);
+        for (int i = 0; i < table.length; i += 1) {
+            int j = table[i];
+            if (j < 0 || j >= table.length || _inverse[j] != -1) {
+                throw error("table is not a permutation");
+            }
+            _inverse[j] = i;
+        }
+    }
+
+    /** The identity permutation of ALPHABET. */
+    Permutation(Alphabet alphabet) {
+        _alphabet = alphabet;
+        _forward = new int[alphabet.size()];
+        _inverse = new int[alphabet.size()];
+        for (int i = 0; i < _forward.length; i += 1) {
+            _forward[i] = _inverse[i] = i;
+        }
+    }
+
+    /** The permutation of ALPHABET given by FORWARD, whose inverse is
+     *  INVERSE.  The arrays are used as is. */
+    private Permutation(int[] forward, int[] inverse, Alphabet alphabet) {
+        _alphabet = alphabet;
+        _forward = forward;
+        _inverse = inverse;
+    }
+
     /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
      *  c0c1...cm. */
     private void addCycle(String cycle) {
-        for (int i = 0; i < cycle.length() - 1; i++) {
-            _cypher.put(cycle.charAt(i), cycle.charAt(i + 1));
-            _decypher.put(cycle.charAt(i + 1), cycle.charAt(i));
-        }
-        if (cycle.length() >= 1) {
-            _cypher.put(cycle.charAt(cycle.length() - 1), cycle.charAt(0));
-            _decypher.put(cycle.charAt(0), cycle.charAt(cycle.length() - 1));
+        cycle = cycle.replaceAll("\\s", "");
+        for (int i = 0; i < cycle.length(); i++) {
+            int from = _alphabet.toInt(cycle.charAt(i));
+            int to = _alphabet.toInt(cycle.charAt((i + 1) % cycle.length()));
+            _forward[from] = to;
+            _inverse[to] = from;
         }
     }
 
@@ -57,36 +94,36 @@ class Permutation {
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        char car = _alphabet.toChar(p % _alphabet.size());
-        char temp = _cypher.getOrDefault(car, car);
-        int i = _alphabet.toInt(temp);
-        return i;
+        if (p >= 0 && p < _forward.length) {
+            return _forward[p];
+        }
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        char car = _alphabet.toChar(c % _alphabet.size());
-        char temp = _decypher.getOrDefault(car, car);
-        int i = _alphabet.toInt(temp);
-        return i;
+        if (c >= 0 && c < _inverse.length) {
+            return _inverse[c];
+        }
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        return _cypher.getOrDefault(p, p);
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        return _decypher.getOrDefault(c, c);
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -97,20 +134,134 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        for (int i = 0; i < _alphabet.size() - 1; i++) {
-            if (!_cypher.containsKey(_alphabet.toChar(i))) {
+        for (int i = 0; i < _forward.length; i++) {
+            if (_forward[i] == i) {
                 return false;
             }
         }
         return true;
     }
 
+    /** Return the permutation that applies me and then NEXT, which must
+     *  have the same size. */
+    Permutation compose(Permutation next) {
+        if (next.size() != size()) {
+            throw error("permutations have different sizes");
+        }
+        int n = size();
+        int[] forward = new int[n], inverse = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            int j = next._forward[_forward[i]];
+            forward[i] = j;
+            inverse[j] = i;
+        }
+        return new Permutation(forward, inverse, _alphabet);
+    }
+
+    /** Return my inverse. */
+    Permutation inverse() {
+        return new Permutation(_inverse.clone(), _forward.clone(), _alphabet);
+    }
+
+    /** Return the permutation that maps P to (permute(P + SHIFT) - SHIFT),
+     *  modulo the alphabet size: what I do as a rotor at setting
+     *  SHIFT. */
+    Permutation conjugate(int shift) {
+        int n = size();
+        shift = wrap(shift);
+        int[] forward = new int[n], inverse = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            int in = i + shift < n ? i + shift : i + shift - n;
+            int out = _forward[in] - shift;
+            if (out < 0) {
+                out += n;
+            }
+            forward[i] = out;
+            inverse[out] = i;
+        }
+        return new Permutation(forward, inverse, _alphabet);
+    }
+
+    /** Return the result of applying me K times (my inverse -K times if K
+     *  is negative). */
+    Permutation power(int k) {
+        int n = size();
+        int[] forward = new int[n], inverse = new int[n];
+        int[] cycle = new int[n];
+        boolean[] seen = new boolean[n];
+        for (int i = 0; i < n; i += 1) {
+            if (seen[i]) {
+                continue;
+            }
+            int len = 0;
+            for (int j = i; !seen[j]; j = _forward[j]) {
+                seen[j] = true;
+                cycle[len] = j;
+                len += 1;
+            }
+            int step = k % len;
+            if (step < 0) {
+                step += len;
+            }
+            for (int m = 0; m < len; m += 1) {
+                int target = cycle[(m + step) % len];
+                forward[cycle[m]] = target;
+                inverse[target] = cycle[m];
+            }
+        }
+        return new Permutation(forward, inverse, _alphabet);
+    }
+
+    /** Return the lengths of my cycles (including cycles of length 1),
+     *  in decreasing order. */
+    int[] cycleType() {
+        int n = size();
+        int[] lengths = new int[n];
+        boolean[] seen = new boolean[n];
+        int count = 0;
+        for (int i = 0; i < n; i += 1) {
+            if (!seen[i]) {
+                int len = 0;
+                for (int j = i; !seen[j]; j = _forward[j]) {
+                    seen[j] = true;
+                    len += 1;
+                }
+                lengths[count] = len;
+                count += 1;
+            }
+        }
+        int[] result = Arrays.copyOf(lengths, count);
+        Arrays.sort(result);
+        for (int i = 0, j = count - 1; i < j; i += 1, j -= 1) {
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /** Return a copy of my table: element i is permute(i). */
+    int[] toArray() {
+        return _forward.clone();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Permutation
+            && Arrays.equals(_forward, ((Permutation) obj)._forward);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(_forward);
+    }
+
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** A Hashmap storing the current value to the character it maps to. */
-    private HashMap<Character, Character> _cypher = new HashMap<>();
+    /** Element i is the result of applying me to i. */
+    private final int[] _forward;
 
-    /** A HashMap storing the reverse value of what is mapped. */
-    private HashMap<Character, Character> _decypher = new HashMap<>();
+    /** Element i is the result of applying my inverse to i. */
+    private final int[] _inverse;
 }
@@ -63,4 +63,63 @@ public class PermutationTest {
         checkPerm("Simple", UPPER_STRING, "LBCRSFGHIJKEMDAPQONTUVWXYZ");
     }
 
+    @Test
+    public void checkTableConstructor() {
+        Permutation p = new Permutation(NAVALA.get("I"), UPPER);
+        perm = new Permutation(p.toArray(), UPPER);
+        checkPerm("Table", UPPER_STRING, NAVALA_MAP.get("I"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadTable() {
+        new Permutation(new int[] { 0, 0, 1 }, new CharacterRange('A', 'C'));
+    }
+
+    @Test
+    public void checkCompose() {
+        Permutation p = new Permutation("(ABC)", UPPER);
+        Permutation q = new Permutation("(AB)", UPPER);
+        perm = p.compose(q);
+        checkPerm("Compose", UPPER_STRING, "ACB" + UPPER_STRING.substring(3));
+    }
+
+    @Test
+    public void checkInverse() {
+        perm = new Permutation(NAVALA.get("I"), UPPER).inverse().inverse();
+        checkPerm("Inverse", UPPER_STRING, NAVALA_MAP.get("I"));
+        Permutation p = new Permutation(NAVALA.get("II"), UPPER);
+        assertEquals(new Permutation(UPPER), p.compose(p.inverse()));
+    }
+
+    @Test
+    public void checkConjugate() {
+        Permutation p = new Permutation(NAVALA.get("I"), UPPER);
+        perm = p.conjugate(1);
+        checkPerm("Conjugate B", UPPER_STRING, NAVALB_MAP.get("I"));
+        perm = p.conjugate(25);
+        checkPerm("Conjugate Z", UPPER_STRING, NAVALZ_MAP.get("I"));
+        perm = p.conjugate(-1);
+        checkPerm("Conjugate -1", UPPER_STRING, NAVALZ_MAP.get("I"));
+    }
+
+    @Test
+    public void checkPower() {
+        Permutation p = new Permutation(NAVALA.get("III"), UPPER);
+        Permutation cube = p.compose(p).compose(p);
+        assertEquals(cube, p.power(3));
+        assertEquals(new Permutation(UPPER), p.power(0));
+        assertEquals(p.inverse(), p.power(-1));
+        assertEquals(new Permutation(UPPER), p.power(8 * 17));
+    }
+
+    @Test
+    public void checkCycleType() {
+        assertArrayEquals(new int[] { 17, 8, 1 },
+                          new Permutation(NAVALA.get("III"), UPPER)
+                          .cycleType());
+        int[] ones = new int[26];
+        java.util.Arrays.fill(ones, 1);
+        assertArrayEquals(ones, new Permutation("", UPPER).cycleType());
+    }
+
 }
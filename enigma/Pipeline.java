@@ -0,0 +1,431 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static enigma.EnigmaException.*;
+
+/** Processing of Main's input in three overlapped stages: the calling
+ *  thread reads input lines into reusable chunks, worker threads convert
+ *  them, and a writer thread sends the results to the output in their
+ *  original order.
+ *
+ *  Each message (a settings line and the lines up to the next one) is
+ *  converted by a single worker, with its own copy of the machine, and
+ *  successive messages go to successive workers.  The reader hands each
+ *  chunk both to its worker and, through a queue that fixes the output
+ *  order, to the writer, which waits for the worker to finish it,
+ *  writes it, and returns it to the reader for reuse.  All queues are
+ *  RingBuffers with a single producer and consumer, and there is a fixed
+ *  supply of chunks, so nothing is allocated once the chunks have grown
+ *  to fit the input lines.
+ *
+ *  Each worker converts each message with an engine from its own
+ *  EngineSelector, of the kind given to the pipeline, as Main does (see
+ *  --engine); or, if there is a KeystreamCache, the workers share it,
+ *  converting each message with the engine that it provides.
+ *
+ *  If converting a chunk fails, the output that precedes the failure is
+ *  written, all stages stop, and the failure is reported by run, just as
+ *  if the input had been processed serially.
+ *  @author Alessandro Buy
+ */
+class Pipeline {
+
+    /** A pipeline that reads lines from INPUT, converts them with copies
+     *  of M using WORKERS threads, and writes the results to OUTPUT.  The
+     *  workers use engines of kind ENGINE, as for EngineSelector, or
+     *  KEYSTREAMS, if it is not null. */
+    Pipeline(Machine M, LineReader input, OutputStream output, int workers,
+             int engine, KeystreamCache keystreams) {
+        if (workers < 1) {
+            throw error("need at least one worker");
+        }
+        _input = input;
+        _output = output;
+        _keystreams = keystreams;
+        int chunks = CHUNKS_PER_WORKER * workers + 2;
+        _free = new RingBuffer<>(chunks);
+        _order = new RingBuffer<>(chunks + 1);
+        _work = new Worker[workers];
+        for (int i = 0; i < workers; i += 1) {
+            _work[i] = new Worker(M.copy(), chunks + 1, engine);
+        }
+        for (int i = 0; i < chunks; i += 1) {
+            _free.offer(new Chunk());
+        }
+    }
+
+    /** Process all of my input, returning when it has all been written,
+     *  or throwing an exception if any stage fails. */
+    void run() {
+        Thread writer = new Thread(this::write, "enigma-writer");
+        Thread[] workers = new Thread[_work.length];
+        writer.setDaemon(true);
+        writer.start();
+        for (int i = 0; i < workers.length; i += 1) {
+            workers[i] = new Thread(_work[i], "enigma-worker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        try {
+            read();
+        } catch (Abort excp) {
+            /* Some other stage failed. */
+        } catch (RuntimeException excp) {
+            fail(excp);
+        }
+        try {
+            writer.join();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException excp) {
+            fail(excp);
+        }
+        Throwable failure = _failure.get();
+        if (failure instanceof EnigmaException) {
+            throw (EnigmaException) failure;
+        } else if (failure != null) {
+            throw error("processing failed: %s", failure);
+        }
+    }
+
+    /** Reader stage: divide input into chunks of whole lines and pass
+     *  them to the workers and writer. */
+    private void read() {
+        Chunk chunk = take(_free);
+        int worker = -1;
+        boolean first = true;
+        while (_input.nextLine()) {
+            byte[] line = _input.buffer();
+            int start = _input.start(), length = _input.length();
+            boolean settings, opening = first;
+            if (first) {
+                if (blank(line, start, length)) {
+                    continue;
+                }
+                first = false;
+                /* As in Main, the first token of the first line is
+                 * taken to be the '*', whatever it is; it is dropped,
+                 * and the chunk marked instead (see Chunk.first). */
+                while (line[start] <= ' ') {
+                    start += 1;
+                    length -= 1;
+                }
+                while (length > 0 && line[start] > ' ') {
+                    start += 1;
+                    length -= 1;
+                }
+                settings = true;
+            } else {
+                settings = length > 0 && line[start] == '*';
+            }
+            if (worker < 0 || settings || !chunk.fits(length)) {
+                if (chunk.length > 0) {
+                    send(chunk, worker);
+                    chunk = take(_free);
+                }
+                if (settings) {
+                    worker = (worker + 1) % _work.length;
+                }
+            }
+            if (opening) {
+                chunk.first = true;
+            }
+            chunk.add(line, start, length);
+        }
+        if (first) {
+            throw error("missing settings line");
+        }
+        if (chunk.length > 0) {
+            send(chunk, worker);
+        }
+        for (Worker w : _work) {
+            put(w._queue, END);
+        }
+        put(_order, END);
+    }
+
+    /** Return true iff the LENGTH bytes in LINE starting at START are all
+     *  white space. */
+    private static boolean blank(byte[] line, int start, int length) {
+        for (int i = start; i < start + length; i += 1) {
+            if (line[i] > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Hand CHUNK to worker number WORKER and to the writer. */
+    private void send(Chunk chunk, int worker) {
+        chunk.done = false;
+        put(_work[worker]._queue, chunk);
+        put(_order, chunk);
+    }
+
+    /** Writer stage: write converted chunks in order, and recycle
+     *  them. */
+    private void write() {
+        try {
+            while (true) {
+                Chunk chunk = take(_order);
+                if (chunk == END) {
+                    _output.flush();
+                    return;
+                }
+                while (!chunk.done) {
+                    pause();
+                }
+                _output.write(chunk.out, 0, chunk.outLength);
+                if (chunk.error != null) {
+                    _output.flush();
+                    fail(chunk.error);
+                    return;
+                }
+                chunk.length = chunk.outLength = 0;
+                chunk.first = false;
+                chunk.error = null;
+                put(_free, chunk);
+            }
+        } catch (Abort excp) {
+            return;
+        } catch (IOException excp) {
+            fail(error("error writing output: %s", excp.getMessage()));
+        }
+    }
+
+    /** A compute stage, which converts the chunks in its queue with its
+     *  own machine. */
+    private class Worker implements Runnable {
+
+        /** A worker using M and engines of kind ENGINE that accepts up
+         *  to CAPACITY chunks at once. */
+        Worker(Machine M, int capacity, int engine) {
+            _machine = M;
+            _alphabet = M.alphabet();
+            _queue = new RingBuffer<>(capacity);
+            _selector = new EngineSelector(engine);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Chunk chunk = take(_queue);
+                    if (chunk == END) {
+                        return;
+                    }
+                    convert(chunk);
+                    chunk.done = true;
+                }
+            } catch (Abort excp) {
+                return;
+            } catch (RuntimeException excp) {
+                fail(excp);
+            }
+        }
+
+        /** Convert the lines of CHUNK, stopping at the first error and
+         *  discarding the output of the line on which it occurs, as
+         *  Main.processMessages does. */
+        private void convert(Chunk chunk) {
+            byte[] in = chunk.in, out = chunk.out;
+            int k = 0, lineStart = 0;
+            boolean first = chunk.first;
+            try {
+                int start = 0;
+                for (int i = 0; i < chunk.length; i += 1) {
+                    if (in[i] != '\n') {
+                        continue;
+                    }
+                    lineStart = k;
+                    if (first || i > start && in[start] == '*') {
+                        int from = first ? start : start + 1;
+                        String settings = new String(in, from, i - from);
+                        first = false;
+                        Main.setUp(_machine, settings);
+                        if (_keystreams != null) {
+                            _engine = _keystreams.engine(_machine, settings);
+                        } else {
+                            if (_engine != null) {
+                                _selector.finish(_length);
+                            }
+                            _engine = _selector.engine(_machine);
+                        }
+                        _length = 0;
+                    } else {
+                        int column = 0;
+                        for (int j = start; j < i; j += 1) {
+                            char ch = (char) (in[j] & 0xff);
+                            if (ch == ' ' || ch == '\t' || ch == '\r'
+                                || ch == '\f' || ch == '\u000b') {
+                                continue;
+                            }
+                            if (column > 0 && column % 5 == 0) {
+                                out[k] = ' ';
+                                k += 1;
+                            }
+                            int c = _alphabet.toInt(Character.toUpperCase(ch));
+                            out[k] = (byte) _alphabet.toChar(
+                                _engine.convert(c));
+                            k += 1;
+                            column += 1;
+                        }
+                        out[k] = '\n';
+                        k += 1;
+                        _length += column;
+                    }
+                    start = i + 1;
+                }
+            } catch (EnigmaException excp) {
+                chunk.error = excp;
+                k = lineStart;
+            }
+            chunk.outLength = k;
+        }
+
+        /** Chunks waiting for this worker. */
+        private final RingBuffer<Chunk> _queue;
+
+        /** This worker's machine. */
+        private final Machine _machine;
+
+        /** Chooser of the engines, if there is no KeystreamCache. */
+        private final EngineSelector _selector;
+
+        /** The engine for the current message. */
+        private Engine _engine;
+
+        /** Number of characters of the current message converted. */
+        private long _length;
+
+        /** Its alphabet. */
+        private final Alphabet _alphabet;
+    }
+
+    /** A reusable buffer holding a sequence of input lines and their
+     *  conversion. */
+    private static class Chunk {
+
+        /** Return true iff a line of LENGTH bytes can be added without
+         *  exceeding the normal chunk size (or if I am empty). */
+        boolean fits(int length) {
+            return this.length == 0
+                || this.length + length + 1 <= CHUNK_SIZE;
+        }
+
+        /** Append the LENGTH bytes of LINE starting at START, and a
+         *  newline, growing my buffers if necessary. */
+        void add(byte[] line, int start, int length) {
+            if (this.length + length + 1 > in.length) {
+                int size = 2 * (this.length + length + 1);
+                byte[] bigger = new byte[size];
+                System.arraycopy(in, 0, bigger, 0, this.length);
+                in = bigger;
+                out = new byte[2 * size];
+            }
+            System.arraycopy(line, start, in, this.length, length);
+            this.length += length;
+            in[this.length] = '\n';
+            this.length += 1;
+        }
+
+        /** Input lines, each terminated by a newline. */
+        byte[] in = new byte[CHUNK_SIZE];
+        /** Number of bytes in in. */
+        int length;
+        /** True iff the first line in in is the first settings line of
+         *  the input, without its first token, which is taken to be the
+         *  '*' whatever it is, as in Main. */
+        boolean first;
+        /** Converted output (twice as large as in, which always
+         *  suffices). */
+        byte[] out = new byte[2 * CHUNK_SIZE];
+        /** Number of bytes in out. */
+        int outLength;
+        /** The error that stopped conversion, if any. */
+        EnigmaException error;
+        /** True once out holds the conversion of in. */
+        volatile boolean done;
+    }
+
+    /** Thrown within a stage to stop it when another stage has failed. */
+    private static class Abort extends RuntimeException {
+        /** An Abort. */
+        Abort() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** Record FAILURE, if it is the first, which stops all stages. */
+    private void fail(Throwable failure) {
+        _failure.compareAndSet(null, failure);
+    }
+
+    /** Add ITEM to QUEUE, waiting while it is full. */
+    private <T> void put(RingBuffer<T> queue, T item) {
+        while (!queue.offer(item)) {
+            pause();
+        }
+    }
+
+    /** Remove and return the first item in QUEUE, waiting while it is
+     *  empty. */
+    private <T> T take(RingBuffer<T> queue) {
+        T item;
+        while ((item = queue.poll()) == null) {
+            pause();
+        }
+        return item;
+    }
+
+    /** Wait briefly, or throw ABORT if some stage has failed. */
+    private void pause() {
+        if (_failure.get() != null) {
+            throw ABORT;
+        }
+        LockSupport.parkNanos(PAUSE_NANOS);
+    }
+
+    /** Bytes of input in a normal chunk. */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /** Chunks in circulation for each worker. */
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    /** Time to wait for a queue to change state. */
+    private static final long PAUSE_NANOS = 20_000;
+
+    /** Marks the end of input in a queue. */
+    private static final Chunk END = new Chunk();
+
+    /** The exception used to stop stages. */
+    private static final Abort ABORT = new Abort();
+
+    /** Source of input lines. */
+    private final LineReader _input;
+
+    /** Destination for converted lines. */
+    private final OutputStream _output;
+
+    /** Keystreams shared by the workers, or null. */
+    private final KeystreamCache _keystreams;
+
+    /** Chunks ready for reuse, from the writer to the reader. */
+    private final RingBuffer<Chunk> _free;
+
+    /** Chunks in input order, from the reader to the writer. */
+    private final RingBuffer<Chunk> _order;
+
+    /** The compute stages. */
+    private final Worker[] _work;
+
+    /** The first failure in any stage, or null. */
+    private final AtomicReference<Throwable> _failure =
+        new AtomicReference<>();
+
+}
@@ -0,0 +1,132 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+import static enigma.TestUtils.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the Pipeline class.
+ *  @author Alessandro Buy
+ */
+public class PipelineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a reader for the lines of INPUT. */
+    static LineReader reader(String input) {
+        return new LineReader(new ByteArrayInputStream(input.getBytes()));
+    }
+
+    /** Return the output of Main.processMessages for INPUT, followed by
+     *  the error message, if it fails. */
+    static String serial(String input) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        String failure = "";
+        try {
+            new Main(reader(input), new PrintStream(bytes))
+                .processMessages(navalMachine());
+        } catch (EnigmaException excp) {
+            failure = "Error: " + excp.getMessage();
+        }
+        return bytes.toString() + failure;
+    }
+
+    /** Return the output of a Pipeline with WORKERS workers using
+     *  engines of kind ENGINE for INPUT, followed by the error message,
+     *  if it fails. */
+    static String pipelined(String input, int workers, int engine) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        String failure = "";
+        try {
+            new Pipeline(navalMachine(), reader(input), bytes, workers,
+                         engine, null).run();
+        } catch (EnigmaException excp) {
+            failure = "Error: " + excp.getMessage();
+        }
+        return bytes.toString() + failure;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSerialOutput() {
+        Random random = new Random(1);
+        String[] settings = {
+            "* B Beta III IV I AXLE (HQ) (EX)", "* B Beta II V I QEVZ (AB)",
+        };
+        StringBuilder input = new StringBuilder("\n");
+        for (int n = 0; n < 200; n += 1) {
+            input.append(settings[n % 2]).append('\n');
+            for (int i = random.nextInt(4); i > 0; i -= 1) {
+                String line = randomMessage(random.nextInt(80), random);
+                input.append(line.replace("Q", " ")).append('\n');
+            }
+        }
+        String expected = serial(input.toString());
+        for (int workers = 1; workers <= 3; workers += 1) {
+            assertEquals(expected, pipelined(input.toString(), workers, -1));
+        }
+    }
+
+    @Test
+    public void testEngines() {
+        Random random = new Random(2);
+        StringBuilder input = new StringBuilder();
+        for (int n = 0; n < 100; n += 1) {
+            input.append("* B Beta III IV I ")
+                .append(randomMessage(4, random)).append('\n');
+            for (int i = random.nextInt(3); i > 0; i -= 1) {
+                input.append(randomMessage(random.nextInt(300), random))
+                    .append('\n');
+            }
+        }
+        String expected = serial(input.toString());
+        for (int kind = -1; kind < EngineSelector.NAMES.length; kind += 1) {
+            assertEquals("engine " + kind, expected,
+                         pipelined(input.toString(), 2, kind));
+        }
+    }
+
+    @Test
+    public void testErrorInLine() {
+        String input = "* B Beta III IV I AXLE (TD)\nHELLO WORLD\nABC1DEF\n"
+            + "* B Beta III IV I AXLE\nHELLO\n";
+        String expected = serial(input);
+        assertEquals("FHVGJ ZUKSA\nError: character out of range",
+                     expected);
+        for (int workers = 1; workers <= 2; workers += 1) {
+            assertEquals(expected, pipelined(input, workers, -1));
+        }
+    }
+
+    @Test
+    public void testFirstToken() {
+        for (String first : new String[] {
+                "* B Beta III IV I AXLE", "  x B Beta III IV I AXLE (HQ)",
+                "\t** B Beta III IV I AXLE", "*B Beta III IV I AXLE",
+            }) {
+            String input = "\n" + first + "\nHELLO WORLD\n"
+                + "* B Beta III IV I AXLE\nHELLO\n";
+            String expected = serial(input);
+            for (int workers = 1; workers <= 2; workers += 1) {
+                assertEquals(first, expected, pipelined(input, workers, -1));
+            }
+        }
+    }
+
+    @Test
+    public void testMissingSettings() {
+        assertEquals(serial("\n\n"), pipelined("\n\n", 2, -1));
+    }
+
+}
@@ -0,0 +1,248 @@
+package enigma;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.*;
+
+/** Recovery of the plugboard of an Enigma message whose rotors and
+ *  starting positions are known, by hill climbing: starting from an
+ *  empty (or random) plugboard, pairs are added, removed or exchanged
+ *  as long as doing so makes the decryption score better as plaintext.
+ *  Independent climbs run in parallel from different starting points.
+ *
+ *  The plugboard does not affect how the rotors step, so the
+ *  substitution performed by the rotors and reflector at each position
+ *  of the message is computed once.  A trial decryption with plugboard P
+ *  is then P(R_i(P(c_i))) at position i, using a plugboard kept as an
+ *  array that is changed in place.
+ *  @author Alessandro Buy
+ */
+public final class PlugboardSolver {
+
+    /** Recover a plugboard, as specified by ARGS:
+     *  ARGS[0] is the name of a configuration file.
+     *  ARGS[1] is a settings line without its '*' or plugboard, such as
+     *  "B Beta III IV I AXLE".
+     *  ARGS[2] names a file containing the ciphertext.
+     *  ARGS[3] names a file of sample plaintext from which n-gram
+     *  statistics are gathered, or a table file written by
+     *  NgramScorer.
+     *  ARGS[4] is optional; when present, it is the number of climbs
+     *  (default: one per processor).
+     *  Prints the completed settings line and the decryption.  Exits
+     *  normally if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 4 || args.length > 5) {
+                throw error("Only 4 or 5 command-line arguments allowed");
+            }
+            Machine M = Main.readConfig(args[0]);
+            Alphabet alpha = M.alphabet();
+            NgramScorer scorer = NgramScorer.forSample(args[3], alpha);
+            PlugboardSolver solver =
+                new PlugboardSolver(M, args[1],
+                                    Main.readLetters(args[2], alpha), scorer);
+            int climbs = Runtime.getRuntime().availableProcessors();
+            if (args.length > 4) {
+                climbs = Integer.parseInt(args[4]);
+            }
+            int[] plugboard =
+                solver.solve(climbs, alpha.size() / 2, System.nanoTime());
+            System.out.printf("* %s %s%n", args[1].trim(),
+                              solver.cycles(plugboard));
+            int[] plain = solver.decrypt(plugboard, null);
+            char[] text = new char[plain.length];
+            for (int i = 0; i < plain.length; i += 1) {
+                text[i] = alpha.toChar(plain[i]);
+            }
+            System.out.println(new String(text));
+            return;
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad number of climbs%n");
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A solver for CIPHERTEXT, produced by M set up according to
+     *  SETTINGS (a settings line lacking its '*' and plugboard) and an
+     *  unknown plugboard, judging decryptions with SCORER. */
+    PlugboardSolver(Machine M, String settings, int[] ciphertext,
+                    NgramScorer scorer) {
+        Main.setUp(M, settings);
+        _size = M.alphabet().size();
+        _alphabet = M.alphabet();
+        _ciphertext = ciphertext;
+        _scorer = scorer;
+        _rotors = new int[ciphertext.length * _size];
+        for (int i = 0, k = 0; i < ciphertext.length; i += 1) {
+            M.advanceMachine();
+            for (int c = 0; c < _size; c += 1, k += 1) {
+                _rotors[k] = M.transform(c);
+            }
+        }
+    }
+
+    /** Return the best plugboard, of at most MAXPAIRS pairs, found by
+     *  CLIMBS independent climbs run in parallel.  The first climb
+     *  starts from an empty plugboard and the others from random ones
+     *  drawn using SEED. */
+    int[] solve(int climbs, int maxPairs, long seed) {
+        if (climbs < 1 || maxPairs < 0 || 2 * maxPairs > _size) {
+            throw error("bad plugboard search parameters");
+        }
+        return IntStream.range(0, climbs).parallel()
+            .mapToObj(k -> climb(k == 0 ? null
+                                 : new SplittableRandom(seed + k),
+                                 maxPairs))
+            .reduce((a, b) -> a.score >= b.score ? a : b)
+            .get().plugboard;
+    }
+
+    /** The outcome of one climb. */
+    private static class Result {
+        /** The plugboard reached, PLUGBOARD, and its SCORE. */
+        Result(int[] plugboard, double score) {
+            this.plugboard = plugboard;
+            this.score = score;
+        }
+
+        /** The plugboard reached. */
+        final int[] plugboard;
+        /** Its score. */
+        final double score;
+    }
+
+    /** Return the result of climbing from an empty plugboard (if RANDOM
+     *  is null) or from a random one drawn from RANDOM, using at most
+     *  MAXPAIRS pairs. */
+    private Result climb(SplittableRandom random, int maxPairs) {
+        int[] plug = new int[_size];
+        int[] plain = new int[_ciphertext.length];
+        for (int c = 0; c < _size; c += 1) {
+            plug[c] = c;
+        }
+        int pairs = 0;
+        if (random != null) {
+            for (int k = random.nextInt(maxPairs + 1); k > 0; k -= 1) {
+                int a = random.nextInt(_size), b = random.nextInt(_size);
+                if (plug[a] == a && plug[b] == b && a != b) {
+                    plug[a] = b;
+                    plug[b] = a;
+                    pairs += 1;
+                }
+            }
+        }
+        double best = score(plug, plain);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int a = 0; a < _size; a += 1) {
+                for (int b = a + 1; b < _size; b += 1) {
+                    int pa = plug[a], pb = plug[b];
+                    int change = rewire(plug, a, b);
+                    if (pairs + change > maxPairs) {
+                        restore(plug, a, b, pa, pb);
+                        continue;
+                    }
+                    double s = score(plug, plain);
+                    if (s > best) {
+                        best = s;
+                        pairs += change;
+                        improved = true;
+                    } else {
+                        restore(plug, a, b, pa, pb);
+                    }
+                }
+            }
+        }
+        return new Result(plug, best);
+    }
+
+    /** Change PLUG so that A and B are no longer connected, if they are
+     *  connected to each other, and otherwise so that they are connected
+     *  to each other and their former partners are free.  Returns the
+     *  resulting change in the number of pairs. */
+    private static int rewire(int[] plug, int a, int b) {
+        if (plug[a] == b) {
+            plug[a] = a;
+            plug[b] = b;
+            return -1;
+        }
+        int change = 1;
+        if (plug[a] != a) {
+            plug[plug[a]] = plug[a];
+            change -= 1;
+        }
+        if (plug[b] != b) {
+            plug[plug[b]] = plug[b];
+            change -= 1;
+        }
+        plug[a] = b;
+        plug[b] = a;
+        return change;
+    }
+
+    /** Undo rewire(PLUG, A, B), where A and B were previously connected to
+     *  PA and PB. */
+    private static void restore(int[] plug, int a, int b, int pa, int pb) {
+        plug[pa] = a;
+        plug[a] = pa;
+        plug[pb] = b;
+        plug[b] = pb;
+    }
+
+    /** Return the score of the decryption of my ciphertext using PLUG,
+     *  using PLAIN to hold the decryption. */
+    private double score(int[] plug, int[] plain) {
+        decrypt(plug, plain);
+        return _scorer.score(plain, plain.length);
+    }
+
+    /** Return the decryption of my ciphertext with plugboard PLUG, placing
+     *  it in PLAIN if that is not null. */
+    int[] decrypt(int[] plug, int[] plain) {
+        if (plain == null) {
+            plain = new int[_ciphertext.length];
+        }
+        int size = _size;
+        for (int i = 0, k = 0; i < plain.length; i += 1, k += size) {
+            plain[i] = plug[_rotors[k + plug[_ciphertext[i]]]];
+        }
+        return plain;
+    }
+
+    /** Return PLUG in the cycle notation accepted by Main.setUp. */
+    String cycles(int[] plug) {
+        StringBuilder result = new StringBuilder();
+        for (int a = 0; a < _size; a += 1) {
+            if (plug[a] > a) {
+                if (result.length() > 0) {
+                    result.append(' ');
+                }
+                result.append('(').append(_alphabet.toChar(a))
+                    .append(_alphabet.toChar(plug[a])).append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** The message being attacked. */
+    private final int[] _ciphertext;
+
+    /** Judge of decryptions. */
+    private final NgramScorer _scorer;
+
+    /** The substitution performed by the rotors and reflector at each
+     *  position: at position i, letter c maps to _rotors[i * size + c]. */
+    private final int[] _rotors;
+
+}
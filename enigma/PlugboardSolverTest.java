@@ -0,0 +1,90 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the PlugboardSolver class.
+ *  @author Alessandro Buy
+ */
+public class PlugboardSolverTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** The configuration file used. */
+    static final String CONFIG = "../testing/correct/default.conf";
+
+    /** Sample plaintext from which n-gram statistics are gathered. */
+    static final String SAMPLE = "../testing/correct/carroll1.inp";
+
+    /** The message encrypted: a different text from SAMPLE. */
+    static final String PLAINTEXT =
+        "ITWASTHEBESTOFTIMESITWASTHEWORSTOFTIMESITWASTHEAGEOFWISDOM"
+        + "ITWASTHEAGEOFFOOLISHNESSITWASTHEEPOCHOFBELIEFITWASTHEEPOCH"
+        + "OFINCREDULITYITWASTHESEASONOFLIGHTITWASTHESEASONOFDARKNESS"
+        + "ITWASTHESPRINGOFHOPEITWASTHEWINTEROFDESPAIRWEHADEVERYTHING"
+        + "BEFOREUSWEHADNOTHINGBEFOREUSWEWEREALLGOINGDIRECTTOHEAVENWE"
+        + "WEREALLGOINGDIRECTTHEOTHERWAYINSHORTTHEPERIODWASSOFARLIKE"
+        + "THEPRESENTPERIODTHATSOMEOFITSNOISIESTAUTHORITIESINSISTEDON"
+        + "ITSBEINGRECEIVEDFORGOODORFOREVILINTHESUPERLATIVEDEGREEOF"
+        + "COMPARISONONLY";
+
+    /** The rotor settings used, without a plugboard. */
+    static final String ROTORS = "B Beta III IV I AXLE";
+
+    /** Return the letters of TEXT as indices. */
+    static int[] letters(String text) {
+        int[] result = new int[text.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = text.charAt(i) - 'A';
+        }
+        return result;
+    }
+
+    /** Return a solver for PLAINTEXT encrypted with ROTORS and the
+     *  plugboard PLUGBOARD. */
+    static PlugboardSolver solver(String plugboard) {
+        Machine M = Main.readConfig(CONFIG);
+        Main.setUp(M, ROTORS + " " + plugboard);
+        String ciphertext = M.convert(PLAINTEXT);
+        int[] sample = Main.readLetters(SAMPLE, M.alphabet());
+        return new PlugboardSolver(M, ROTORS, letters(ciphertext),
+                                   NgramScorer.train(26, sample,
+                                                     sample.length));
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSolve() {
+        for (String plugboard : new String[] {
+                "", "(AQ) (DT) (EX) (HL)",
+                "(AQ) (BJ) (CN) (DT) (EX) (FM) (HL) (UZ)",
+            }) {
+            PlugboardSolver solver = solver(plugboard);
+            int[] plug = solver.solve(4, 13, 1);
+            assertEquals(plugboard, solver.cycles(plug));
+            assertArrayEquals(letters(PLAINTEXT),
+                              solver.decrypt(plug, null));
+        }
+    }
+
+    @Test
+    public void testBadParameters() {
+        PlugboardSolver solver = solver("(AQ)");
+        for (int[] params : new int[][] { { 0, 13 }, { 1, -1 }, { 1, 14 } }) {
+            try {
+                solver.solve(params[0], params[1], 1);
+                fail("climbs " + params[0] + ", pairs " + params[1]);
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+}
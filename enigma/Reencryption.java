@@ -0,0 +1,629 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** The re-encryption of an edited input file, given the old input file
+ *  and the output Main produced from it with the same configuration.
+ *  Since each message starts afresh from its settings, the conversion
+ *  of a line depends only on the settings of its message and on the
+ *  number of characters (the offset) that precede it in the message.  A
+ *  line whose settings and offset are those of the corresponding line
+ *  of the old input (the lines before the first edit, and those after
+ *  the last, pair up) can therefore be converted just where it differs
+ *  from the old line, and is copied from the old output if it does not
+ *  differ at all.  Other lines (those in a message whose length has
+ *  changed up to the end of that message, and those whose settings have
+ *  changed) are converted in full.
+ *
+ *  Converting a line from the middle of a message needs the machine as
+ *  it was at that offset, which is found by stepping the rotors without
+ *  converting anything; as the rotors return to earlier positions, the
+ *  stepping is cut short once that happens (see Machine.advance).
+ *
+ *  None of the files is held in memory: only the offset of each line
+ *  is, and lines are read as they are needed.  The lines at the ends of
+ *  the old and new inputs that are the same are found by comparing the
+ *  files backwards from their ends, up to the first difference.
+ *
+ *  When the output file is the old output file and every line of the
+ *  new output has the same length as the old one, the changed lines are
+ *  written in place; otherwise the new output is written to a
+ *  temporary file that then replaces the output file.
+ *  @author Alessandro Buy
+ */
+final class Reencryption {
+
+    /** A re-encryption with M of the file NEWINPUT to the file OUTPUT,
+     *  reusing OLDOUTPUT, the output for the file OLDINPUT. */
+    Reencryption(Machine M, File oldInput, File oldOutput,
+                 File newInput, File output) {
+        _machine = M;
+        _old = new Layout();
+        _new = new Layout();
+        _oldInput = new Text(oldInput, _old);
+        _oldOutput = new Text(oldOutput, null);
+        _newInput = new Text(newInput, _new);
+        _output = output;
+        if (_old.outputLines != _oldOutput.lines()) {
+            throw error("%s is not the output for %s", oldOutput, oldInput);
+        }
+    }
+
+    /** Write the new output. */
+    void run() {
+        plan();
+        if (!patch()) {
+            write();
+        }
+    }
+
+    /** Return a summary of the work done. */
+    String stats() {
+        return String.format("re-encrypted %d characters in %d lines; "
+                             + "copied %d lines", _converted, _changedLines,
+                             _copiedLines);
+    }
+
+    /** Fill _pieces with the lines of the new output, in order. */
+    private void plan() {
+        try {
+            plan(_oldInput.lines(), _newInput.lines());
+        } finally {
+            _oldInput.close();
+            _oldOutput.close();
+            _newInput.close();
+        }
+    }
+
+    /** Fill _pieces with the lines of the new output, given that there
+     *  are P lines of old input and Q of new input. */
+    private void plan(int p, int q) {
+        int prefix = 0;
+        while (prefix < Math.min(p, q)
+               && _oldInput.sameLine(prefix, _newInput, prefix)) {
+            prefix += 1;
+        }
+        int suffix = 0;
+        if (prefix < Math.min(p, q)) {
+            long common = commonTail(_oldInput.start(prefix),
+                                     _newInput.start(prefix));
+            while (suffix < Math.min(p, q) - prefix) {
+                long tail =
+                    _oldInput.contentEnd() - _oldInput.start(p - 1 - suffix);
+                if (tail > common || tail != _newInput.contentEnd()
+                    - _newInput.start(q - 1 - suffix)) {
+                    break;
+                }
+                suffix += 1;
+            }
+        }
+        for (int i = 0; i < q; i += 1) {
+            if (_new.output[i] < 0) {
+                continue;
+            }
+            int j;
+            if (i < prefix) {
+                j = i;
+            } else if (i >= q - suffix) {
+                j = i - q + p;
+            } else if (p == q) {
+                j = i;
+            } else {
+                j = -1;
+            }
+            if (j >= 0 && _old.output[j] >= 0
+                && _old.offset[j] == _new.offset[i]
+                && _old.letters[j] == _new.letters[i]
+                && _old.settings(j).equals(_new.settings(i))) {
+                if (i < prefix || i >= q - suffix
+                    || _oldInput.sameLine(j, _newInput, i)) {
+                    copy(_old.output[j]);
+                } else {
+                    add(patchLine(i, j));
+                }
+            } else {
+                add(convertLine(i));
+            }
+        }
+    }
+
+    /** Return the number of bytes, after offset OLDSTART of the old
+     *  input and NEWSTART of the new input, that are the same at the ends
+     *  of the two, not counting the terminators of their last lines.
+     *  Those lines that start within that many bytes of the end of both
+     *  inputs, and at the same distance from it, are the same. */
+    private long commonTail(long oldStart, long newStart) {
+        try (RandomAccessFile a = new RandomAccessFile(_oldInput.file(), "r");
+             RandomAccessFile b =
+                 new RandomAccessFile(_newInput.file(), "r")) {
+            byte[] x = new byte[BLOCK], y = new byte[BLOCK];
+            long i = _oldInput.contentEnd(), j = _newInput.contentEnd();
+            long common = 0;
+            while (i > oldStart && j > newStart) {
+                int n = (int) Math.min(BLOCK,
+                                       Math.min(i - oldStart, j - newStart));
+                a.seek(i - n);
+                a.readFully(x, 0, n);
+                b.seek(j - n);
+                b.readFully(y, 0, n);
+                for (int k = n - 1; k >= 0; k -= 1) {
+                    if (x[k] != y[k]) {
+                        return common + n - 1 - k;
+                    }
+                }
+                common += n;
+                i -= n;
+                j -= n;
+            }
+            return common;
+        } catch (IOException excp) {
+            throw error("could not read %s and %s", _oldInput.file(),
+                        _newInput.file());
+        }
+    }
+
+    /** Add line N of the old output to _pieces. */
+    private void copy(int n) {
+        _copiedLines += 1;
+        int last = _pieces.size() - 1;
+        if (last >= 0 && _pieces.get(last).text == null
+            && _pieces.get(last).to == n) {
+            _pieces.get(last).to = n + 1;
+        } else {
+            _pieces.add(new Piece(n, n + 1, null));
+        }
+    }
+
+    /** Add LINE, a line of new output, to _pieces. */
+    private void add(String line) {
+        _changedLines += 1;
+        StringBuilder text = new StringBuilder();
+        Main.appendMessageLine(text, line);
+        _pieces.add(new Piece(0, 0, text.toString().getBytes()));
+    }
+
+    /** Return the conversion of line I of the new input, which differs
+     *  from line J of the old input, but has the same settings, offset
+     *  and length, converting only the characters that differ. */
+    private String patchLine(int i, int j) {
+        String was = letters(_oldInput.line(j)),
+            now = letters(_newInput.line(i)),
+            out = letters(_oldOutput.line(_old.output[j]));
+        if (out.length() != was.length()) {
+            throw error("old output does not match old input at line %d",
+                        j + 1);
+        }
+        char[] result = out.toCharArray();
+        Alphabet alphabet = _machine.alphabet();
+        for (int k = 0; k < now.length(); k += 1) {
+            if (now.charAt(k) != was.charAt(k)) {
+                seek(_new.message[i], _new.offset[i] + k);
+                result[k] = alphabet.toChar(convert(now.charAt(k)));
+            }
+        }
+        return new String(result);
+    }
+
+    /** Return the conversion of line I of the new input. */
+    private String convertLine(int i) {
+        String line = letters(_newInput.line(i));
+        seek(_new.message[i], _new.offset[i]);
+        char[] result = new char[line.length()];
+        Alphabet alphabet = _machine.alphabet();
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = alphabet.toChar(convert(line.charAt(k)));
+        }
+        return new String(result);
+    }
+
+    /** Return the characters of LINE to be converted, as Main takes
+     *  them. */
+    private static String letters(String line) {
+        return line.replaceAll("\\s", "").toUpperCase();
+    }
+
+    /** Return the conversion of C by the engine, counting it. */
+    private int convert(char c) {
+        _converted += 1;
+        _position += 1;
+        return _engine.convert(_machine.alphabet().toInt(c));
+    }
+
+    /** Make _engine the engine for message MESSAGE of the new input as it
+     *  is after converting its first OFFSET characters. */
+    private void seek(int message, long offset) {
+        if (message != _message || offset < _position) {
+            Main.setUp(_machine, _new.settings.get(message));
+            _message = message;
+            _position = 0;
+            _engine = null;
+        }
+        long gap = offset - _position;
+        if (_engine != null && gap <= ENGINE_GAP) {
+            for (long k = 0; k < gap; k += 1) {
+                _engine.convert(0);
+            }
+        } else {
+            if (_engine != null) {
+                _engine.store(_machine);
+            }
+            _machine.advance(gap);
+            _engine = new CompositeEngine(_machine);
+        }
+        _position = offset;
+    }
+
+    /** Write the changed lines of _pieces over the old output, if the
+     *  output file is the old output file and all lines keep their
+     *  lengths, returning true iff that was possible. */
+    private boolean patch() {
+        try {
+            if (!_output.getCanonicalFile()
+                .equals(_oldOutput.file().getCanonicalFile())) {
+                return false;
+            }
+        } catch (IOException excp) {
+            return false;
+        }
+        int n = 0;
+        for (Piece piece : _pieces) {
+            if (piece.text == null) {
+                if (piece.from != n) {
+                    return false;
+                }
+                n = piece.to;
+            } else {
+                if (n >= _oldOutput.lines()
+                    || _oldOutput.next(n) - _oldOutput.start(n)
+                       != piece.text.length) {
+                    return false;
+                }
+                n += 1;
+            }
+        }
+        if (n != _oldOutput.lines()) {
+            return false;
+        }
+        try (RandomAccessFile out = new RandomAccessFile(_output, "rw")) {
+            n = 0;
+            for (Piece piece : _pieces) {
+                if (piece.text == null) {
+                    n = piece.to;
+                } else {
+                    out.seek(_oldOutput.start(n));
+                    out.write(piece.text);
+                    n += 1;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", _output);
+        }
+        return true;
+    }
+
+    /** Write _pieces to the output file, replacing it. */
+    private void write() {
+        File temp = new File(_output.getPath() + ".tmp");
+        try (OutputStream out =
+             new BufferedOutputStream(new FileOutputStream(temp));
+             RandomAccessFile old =
+                 new RandomAccessFile(_oldOutput.file(), "r")) {
+            byte[] buf = new byte[BLOCK];
+            for (Piece piece : _pieces) {
+                if (piece.text == null) {
+                    long start = _oldOutput.start(piece.from),
+                        end = _oldOutput.next(piece.to - 1);
+                    old.seek(start);
+                    for (long k = start; k < end; k += buf.length) {
+                        int n = (int) Math.min(buf.length, end - k);
+                        old.readFully(buf, 0, n);
+                        out.write(buf, 0, n);
+                    }
+                    if (piece.to == _oldOutput.lines()
+                        && !_oldOutput.terminated()) {
+                        out.write('\n');
+                    }
+                } else {
+                    out.write(piece.text);
+                }
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw error("could not write %s", _output);
+        }
+        try {
+            Files.move(temp.toPath(), _output.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw error("could not write %s", _output);
+        }
+    }
+
+    /** The lines of a file, which are read from the file as they are
+     *  needed, and are best asked for in increasing order. */
+    private static class Text {
+
+        /** The lines of FILE, each of which is also added to LAYOUT
+         *  unless it is null. */
+        Text(File file, Layout layout) {
+            _file = file;
+            long[] starts = new long[INITIAL_LINES];
+            int n = 0;
+            LineReader reader = reader(0);
+            try {
+                while (reader.nextLine()) {
+                    if (n + 1 == starts.length) {
+                        starts = Arrays.copyOf(starts, 2 * starts.length);
+                    }
+                    starts[n] = reader.offset();
+                    n += 1;
+                    if (layout != null) {
+                        layout.add(reader);
+                    }
+                    int past = reader.start()
+                        + (int) (reader.position() - reader.offset());
+                    _contentEnd = reader.offset() + reader.length();
+                    _terminated = reader.buffer()[past - 1] == '\n';
+                }
+                starts[n] = reader.position();
+            } finally {
+                reader.close();
+            }
+            _starts = Arrays.copyOf(starts, n + 1);
+        }
+
+        /** Return the file. */
+        File file() {
+            return _file;
+        }
+
+        /** Return the number of lines. */
+        int lines() {
+            return _starts.length - 1;
+        }
+
+        /** Return the offset of line N. */
+        long start(int n) {
+            return _starts[n];
+        }
+
+        /** Return the offset of the line after line N (just past its
+         *  newline, if it has one). */
+        long next(int n) {
+            return _starts[n + 1];
+        }
+
+        /** Return the offset just past the contents of the last line,
+         *  without its newline or a carriage return before that. */
+        long contentEnd() {
+            return _contentEnd;
+        }
+
+        /** Return true iff the last line ends in a newline. */
+        boolean terminated() {
+            return _terminated;
+        }
+
+        /** Return line N. */
+        String line(int n) {
+            return at(n).line();
+        }
+
+        /** Return true iff line N has the same contents as line M of
+         *  OTHER. */
+        boolean sameLine(int n, Text other, int m) {
+            LineReader a = at(n), b = other.at(m);
+            return Arrays.equals(a.buffer(), a.start(), a.start() + a.length(),
+                                 b.buffer(), b.start(),
+                                 b.start() + b.length());
+        }
+
+        /** Close the file, if a line has been read from it since it was
+         *  last closed. */
+        void close() {
+            if (_reader != null) {
+                _reader.close();
+                _reader = null;
+            }
+        }
+
+        /** Return a reader whose current line is line N, reusing the one
+         *  last returned if N does not precede its line and is not far
+         *  past it. */
+        private LineReader at(int n) {
+            if (_reader == null || n < _line
+                || start(n) - _reader.position() > BLOCK) {
+                close();
+                _reader = reader(start(n));
+                _line = n - 1;
+            }
+            while (_line < n) {
+                _reader.nextLine();
+                _line += 1;
+            }
+            return _reader;
+        }
+
+        /** Return a reader for the lines of the file from offset
+         *  OFFSET. */
+        private LineReader reader(long offset) {
+            return LineReader.open(_file.getPath(), offset);
+        }
+
+        /** The file. */
+        private final File _file;
+
+        /** The offset of each line, followed by the length of the
+         *  file. */
+        private final long[] _starts;
+
+        /** The offset just past the contents of the last line. */
+        private long _contentEnd;
+
+        /** True iff the last line ends in a newline. */
+        private boolean _terminated;
+
+        /** The reader last returned by at, or null. */
+        private LineReader _reader;
+
+        /** The number of _reader's current line. */
+        private int _line;
+    }
+
+    /** The messages of an input file, as Main reads them: blank lines
+     *  before the first settings line are skipped, and each other line
+     *  is a settings line (the first non-blank line, or one starting with
+     *  '*') or a message line, which yields one line of output. */
+    private static class Layout {
+
+        /** Add the current line of READER as the next line of the
+         *  input. */
+        void add(LineReader reader) {
+            int i = _lines;
+            if (i == message.length) {
+                message = Arrays.copyOf(message, 2 * i);
+                offset = Arrays.copyOf(offset, 2 * i);
+                letters = Arrays.copyOf(letters, 2 * i);
+                output = Arrays.copyOf(output, 2 * i);
+            }
+            _lines += 1;
+            byte[] buf = reader.buffer();
+            int start = reader.start(), end = start + reader.length();
+            int count = (int) MessageIndex.letters(buf, start, end);
+            output[i] = -1;
+            message[i] = settings.size() - 1;
+            if (settings.isEmpty() && count > 0) {
+                String line = reader.line().trim();
+                String text = line.substring(line.split("\\s", 2)[0]
+                                             .length());
+                settings.add(_unique.computeIfAbsent(text, s -> s));
+                _position = 0;
+            } else if (start < end && buf[start] == '*') {
+                String text = reader.line().substring(1);
+                settings.add(_unique.computeIfAbsent(text, s -> s));
+                _position = 0;
+            } else if (!settings.isEmpty()) {
+                offset[i] = _position;
+                letters[i] = count;
+                output[i] = outputLines;
+                outputLines += 1;
+                _position += count;
+            }
+        }
+
+        /** Return the settings of the message containing line I. */
+        String settings(int i) {
+            return settings.get(message[i]);
+        }
+
+        /** The settings of each message, without the '*'. */
+        final List<String> settings = new ArrayList<>();
+
+        /** For each line, the number of its message (-1 before the
+         *  first). */
+        int[] message = new int[INITIAL_LINES];
+
+        /** For each message line, the number of characters in its
+         *  message before it. */
+        long[] offset = new long[INITIAL_LINES];
+
+        /** For each message line, its number of characters. */
+        int[] letters = new int[INITIAL_LINES];
+
+        /** For each message line, the number of its output line; -1 for
+         *  other lines. */
+        int[] output = new int[INITIAL_LINES];
+
+        /** Number of lines of output. */
+        int outputLines;
+
+        /** Number of lines added. */
+        private int _lines;
+
+        /** Number of characters in the current message so far. */
+        private long _position;
+
+        /** The settings seen so far, each mapped to itself, so that
+         *  messages with the same settings share them. */
+        private final Map<String, String> _unique = new HashMap<>();
+    }
+
+    /** Part of the new output: either the lines FROM up to TO of the old
+     *  output (if TEXT is null), or TEXT. */
+    private static class Piece {
+
+        /** A piece containing lines FROM up to TO of the old output, or
+         *  TEXT if that is not null. */
+        Piece(int from, int to, byte[] text) {
+            this.from = from;
+            this.to = to;
+            this.text = text;
+        }
+
+        /** The range of old output lines. */
+        int from, to;
+
+        /** The new text, or null. */
+        final byte[] text;
+    }
+
+    /** Greatest gap that seek covers by converting with the current
+     *  engine rather than stepping the machine and making a new one. */
+    private static final long ENGINE_GAP = 1024;
+
+    /** Size of the blocks in which files are compared and copied, and
+     *  greatest number of bytes that Text skips by reading rather than
+     *  reopening its file. */
+    private static final int BLOCK = 1 << 16;
+
+    /** Number of lines for which room is made at first. */
+    private static final int INITIAL_LINES = 1024;
+
+    /** The machine. */
+    private final Machine _machine;
+
+    /** The old input and output and the new input. */
+    private final Text _oldInput, _oldOutput, _newInput;
+
+    /** The layouts of the old and new inputs. */
+    private final Layout _old, _new;
+
+    /** The output file. */
+    private final File _output;
+
+    /** The new output. */
+    private final List<Piece> _pieces = new ArrayList<>();
+
+    /** The engine converting the new input, or null if there is none. */
+    private Engine _engine;
+
+    /** The message of the new input that _machine or _engine is set up
+     *  for, or -1. */
+    private int _message = -1;
+
+    /** Number of characters of that message converted so far. */
+    private long _position;
+
+    /** Number of characters converted. */
+    private long _converted;
+
+    /** Numbers of lines converted and copied. */
+    private long _changedLines, _copiedLines;
+
+}
@@ -0,0 +1,219 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the Reencryption class.
+ *  @author Alessandro Buy
+ */
+public class ReencryptionTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** The configuration file used. */
+    static final String CONFIG = "../testing/correct/default.conf";
+
+    /** Settings of the messages in the inputs made by input. */
+    static final String[] SETTINGS = {
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "* B Gamma II V VI QEVZ (AB)",
+        "* C Beta VIII VII I ZZZY"
+    };
+
+    /** Return an input file of messages with SETTINGS, each of LINES
+     *  lines of random letters (in random groups, and in either case),
+     *  made with RANDOM. */
+    static List<String> input(int lines, Random random) {
+        List<String> result = new ArrayList<>();
+        result.add("");
+        for (String settings : SETTINGS) {
+            result.add(settings);
+            for (int i = 0; i < lines; i += 1) {
+                result.add(randomLine(random));
+            }
+        }
+        return result;
+    }
+
+    /** Return a random message line made with RANDOM. */
+    static String randomLine(Random random) {
+        StringBuilder line = new StringBuilder();
+        int length = random.nextInt(60);
+        for (int k = 0; k < length; k += 1) {
+            if (random.nextInt(7) == 0) {
+                line.append(' ');
+            }
+            char c = (char) ('A' + random.nextInt(26));
+            line.append(random.nextBoolean() ? c : Character.toLowerCase(c));
+        }
+        return line.toString();
+    }
+
+    /** Return LINES as the contents of a file. */
+    static String text(List<String> lines) {
+        return String.join("\n", lines) + "\n";
+    }
+
+    /** Return the output of Main for the input INPUT. */
+    static String encrypt(String input) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        new Main(new LineReader(new ByteArrayInputStream(input.getBytes())),
+                 out).processMessages(Main.readConfig(CONFIG));
+        return bytes.toString();
+    }
+
+    /** Return the contents of FILE. */
+    static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()));
+    }
+
+    /** Re-encrypt the file NEW, an edited version of OLD, into OUTPUT
+     *  (the file holding OLD's output if INPLACE), check that the result
+     *  is NEW's output, and return the re-encryption. */
+    static Reencryption check(String old, String now, boolean inPlace)
+        throws IOException {
+        File oldInput = File.createTempFile("enigma", ".inp"),
+            oldOutput = File.createTempFile("enigma", ".out"),
+            newInput = File.createTempFile("enigma", ".inp"),
+            output = inPlace ? oldOutput : File.createTempFile("enigma",
+                                                               ".out");
+        try {
+            Files.write(oldInput.toPath(), old.getBytes());
+            Files.write(oldOutput.toPath(), encrypt(old).getBytes());
+            Files.write(newInput.toPath(), now.getBytes());
+            Reencryption update =
+                new Reencryption(Main.readConfig(CONFIG), oldInput,
+                                 oldOutput, newInput, output);
+            update.run();
+            assertEquals(encrypt(now), read(output));
+            return update;
+        } finally {
+            oldInput.delete();
+            oldOutput.delete();
+            newInput.delete();
+            output.delete();
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSameLength() throws IOException {
+        Random random = new Random(1);
+        List<String> lines = input(40, random);
+        String old = text(lines);
+        int i = 1 + SETTINGS.length + 50;
+        while (lines.get(i).replace(" ", "").length() < 10) {
+            i += 1;
+        }
+        String line = lines.get(i);
+        int k = line.indexOf(line.replace(" ", "").charAt(7));
+        char c = line.charAt(k) == 'q' || line.charAt(k) == 'Q' ? 'x' : 'q';
+        lines.set(i, line.substring(0, k) + c + line.substring(k + 1));
+        for (boolean inPlace : new boolean[] { false, true }) {
+            Reencryption update = check(old, text(lines), inPlace);
+            assertTrue(update.stats(),
+                       update.stats().startsWith("re-encrypted 1 characters "
+                                                 + "in 1 lines"));
+        }
+    }
+
+    @Test
+    public void testInsertions() throws IOException {
+        Random random = new Random(2);
+        List<String> lines = input(40, random);
+        String old = text(lines);
+        List<String> edited = new ArrayList<>(lines);
+        edited.set(20, edited.get(20) + "xyz");
+        check(old, text(edited), true);
+        Reencryption update = check(old, text(edited), false);
+        assertTrue(update.stats(), !update.stats().contains("copied 0 "));
+
+        edited = new ArrayList<>(lines);
+        edited.add(60, "ABC DEF");
+        edited.remove(100);
+        check(old, text(edited), true);
+
+        edited = new ArrayList<>(lines);
+        edited.addAll(43, Arrays.asList("* B Beta I II III AAAA", "hello"));
+        check(old, text(edited), false);
+    }
+
+    @Test
+    public void testSettings() throws IOException {
+        Random random = new Random(3);
+        List<String> lines = input(30, random);
+        String old = text(lines);
+        List<String> edited = new ArrayList<>(lines);
+        edited.set(1, "* B Beta III IV I AXLF (HQ) (EX) (IP) (TR) (BY)");
+        edited.set(40, "* B Gamma II V VI QEVZ   (AB)");
+        check(old, text(edited), true);
+
+        edited = new ArrayList<>(lines);
+        edited.remove(32);
+        check(old, text(edited), false);
+    }
+
+    @Test
+    public void testLineEnds() throws IOException {
+        Random random = new Random(5);
+        int n = 30;
+        List<String> lines = input(n, random);
+        List<String> edited = new ArrayList<>(lines);
+        edited.add(7, "ABC");
+        for (boolean inPlace : new boolean[] { false, true }) {
+            Reencryption update =
+                check(String.join("\r\n", lines),
+                      String.join("\r\n", edited) + "\n", inPlace);
+            assertTrue(update.stats(),
+                       update.stats().endsWith("copied " + (5 + 2 * n)
+                                               + " lines"));
+        }
+    }
+
+    @Test
+    public void testRandomEdits() throws IOException {
+        Random random = new Random(4);
+        for (int trial = 0; trial < 30; trial += 1) {
+            List<String> lines = input(20, random);
+            String old = text(lines);
+            for (int e = random.nextInt(3); e >= 0; e -= 1) {
+                int i = 2 + random.nextInt(lines.size() - 2);
+                if (lines.get(i).startsWith("*")) {
+                    continue;
+                }
+                switch (random.nextInt(3)) {
+                case 0:
+                    lines.set(i, randomLine(random));
+                    break;
+                case 1:
+                    lines.add(i, randomLine(random));
+                    break;
+                default:
+                    lines.remove(i);
+                    break;
+                }
+            }
+            check(old, text(lines), random.nextBoolean());
+        }
+    }
+
+}
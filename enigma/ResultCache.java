@@ -0,0 +1,355 @@
+package enigma;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** A bounded cache of the results of converting whole messages, so that
+ *  a message that is seen again with the same settings need not be
+ *  converted again.  Keys are strings (such as a normalized settings
+ *  line followed by the normalized lines of a message) and are looked
+ *  up by a 64-bit hash; the full key is kept with each entry and
+ *  compared on a hit, so that a collision of hashes is only a miss.
+ *
+ *  Entries are kept in memory in least-recently-used order, up to a
+ *  limit on their total size.  When adding an entry would exceed the
+ *  limit, the new entry is admitted only if it is estimated to be used
+ *  more often than the least recently used one, which is then evicted
+ *  (the TinyLFU policy); the estimate comes from a small count-min
+ *  sketch of the hashes of all keys looked up, which is periodically
+ *  halved so that it follows changes in the traffic.  If a spill
+ *  directory is given, entries that are evicted or not admitted are
+ *  written to files there, and misses in memory are looked for there.
+ *  @author Alessandro Buy
+ */
+class ResultCache {
+
+    /** A cache holding at most CAPACITY bytes of entries in memory and
+     *  spilling to the directory SPILL, if it is not null.  NAMESPACE
+     *  (for example, a hash of the machine configuration) is made part
+     *  of every key, so that spilled entries for different
+     *  configurations are kept apart. */
+    ResultCache(long capacity, File spill, String namespace) {
+        if (capacity < 1) {
+            throw error("cache capacity must be positive");
+        }
+        if (spill != null && !spill.isDirectory() && !spill.mkdirs()) {
+            throw error("could not create directory %s", spill);
+        }
+        _capacity = capacity;
+        _spill = spill;
+        _namespace = namespace + "\n";
+        _sketch = new FrequencySketch(
+            (int) Math.min(1 << 20, Math.max(64, capacity / 256)));
+    }
+
+    /** Return the value cached for KEY, or null if there is none. */
+    String get(String key) {
+        key = _namespace + key;
+        long hash = hash(key);
+        _sketch.increment(hash);
+        Entry entry = _entries.get(hash);
+        if (entry != null && entry.key.equals(key)) {
+            _hits += 1;
+            return entry.value;
+        }
+        String value = readSpilled(hash, key);
+        if (value != null) {
+            _hits += 1;
+            _diskHits += 1;
+            admit(hash, new Entry(key, value));
+            return value;
+        }
+        _misses += 1;
+        return null;
+    }
+
+    /** Cache VALUE as the value for KEY. */
+    void put(String key, String value) {
+        key = _namespace + key;
+        admit(hash(key), new Entry(key, value));
+    }
+
+    /** Add ENTRY, whose key has hash HASH, to memory if there is room
+     *  or it is used more often than the entries it would displace,
+     *  spilling whatever does not stay in memory. */
+    private void admit(long hash, Entry entry) {
+        Entry old = _entries.remove(hash);
+        if (old != null) {
+            _size -= old.size();
+        }
+        if (entry.size() > _capacity) {
+            spill(hash, entry);
+            _rejections += 1;
+            return;
+        }
+        Iterator<Map.Entry<Long, Entry>> victims =
+            _entries.entrySet().iterator();
+        boolean compared = false;
+        while (_size + entry.size() > _capacity) {
+            Map.Entry<Long, Entry> victim = victims.next();
+            if (!compared) {
+                compared = true;
+                if (_sketch.frequency(hash)
+                    <= _sketch.frequency(victim.getKey())) {
+                    spill(hash, entry);
+                    _rejections += 1;
+                    return;
+                }
+            }
+            victims.remove();
+            _size -= victim.getValue().size();
+            spill(victim.getKey(), victim.getValue());
+            _evictions += 1;
+        }
+        _entries.put(hash, entry);
+        _size += entry.size();
+    }
+
+    /** Write ENTRY, whose key has hash HASH, to the spill directory, if
+     *  there is one. */
+    private void spill(long hash, Entry entry) {
+        if (_spill == null) {
+            return;
+        }
+        File file = spillFile(hash);
+        File temp = new File(_spill, file.getName() + ".tmp");
+        try (DataOutputStream out =
+                 new DataOutputStream(new FileOutputStream(temp))) {
+            byte[] key = entry.key.getBytes(StandardCharsets.UTF_8);
+            byte[] value = entry.value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(value.length);
+            out.write(value);
+        } catch (IOException excp) {
+            temp.delete();
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            _spills += 1;
+        } catch (IOException excp) {
+            temp.delete();
+        }
+    }
+
+    /** Return the value spilled for KEY, whose hash is HASH, or null if
+     *  there is none. */
+    private String readSpilled(long hash, String key) {
+        if (_spill == null) {
+            return null;
+        }
+        File file = spillFile(hash);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in =
+                 new DataInputStream(new FileInputStream(file))) {
+            byte[] stored = readBytes(in, file.length());
+            if (stored == null
+                || !new String(stored, StandardCharsets.UTF_8).equals(key)) {
+                return null;
+            }
+            byte[] value = readBytes(in, file.length());
+            return value == null ? null
+                : new String(value, StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Read a length and that many bytes from IN, a file of LIMIT bytes,
+     *  returning the bytes or null if the length is impossible. */
+    private static byte[] readBytes(DataInputStream in, long limit)
+        throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > limit) {
+            return null;
+        }
+        byte[] result = new byte[length];
+        in.readFully(result);
+        return result;
+    }
+
+    /** Return the spill file for keys with hash HASH. */
+    private File spillFile(long hash) {
+        return new File(_spill, String.format("%016x", hash));
+    }
+
+    /** Return the number of lookups that found a value. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that found a value on disk. */
+    long diskHits() {
+        return _diskHits;
+    }
+
+    /** Return the number of lookups that found nothing. */
+    long misses() {
+        return _misses;
+    }
+
+    /** Return the number of entries evicted from memory. */
+    long evictions() {
+        return _evictions;
+    }
+
+    /** Return the number of entries not admitted to memory. */
+    long rejections() {
+        return _rejections;
+    }
+
+    /** Return the total size of the entries in memory, in bytes. */
+    long size() {
+        return _size;
+    }
+
+    /** Return a one-line summary of my metrics. */
+    String stats() {
+        long lookups = _hits + _misses;
+        return String.format("cache: %d lookups, %d hits (%.1f%%), "
+                             + "%d from disk, %d entries (%d bytes), "
+                             + "%d evicted, %d not admitted, %d spilled",
+                             lookups, _hits,
+                             lookups == 0 ? 0.0 : 100.0 * _hits / lookups,
+                             _diskHits, _entries.size(), _size, _evictions,
+                             _rejections, _spills);
+    }
+
+    /** Return a 64-bit hash of S. */
+    static long hash(String s) {
+        long h = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < s.length(); i += 1) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** A cached key and value. */
+    private static class Entry {
+        /** An entry mapping KEY to VALUE. */
+        Entry(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        /** Return the approximate number of bytes I occupy. */
+        long size() {
+            return 2L * (key.length() + value.length()) + ENTRY_OVERHEAD;
+        }
+
+        /** The full key and the value. */
+        final String key, value;
+    }
+
+    /** A count-min sketch estimating how often each hash has been seen
+     *  recently, with counters that saturate at 15 and are all halved
+     *  after a number of increments proportional to their number. */
+    private static class FrequencySketch {
+        /** A sketch with about WIDTH counters in each row. */
+        FrequencySketch(int width) {
+            int size = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+            _counts = new byte[DEPTH][size];
+            _mask = size - 1;
+            _sampleSize = 10 * size;
+        }
+
+        /** Record one occurrence of HASH. */
+        void increment(long hash) {
+            for (int row = 0; row < DEPTH; row += 1) {
+                int i = index(hash, row);
+                if (_counts[row][i] < MAX_COUNT) {
+                    _counts[row][i] += 1;
+                }
+            }
+            _additions += 1;
+            if (_additions >= _sampleSize) {
+                for (byte[] counts : _counts) {
+                    for (int i = 0; i < counts.length; i += 1) {
+                        counts[i] >>= 1;
+                    }
+                }
+                _additions /= 2;
+            }
+        }
+
+        /** Return the estimated recent number of occurrences of HASH. */
+        int frequency(long hash) {
+            int result = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row += 1) {
+                result = Math.min(result, _counts[row][index(hash, row)]);
+            }
+            return result;
+        }
+
+        /** Return the index of HASH in row ROW. */
+        private int index(long hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            return (int) (h >>> 32) & _mask;
+        }
+
+        /** Number of rows. */
+        private static final int DEPTH = 4;
+        /** Largest count. */
+        private static final int MAX_COUNT = 15;
+        /** Multipliers that distinguish the rows. */
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+        /** The counters. */
+        private final byte[][] _counts;
+        /** Number of counters in a row, less 1. */
+        private final int _mask;
+        /** Number of increments after which all counters are halved. */
+        private final int _sampleSize;
+        /** Increments since the last halving (or half of them). */
+        private int _additions;
+    }
+
+    /** Approximate size of an entry apart from its strings. */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /** Greatest total size of entries in memory. */
+    private final long _capacity;
+
+    /** Directory for spilled entries, or null. */
+    private final File _spill;
+
+    /** Prefix of all keys. */
+    private final String _namespace;
+
+    /** Entries in memory by hash, least recently used first. */
+    private final LinkedHashMap<Long, Entry> _entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Estimates of frequencies of use. */
+    private final FrequencySketch _sketch;
+
+    /** Total size of the entries in memory. */
+    private long _size;
+
+    /** Metrics. */
+    private long _hits, _diskHits, _misses, _evictions, _rejections,
+        _spills;
+
+}
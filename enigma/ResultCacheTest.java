@@ -0,0 +1,120 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/** The suite of all JUnit tests for the ResultCache class.
+ *  @author Alessandro Buy
+ */
+public class ResultCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a string of N copies of C. */
+    private static String repeat(char c, int n) {
+        return String.valueOf(c).repeat(n);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testHitsAndMisses() {
+        ResultCache cache = new ResultCache(1 << 20, null, "conf");
+        assertNull(cache.get("B I II AA\nHELLO\n"));
+        cache.put("B I II AA\nHELLO\n", "ABCDE\n");
+        assertEquals("ABCDE\n", cache.get("B I II AA\nHELLO\n"));
+        assertNull(cache.get("B I II AB\nHELLO\n"));
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+        ResultCache other = new ResultCache(1 << 20, null, "other");
+        assertNull(other.get("B I II AA\nHELLO\n"));
+    }
+
+    @Test
+    public void testKeysVerified() {
+        ResultCache cache = new ResultCache(1 << 20, null, "conf");
+        cache.put("ONE", "1");
+        cache.put("TWO", "2");
+        assertEquals("1", cache.get("ONE"));
+        assertEquals("2", cache.get("TWO"));
+        assertNotEquals(ResultCache.hash("ONE"), ResultCache.hash("TWO"));
+    }
+
+    @Test
+    public void testEviction() {
+        ResultCache cache = new ResultCache(2000, null, "conf");
+        String value = repeat('X', 300);
+        for (int i = 0; i < 10; i += 1) {
+            for (int k = 0; k <= i; k += 1) {
+                cache.get("K" + i);
+            }
+            cache.put("K" + i, value);
+        }
+        assertTrue(cache.size() <= 2000);
+        assertTrue(cache.evictions() > 0);
+        assertEquals(value, cache.get("K9"));
+        assertNull(cache.get("K0"));
+    }
+
+    @Test
+    public void testAdmission() {
+        ResultCache cache = new ResultCache(2000, null, "conf");
+        String value = repeat('X', 300);
+        for (int k = 0; k < 5; k += 1) {
+            for (int i = 0; i < 2; i += 1) {
+                if (cache.get("HOT" + i) == null) {
+                    cache.put("HOT" + i, value);
+                }
+            }
+        }
+        cache.put("COLD", value);
+        assertEquals(1, cache.rejections());
+        assertNull(cache.get("COLD"));
+        assertEquals(value, cache.get("HOT0"));
+        assertEquals(value, cache.get("HOT1"));
+    }
+
+    @Test
+    public void testSpill() throws IOException {
+        File dir = Files.createTempDirectory("cache").toFile();
+        try {
+            ResultCache cache = new ResultCache(1000, dir, "conf");
+            String value = repeat('Y', 200);
+            for (int i = 0; i < 5; i += 1) {
+                cache.put("K" + i, value + i);
+            }
+            for (int i = 0; i < 5; i += 1) {
+                assertEquals(value + i, cache.get("K" + i));
+            }
+            assertTrue(cache.diskHits() > 0);
+            ResultCache later = new ResultCache(1000, dir, "conf");
+            ResultCache other = new ResultCache(1000, dir, "other");
+            int found = 0;
+            for (int i = 0; i < 5; i += 1) {
+                String spilled = later.get("K" + i);
+                if (spilled != null) {
+                    assertEquals(value + i, spilled);
+                    found += 1;
+                }
+                assertNull(other.get("K" + i));
+            }
+            assertTrue(found > 0);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A bounded first-in, first-out queue for passing items from one
+ *  producer thread to one consumer thread without locking.  Only the
+ *  producer may call offer, and only the consumer may call poll.
+ *  @author Alessandro Buy
+ */
+class RingBuffer<T> {
+
+    /** A queue holding at least CAPACITY > 0 items. */
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        _items = new Object[size];
+        _mask = size - 1;
+    }
+
+    /** Add ITEM (not null) to the end of the queue and return true, or
+     *  return false if the queue is full. */
+    boolean offer(T item) {
+        long tail = _tail.get();
+        if (tail - _headCache >= _items.length) {
+            _headCache = _head.get();
+            if (tail - _headCache >= _items.length) {
+                return false;
+            }
+        }
+        _items[(int) tail & _mask] = item;
+        _tail.lazySet(tail + 1);
+        return true;
+    }
+
+    /** Remove and return the first item in the queue, or return null if
+     *  it is empty. */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long head = _head.get();
+        if (head >= _tailCache) {
+            _tailCache = _tail.get();
+            if (head >= _tailCache) {
+                return null;
+            }
+        }
+        int k = (int) head & _mask;
+        T item = (T) _items[k];
+        _items[k] = null;
+        _head.lazySet(head + 1);
+        return item;
+    }
+
+    /** The queued items, at indices (mod length) from _head to _tail. */
+    private final Object[] _items;
+
+    /** _items.length - 1 (a power of 2, less 1). */
+    private final int _mask;
+
+    /** Number of items ever removed (written only by the consumer). */
+    private final AtomicLong _head = new AtomicLong();
+
+    /** Number of items ever added (written only by the producer). */
+    private final AtomicLong _tail = new AtomicLong();
+
+    /** The producer's most recent reading of _head. */
+    private long _headCache;
+
+    /** The consumer's most recent reading of _tail. */
+    private long _tailCache;
+
+}
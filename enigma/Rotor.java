@@ -29,6 +29,12 @@ class Rotor {
         return _permutation;
     }
 
+    /** Return the permutation I perform at my current setting, so that
+     *  convertForward(p) is currentPermutation().permute(p). */
+    Permutation currentPermutation() {
+        return _permutation;
+    }
+
     /** Return the size of my alphabet. */
     int size() {
         return _permutation.size();
@@ -82,6 +88,13 @@ class Rotor {
     void advance() {
     }
 
+    /** Return a new rotor like me, with my current setting. */
+    Rotor copy() {
+        Rotor result = new Rotor(_name, _permutation);
+        result.set(_setting);
+        return result;
+    }
+
     @Override
     public String toString() {
         return "Rotor " + _name;
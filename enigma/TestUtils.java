@@ -1,6 +1,8 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Random;
 
 /** Utility definitions for use in unit tests.
  *  @author P. N. Hilfinger
@@ -126,4 +128,55 @@ class TestUtils {
         NAVALZ_MAP.put("Gamma", "EGTPLBOVFSINCUJZDXMRQAYWHK");
     }
 
+    /** Return a machine with 5 slots and 3 pawls holding the naval
+     *  rotors. */
+    static Machine navalMachine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        String[] moving = { "I", "II", "III", "IV", "V" };
+        String notches = "QEVJZ";
+        for (int i = 0; i < moving.length; i += 1) {
+            rotors.add(new MovingRotor(moving[i],
+                          new Permutation(NAVALA.get(moving[i]), UPPER),
+                          notches.substring(i, i + 1)));
+        }
+        rotors.add(new FixedRotor("Beta",
+                                  new Permutation(NAVALA.get("Beta"), UPPER)));
+        rotors.add(new Reflector("B",
+                                 new Permutation(NAVALA.get("B"), UPPER)));
+        return new Machine(UPPER, 5, 3, rotors);
+    }
+
+    /** Return the naval machine set up with SETTINGS (a settings line
+     *  without its '*'). */
+    static Machine navalMachine(String settings) {
+        Machine M = navalMachine();
+        Main.setUp(M, settings);
+        return M;
+    }
+
+    /** Return the conversion of MSG by the naval machine set up with
+     *  SETTINGS, using Machine.convert. */
+    static String expected(String settings, String msg) {
+        return navalMachine(settings).convert(msg);
+    }
+
+    /** Return the conversion of MSG, in upper-case letters, by ENGINE. */
+    static String convert(Engine engine, String msg) {
+        char[] result = new char[msg.length()];
+        for (int i = 0; i < msg.length(); i += 1) {
+            result[i] = (char) ('A' + engine.convert(msg.charAt(i) - 'A'));
+        }
+        return new String(result);
+    }
+
+    /** Return a random message of LENGTH upper-case letters chosen with
+     *  RANDOM. */
+    static String randomMessage(int length, Random random) {
+        char[] msg = new char[length];
+        for (int i = 0; i < length; i += 1) {
+            msg[i] = (char) ('A' + random.nextInt(26));
+        }
+        return new String(msg);
+    }
+
 }
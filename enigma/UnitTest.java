@@ -11,7 +11,18 @@ public class UnitTest {
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
         textui.runClasses(PermutationTest.class,
-                MovingRotorTest.class, MachineTest.class);
+                MovingRotorTest.class, MachineTest.class, CheckpointTest.class,
+                MachineProcessorTest.class, PlugboardSolverTest.class,
+                KeySpaceTest.class,
+                EventsTest.class, ByteMachineTest.class,
+                NgramScorerTest.class, KeySearchTest.class,
+                EngineCompilerTest.class, ResultCacheTest.class,
+                AllocationTest.class, CompositeEngineTest.class,
+                MessageIndexTest.class, CribScannerTest.class,
+                DepthFinderTest.class, ReencryptionTest.class,
+                EngineSelectorTest.class, MainTest.class,
+                KeystreamCacheTest.class, PipelineTest.class,
+                BatchTest.class, CycleCatalogTest.class);
     }
 
 }